@@ -0,0 +1,13 @@
+package org.juxtasoftware.bench;
+
+/**
+ * Settings shared by all benchmarks. Keep them fixed between releases so
+ * that results stay comparable.
+ */
+final class Benchmarks {
+    static final long SEED = 20121108L;
+    static final int VOCABULARY = 5000;
+
+    private Benchmarks() {
+    }
+}
@@ -0,0 +1,51 @@
+package org.juxtasoftware.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.juxtasoftware.diff.Comparison;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Removing transposed ranges from a comparison before it is diffed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ComparisonFilterBenchmark {
+
+    @Param({ "100000" })
+    public int length;
+
+    @Param({ "10", "100", "1000" })
+    public int transpositions;
+
+    private SyntheticCollation collation;
+    private Comparison comparison;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final WitnessGenerator generator = new WitnessGenerator(Benchmarks.SEED, Benchmarks.VOCABULARY, WitnessGenerator.Distribution.ZIPF);
+        this.collation = new SyntheticCollation(generator.generate(this.length, 0.02, this.transpositions), null, false, null);
+        this.comparison = new Comparison(this.collation.getBase(), this.collation.getWitness());
+    }
+
+    @Benchmark
+    public List<Comparison> filter() {
+        return this.comparison.filter(this.collation.getTranspositions());
+    }
+}
@@ -0,0 +1,95 @@
+package org.juxtasoftware.bench;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.DiffCollator;
+import org.juxtasoftware.diff.impl.HistogramDiff;
+import org.juxtasoftware.diff.impl.MyersDiff;
+import org.juxtasoftware.diff.impl.PatienceDiff;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to collate one synthetic witness pair, transpositions included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DiffCollatorBenchmark {
+    public enum Algorithm {MYERS, PATIENCE, HISTOGRAM};
+
+    @Param({ "1000", "10000", "100000" })
+    public int length;
+
+    @Param({ "0.02", "0.1" })
+    public double variance;
+
+    @Param({ "0", "10" })
+    public int transpositions;
+
+    @Param({ "ZIPF", "UNIFORM" })
+    public WitnessGenerator.Distribution distribution;
+
+    @Param({ "MYERS", "PATIENCE", "HISTOGRAM" })
+    public Algorithm algorithm;
+
+    @Param({ "false", "true" })
+    public boolean columnar;
+
+    @Param({ "1" })
+    public int threads;
+
+    private ExecutorService executor;
+    private SyntheticCollation collation;
+    private DiffCollator collator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final WitnessGenerator generator = new WitnessGenerator(Benchmarks.SEED, Benchmarks.VOCABULARY, this.distribution);
+        this.executor = (this.threads > 1 ? Executors.newFixedThreadPool(this.threads) : null);
+        this.collation = new SyntheticCollation(generator.generate(this.length, this.variance, this.transpositions),
+            createAlgorithm(), this.columnar, this.executor);
+        this.collator = new DiffCollator();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (this.executor != null) {
+            this.executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public int collate() throws IOException {
+        this.collator.collate(this.collation, this.collation.getBase(), this.collation.getWitness());
+        this.collation.getDifferenceStore().save();
+        return this.collation.takeDifferenceCount();
+    }
+
+    private DiffAlgorithm createAlgorithm() {
+        if (Algorithm.PATIENCE.equals(this.algorithm)) {
+            return new PatienceDiff();
+        } else if (Algorithm.HISTOGRAM.equals(this.algorithm)) {
+            return new HistogramDiff();
+        }
+        return new MyersDiff();
+    }
+}
@@ -0,0 +1,53 @@
+package org.juxtasoftware.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.juxtasoftware.diff.impl.EditDistance;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Edit distance of changed token pairs, per batch of pairs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EditDistanceBenchmark {
+    private static final int PAIRS = 1024;
+
+    @Param({ "8", "32", "64", "200" })
+    public int length;
+
+    @Param({ "0.2" })
+    public double variance;
+
+    private String[][] pairs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final WitnessGenerator generator = new WitnessGenerator(Benchmarks.SEED, 1, WitnessGenerator.Distribution.UNIFORM);
+        this.pairs = generator.wordPairs(PAIRS, this.length, this.variance);
+    }
+
+    @Benchmark
+    public int compute() {
+        int total = 0;
+        for (String[] pair : this.pairs) {
+            total += EditDistance.compute(pair[0], pair[1]);
+        }
+        return total;
+    }
+}
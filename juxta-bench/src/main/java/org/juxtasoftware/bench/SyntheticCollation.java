@@ -0,0 +1,217 @@
+package org.juxtasoftware.bench;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import org.juxtasoftware.diff.Comparand;
+import org.juxtasoftware.diff.Comparison;
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.DiffCollatorConfiguration;
+import org.juxtasoftware.diff.Difference;
+import org.juxtasoftware.diff.DifferenceBuffer;
+import org.juxtasoftware.diff.DifferenceStore;
+import org.juxtasoftware.diff.Token;
+import org.juxtasoftware.diff.TokenSource;
+import org.juxtasoftware.diff.TranspositionSource;
+import org.juxtasoftware.diff.impl.SimpleToken;
+import org.juxtasoftware.diff.impl.SimpleTokenComparator;
+
+import eu.interedition.text.Annotation;
+import eu.interedition.text.Name;
+import eu.interedition.text.Range;
+import eu.interedition.text.Text;
+import eu.interedition.text.mem.SimpleAnnotation;
+import eu.interedition.text.mem.SimpleName;
+import eu.interedition.text.mem.SimpleText;
+
+/**
+ * In-memory collation setup for a generated {@link WitnessGenerator.WitnessPair}:
+ * comparands, pre-tokenized texts, the transpositions and a store that only
+ * counts differences. Nothing touches a database, so the benchmarks measure
+ * the diff engine alone.
+ */
+public class SyntheticCollation implements DiffCollatorConfiguration, TokenSource, TranspositionSource {
+    private static final Name TOKEN_NAME = new SimpleName((URI) null, "token");
+    private static final Name TRANSPOSITION_NAME = new SimpleName((URI) null, "transposition");
+
+    private final SyntheticComparand base;
+    private final SyntheticComparand witness;
+    private final List<Token> baseTokens;
+    private final List<Token> witnessTokens;
+    private final Set<Set<Annotation>> transpositions = new HashSet<Set<Annotation>>();
+    private final Comparator<Token> tokenComparator = new SimpleTokenComparator();
+    private final DiffAlgorithm diffAlgorithm;
+    private final DifferenceStore store;
+    private final ExecutorService executor;
+    private int differences;
+
+    public SyntheticCollation(WitnessGenerator.WitnessPair pair, DiffAlgorithm algorithm, boolean columnar, ExecutorService executor) {
+        this.base = new SyntheticComparand(pair.getBase());
+        this.witness = new SyntheticComparand(pair.getWitness());
+        this.baseTokens = tokenize(this.base.getText(), pair.getBase());
+        this.witnessTokens = tokenize(this.witness.getText(), pair.getWitness());
+        this.diffAlgorithm = algorithm;
+        this.executor = executor;
+        this.store = (columnar ? new CountingBuffer() : new CountingStore());
+
+        for (int[] t : pair.getTranspositions()) {
+            final Set<Annotation> transposition = new HashSet<Annotation>(2);
+            transposition.add(new SimpleAnnotation(this.base.getText(), TRANSPOSITION_NAME, new Range(t[0], t[1]), null));
+            transposition.add(new SimpleAnnotation(this.witness.getText(), TRANSPOSITION_NAME, new Range(t[2], t[3]), null));
+            this.transpositions.add(transposition);
+        }
+    }
+
+    public Comparand getBase() {
+        return this.base;
+    }
+
+    public Comparand getWitness() {
+        return this.witness;
+    }
+
+    public Set<Set<Annotation>> getTranspositions() {
+        return this.transpositions;
+    }
+
+    public List<Token> getBaseTokens() {
+        return this.baseTokens;
+    }
+
+    public List<Token> getWitnessTokens() {
+        return this.witnessTokens;
+    }
+
+    /**
+     * @return the number of differences stored since the last call
+     */
+    public int takeDifferenceCount() {
+        final int count = this.differences;
+        this.differences = 0;
+        return count;
+    }
+
+    @Override
+    public List<Token> tokensOf(Text text, Set<Range> ranges) throws IOException {
+        final List<Token> all = (text == this.base.getText() ? this.baseTokens : this.witnessTokens);
+        final List<Token> tokens = new ArrayList<Token>(all.size());
+        for (Token token : all) {
+            final Range tokenRange = token.getAnnotation().getRange();
+            for (Range range : ranges) {
+                if (range.getStart() <= tokenRange.getStart() && tokenRange.getEnd() <= range.getEnd()) {
+                    tokens.add(token);
+                    break;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    @Override
+    public Set<Set<Annotation>> transpositionsIn(Comparison collation) throws IOException {
+        return this.transpositions;
+    }
+
+    @Override
+    public TokenSource getTokenSource() {
+        return this;
+    }
+
+    @Override
+    public TranspositionSource getTranspositionSource() {
+        return this;
+    }
+
+    @Override
+    public Comparator<Token> getTokenComparator() {
+        return this.tokenComparator;
+    }
+
+    @Override
+    public DifferenceStore getDifferenceStore() {
+        return this.store;
+    }
+
+    @Override
+    public DiffAlgorithm getDiffAlgorithm() {
+        return this.diffAlgorithm;
+    }
+
+    @Override
+    public int getLinearSpaceThreshold() {
+        return 0;
+    }
+
+    @Override
+    public ExecutorService getDiffExecutor() {
+        return this.executor;
+    }
+
+    private static List<Token> tokenize(Text text, String content) {
+        final List<Token> tokens = new ArrayList<Token>();
+        int start = 0;
+        for (int i = 0; i <= content.length(); i++) {
+            if (i == content.length() || content.charAt(i) == ' ') {
+                if (i > start) {
+                    final SimpleAnnotation a = new SimpleAnnotation(text, TOKEN_NAME, new Range(start, i), null);
+                    tokens.add(new SimpleToken(a, content.substring(start, i)));
+                }
+                start = i + 1;
+            }
+        }
+        return Collections.unmodifiableList(tokens);
+    }
+
+    private static final class SyntheticComparand implements Comparand {
+        private final SimpleText text;
+
+        private SyntheticComparand(String content) {
+            this.text = new SimpleText(Text.Type.TXT, content);
+        }
+
+        @Override
+        public Text getText() {
+            return this.text;
+        }
+
+        @Override
+        public Range getTextRange() {
+            return new Range(0, this.text.getLength());
+        }
+    }
+
+    private final class CountingStore implements DifferenceStore {
+        @Override
+        public void add(Difference difference) throws IOException {
+            differences++;
+        }
+
+        @Override
+        public void save() throws IOException {
+        }
+    }
+
+    private final class CountingBuffer extends DifferenceBuffer {
+        private CountingBuffer() {
+            super(20000);
+        }
+
+        @Override
+        protected long annotationId(Annotation annotation) {
+            return annotation.getRange().getStart();
+        }
+
+        @Override
+        public void save() throws IOException {
+            differences += size();
+            clear();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.juxtasoftware.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.juxtasoftware.diff.Token;
+import org.juxtasoftware.diff.impl.SimpleTokenComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Token comparisons: pairwise over two aligned witnesses, and a full sort.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TokenComparatorBenchmark {
+
+    @Param({ "10000" })
+    public int length;
+
+    @Param({ "ZIPF", "UNIFORM" })
+    public WitnessGenerator.Distribution distribution;
+
+    private final Comparator<Token> comparator = new SimpleTokenComparator();
+    private List<Token> baseTokens;
+    private List<Token> witnessTokens;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        final WitnessGenerator generator = new WitnessGenerator(Benchmarks.SEED, Benchmarks.VOCABULARY, this.distribution);
+        final SyntheticCollation collation = new SyntheticCollation(generator.generate(this.length, 0.1, 0), null, false, null);
+        this.baseTokens = collation.getBaseTokens();
+        this.witnessTokens = collation.getWitnessTokens();
+    }
+
+    @Benchmark
+    public int compare() {
+        final int size = Math.min(this.baseTokens.size(), this.witnessTokens.size());
+        int equal = 0;
+        for (int i = 0; i < size; i++) {
+            if (this.comparator.compare(this.baseTokens.get(i), this.witnessTokens.get(i)) == 0) {
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+    @Benchmark
+    public List<Token> sort() {
+        final List<Token> tokens = new ArrayList<Token>(this.baseTokens);
+        Collections.sort(tokens, this.comparator);
+        return tokens;
+    }
+}
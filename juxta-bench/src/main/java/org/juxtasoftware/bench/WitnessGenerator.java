@@ -0,0 +1,228 @@
+package org.juxtasoftware.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of synthetic witness pairs. The same seed and settings
+ * always produce the same texts, so results can be compared across releases.
+ * <p/>
+ * A base text of <code>length</code> tokens is drawn from a vocabulary of random
+ * words, either uniformly or with a Zipf distribution like natural language.
+ * The witness is a copy of the base in which <code>transpositions</code> blocks of
+ * tokens have been moved, after which every token is changed, deleted or
+ * followed by an added token with a combined probability of <code>variance</code>.
+ */
+public class WitnessGenerator {
+    public enum Distribution {UNIFORM, ZIPF};
+
+    private static final int MIN_BLOCK = 5;
+    private static final int MAX_BLOCK = 20;
+
+    private final Random random;
+    private final String[] vocabulary;
+    private final double[] cumulative;
+
+    public WitnessGenerator(long seed, int vocabularySize, Distribution distribution) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        for (int i = 0; i < vocabularySize; i++) {
+            this.vocabulary[i] = randomWord(1 + this.random.nextInt(3) + this.random.nextInt(8));
+        }
+
+        // cumulative weights for the token distribution
+        this.cumulative = new double[vocabularySize];
+        double total = 0;
+        for (int i = 0; i < vocabularySize; i++) {
+            total += (Distribution.ZIPF.equals(distribution) ? 1.0 / (i + 1) : 1.0);
+            this.cumulative[i] = total;
+        }
+        for (int i = 0; i < vocabularySize; i++) {
+            this.cumulative[i] /= total;
+        }
+    }
+
+    public WitnessPair generate(int length, double variance, int transpositions) {
+        final List<String> base = new ArrayList<String>(length);
+        for (int i = 0; i < length; i++) {
+            base.add(nextToken());
+        }
+
+        // witness tokens paired with the index of the base token they came from
+        final List<String> witness = new ArrayList<String>(base);
+        final List<Integer> origin = new ArrayList<Integer>(length);
+        for (int i = 0; i < length; i++) {
+            origin.add(i);
+        }
+
+        // move blocks of tokens, never one that was already moved
+        final List<int[]> moved = new ArrayList<int[]>();
+        for (int t = 0; t < transpositions && witness.size() > 2 * MAX_BLOCK; t++) {
+            final int size = MIN_BLOCK + this.random.nextInt(MAX_BLOCK - MIN_BLOCK + 1);
+            final int from = this.random.nextInt(witness.size() - size);
+            final int firstOrigin = origin.get(from);
+            final int lastOrigin = origin.get(from + size - 1);
+            if (lastOrigin - firstOrigin != size - 1 || overlaps(moved, firstOrigin, lastOrigin + 1)) {
+                continue;
+            }
+            final List<String> blockTokens = new ArrayList<String>(witness.subList(from, from + size));
+            final List<Integer> blockOrigin = new ArrayList<Integer>(origin.subList(from, from + size));
+            witness.subList(from, from + size).clear();
+            origin.subList(from, from + size).clear();
+            final int to = this.random.nextInt(witness.size() + 1);
+            witness.addAll(to, blockTokens);
+            origin.addAll(to, blockOrigin);
+            moved.add(new int[] { firstOrigin, lastOrigin + 1 });
+        }
+
+        // change, delete and add tokens
+        for (int i = 0; i < witness.size(); i++) {
+            if (this.random.nextDouble() >= variance) {
+                continue;
+            }
+            switch (this.random.nextInt(3)) {
+                case 0:
+                    witness.set(i, nextToken());
+                    break;
+                case 1:
+                    witness.remove(i);
+                    origin.remove(i);
+                    i--;
+                    break;
+                default:
+                    witness.add(i + 1, nextToken());
+                    origin.add(i + 1, -1);
+                    i++;
+            }
+        }
+
+        // map the moved blocks to character ranges in both texts
+        final int[] baseOffsets = offsets(base);
+        final int[] witnessOffsets = offsets(witness);
+        final List<int[]> transposed = new ArrayList<int[]>();
+        for (int[] block : moved) {
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < origin.size(); i++) {
+                final int o = origin.get(i);
+                if (o >= block[0] && o < block[1]) {
+                    first = (first < 0 ? i : first);
+                    last = i;
+                }
+            }
+            if (first >= 0) {
+                transposed.add(new int[] {
+                    baseOffsets[block[0]], baseOffsets[block[1] - 1] + base.get(block[1] - 1).length(),
+                    witnessOffsets[first], witnessOffsets[last] + witness.get(last).length() });
+            }
+        }
+        return new WitnessPair(join(base), join(witness), transposed);
+    }
+
+    /**
+     * Pairs of words for edit distance measurements: each word has
+     * <code>length</code> characters and its partner differs in about
+     * <code>variance</code> of them.
+     */
+    public String[][] wordPairs(int count, int length, double variance) {
+        final String[][] pairs = new String[count][2];
+        for (int p = 0; p < count; p++) {
+            final String word = randomWord(length);
+            final StringBuilder other = new StringBuilder(word);
+            for (int i = 0; i < other.length(); i++) {
+                if (this.random.nextDouble() < variance) {
+                    switch (this.random.nextInt(3)) {
+                        case 0:
+                            other.setCharAt(i, (char) ('a' + this.random.nextInt(26)));
+                            break;
+                        case 1:
+                            other.deleteCharAt(i--);
+                            break;
+                        default:
+                            other.insert(i++, (char) ('a' + this.random.nextInt(26)));
+                    }
+                }
+            }
+            pairs[p][0] = word;
+            pairs[p][1] = other.toString();
+        }
+        return pairs;
+    }
+
+    private String nextToken() {
+        int idx = Arrays.binarySearch(this.cumulative, this.random.nextDouble());
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        return this.vocabulary[Math.min(idx, this.vocabulary.length - 1)];
+    }
+
+    private String randomWord(int length) {
+        final char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = (char) ('a' + this.random.nextInt(26));
+        }
+        return new String(word);
+    }
+
+    private static boolean overlaps(List<int[]> blocks, int start, int end) {
+        for (int[] block : blocks) {
+            if (start < block[1] && block[0] < end) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int[] offsets(List<String> tokens) {
+        final int[] offsets = new int[tokens.size()];
+        int offset = 0;
+        for (int i = 0; i < tokens.size(); i++) {
+            offsets[i] = offset;
+            offset += tokens.get(i).length() + 1;
+        }
+        return offsets;
+    }
+
+    private static String join(List<String> tokens) {
+        final StringBuilder sb = new StringBuilder();
+        for (String token : tokens) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(token);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A generated base and witness text, plus the character ranges
+     * <code>{baseStart, baseEnd, witnessStart, witnessEnd}</code> of each
+     * transposed block
+     */
+    public static final class WitnessPair {
+        private final String base;
+        private final String witness;
+        private final List<int[]> transpositions;
+
+        private WitnessPair(String base, String witness, List<int[]> transpositions) {
+            this.base = base;
+            this.witness = witness;
+            this.transpositions = transpositions;
+        }
+
+        public String getBase() {
+            return this.base;
+        }
+
+        public String getWitness() {
+            return this.witness;
+        }
+
+        public List<int[]> getTranspositions() {
+            return this.transpositions;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package org.juxtasoftware.diff;
+
+import java.util.List;
+
+/**
+ * Contract for the algorithm used to diff two sequences of interned token symbols.
+ * <p/>
+ * Implementations compare the symbols <code>base[baseStart, baseEnd)</code> against
+ * <code>witness[witnessStart, witnessEnd)</code> and return the ordered list of
+ * {@link Edit edits} that turn the base into the witness. Edit indexes refer to the
+ * full arrays, not to the compared sub-range. Implementations must be thread safe.
+ *
+ * @see DiffCollatorConfiguration#getDiffAlgorithm()
+ */
+public interface DiffAlgorithm {
+    List<Edit> diff(int[] base, int baseStart, int baseEnd, int[] witness, int witnessStart, int witnessEnd);
+}
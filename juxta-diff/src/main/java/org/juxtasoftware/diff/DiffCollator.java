@@ -2,20 +2,33 @@ package org.juxtasoftware.diff;
 
 import java.io.IOException;
 import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import org.juxtasoftware.diff.impl.LinearSpaceDiff;
+import org.juxtasoftware.diff.impl.MyersDiff;
+import org.juxtasoftware.diff.impl.PartitionedDiff;
+import org.juxtasoftware.diff.impl.ReducingDiff;
+import org.juxtasoftware.diff.impl.TokenInterner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 
-import difflib.Delta;
-import difflib.DiffUtils;
-import difflib.Patch;
 import eu.interedition.text.Annotation;
 import eu.interedition.text.Name;
 import eu.interedition.text.Range;
@@ -27,20 +40,27 @@ import eu.interedition.text.util.Annotations;
 
 /**
  * 
- * Perform a diff upon two comperands and tansform results into alignments. Diff is done
- * using google diff-utils and the meyers diff algorithm.
+ * Perform a diff upon two comperands and tansform results into alignments. Tokens
+ * are interned into integer symbols and the symbol sequences are diffed using 
+ * the configured {@link DiffAlgorithm} (meyers by default).
  * 
  */
 public class DiffCollator {
     protected static final Name GAP_NAME = new SimpleName(URI.create("http://juxtasoftware.org/ns"), "gap");
 
     protected static final Logger LOG = LoggerFactory.getLogger(DiffCollator.class);   
+    private static final DiffAlgorithm DEFAULT_ALGORITHM = new MyersDiff();
+    private static final DiffAlgorithm LINEAR_SPACE_ALGORITHM = new LinearSpaceDiff();
     protected boolean transpositionCollation; 
 
+    // groups are numbered across all comparisons of one base and witness
+    private int groupOffset;
+
     public void collate(DiffCollatorConfiguration config, Comparand base, Comparand witness) throws IOException {
 
         // This amounts to a config for the diff/collation
         Comparison comparison = new Comparison(base, witness);
+        this.groupOffset = 0;
         
         // First find an filter out any transpositions and collate
         // the filtered result
@@ -51,6 +71,73 @@ public class DiffCollator {
             collate(config, filtered);
         }
 
+        collateTranspositions(config, base, witness, transpositions);
+    }
+
+    /**
+     * Collate <code>base</code> and <code>witness</code> segment by segment. The segments
+     * are {@link Segment#align paired} and every run of segments from one pair to the next
+     * is diffed as a comparison of its own, so only the tokens of a few segments are held
+     * in memory at a time. If the configuration has a {@link DiffCollatorConfiguration#getDiffExecutor()
+     * diff executor}, segments are diffed concurrently; their differences are stored in text order.
+     * Comparands without segments that pair up are collated as a whole.
+     */
+    public void collate(final DiffCollatorConfiguration config, Comparand base, List<Segment> baseSegments,
+        Comparand witness, List<Segment> witnessSegments) throws IOException {
+
+        final List<Comparison> segments = Segment.align(config.getTokenSource(), base, baseSegments, witness, witnessSegments);
+        if (segments.size() < 2) {
+            collate(config, base, witness);
+            return;
+        }
+        this.groupOffset = 0;
+
+        final Set<Set<Annotation>> transpositions = config.getTranspositionSource().transpositionsIn(new Comparison(base, witness));
+        final List<Comparison> filtered = Lists.newArrayListWithExpectedSize(segments.size());
+        for (Comparison segment : segments) {
+            filtered.addAll(segment.filter(transpositions));
+        }
+        LOG.info("Collating " + base + " vs. " + witness + " in " + filtered.size() + " segments");
+        this.transpositionCollation = false;
+
+        final ExecutorService executor = config.getDiffExecutor();
+        if (executor == null) {
+            for (Comparison segment : filtered) {
+                store(config, diff(config, segment, true), true);
+            }
+        } else {
+            // diff a few segments ahead of the one being stored, so memory
+            // stays bounded by the segments in flight
+            final int ahead = (executor instanceof ThreadPoolExecutor ?
+                ((ThreadPoolExecutor) executor).getMaximumPoolSize() : Runtime.getRuntime().availableProcessors());
+            final Queue<Future<Diff>> pending = new LinkedList<Future<Diff>>();
+            final Iterator<Comparison> next = filtered.iterator();
+            try {
+                while (next.hasNext() || pending.isEmpty() == false) {
+                    while (next.hasNext() && pending.size() <= ahead) {
+                        final Comparison segment = next.next();
+                        pending.add(executor.submit(new Callable<Diff>() {
+                            @Override
+                            public Diff call() throws Exception {
+                                // segments take the place of partitions
+                                return diff(config, segment, false);
+                            }
+                        }));
+                    }
+                    store(config, await(pending.remove()), true);
+                }
+            } finally {
+                for (Future<Diff> f : pending) {
+                    f.cancel(true);
+                }
+            }
+        }
+
+        collateTranspositions(config, base, witness, transpositions);
+    }
+
+    private void collateTranspositions(DiffCollatorConfiguration config, Comparand base, Comparand witness,
+        Set<Set<Annotation>> transpositions) throws IOException {
         // Now take each of the transpositions and perform a
         // mini-collation on it
         for (Set<Annotation> transposition : transpositions) {
@@ -58,11 +145,47 @@ public class DiffCollator {
             this.transpositionCollation = true;
             collate(config, new Comparison(base, witness, transposition));
         }
-        Runtime.getRuntime().gc();
-        Runtime.getRuntime().runFinalization();
+    }
+
+    private static Diff await(Future<Diff> diff) throws IOException {
+        try {
+            return diff.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while diffing segments");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
     protected void collate(DiffCollatorConfiguration config, Comparison collation) throws IOException {
+        store(config, diff(config, collation, true), false);
+    }
+
+    /**
+     * The tokens of a comparison and the edits between them. Safe to compute
+     * on another thread.
+     */
+    private static final class Diff {
+        private final Comparison comparison;
+        private final List<Token> baseTokens;
+        private final List<Token> witnessTokens;
+        private final List<Edit> edits;
+
+        private Diff(Comparison comparison, List<Token> baseTokens, List<Token> witnessTokens, List<Edit> edits) {
+            this.comparison = comparison;
+            this.baseTokens = baseTokens;
+            this.witnessTokens = witnessTokens;
+            this.edits = edits;
+        }
+    }
+
+    /**
+     * @param partition whether large comparisons may be partitioned on the diff executor
+     * @return <code>null</code> if neither side has tokens
+     */
+    private Diff diff(DiffCollatorConfiguration config, Comparison collation, boolean partition) throws IOException {
        
         // Pull ALL tokens for base and witness into memory. 
         // The token inclides annotation info (range, qname, etc) plus
@@ -73,30 +196,64 @@ public class DiffCollator {
         final List<Token> baseTokens = tokenSource.tokensOf(base, collation.getBaseRanges());
         final List<Token> witnessTokens = tokenSource.tokensOf(witness, collation.getWitnessRanges());
         if (baseTokens.isEmpty() && witnessTokens.isEmpty()) {
-            return;
+            return null;
         }
         
+        // Intern the tokens of this comparison into symbols so the diff
+        // only has to compare ints. The dictionary lives for this comparison only.
+        final TokenInterner interner = new TokenInterner(baseTokens.size() + witnessTokens.size());
+        final int[] baseSymbols = interner.intern(baseTokens);
+        final int[] witnessSymbols = interner.intern(witnessTokens);
+        
         // Do the diff!
-        Patch diffResult = DiffUtils.diff(baseTokens, witnessTokens);
+        final DiffAlgorithm algorithm = getDiffAlgorithm(config, baseSymbols.length + witnessSymbols.length, partition);
+        final List<Edit> diffResult = algorithm.diff(
+            baseSymbols, 0, baseSymbols.length, witnessSymbols, 0, witnessSymbols.length);
+        return new Diff(collation, baseTokens, witnessTokens, diffResult);
+    }
+
+    /**
+     * Store the differences of a diff result, numbering their groups after those of the
+     * previous comparison.
+     *
+     * @param segment whether gaps before the first token are placed at the start
+     *        of the compared ranges rather than the start of the text
+     */
+    private void store(DiffCollatorConfiguration config, Diff result, boolean segment) throws IOException {
+        if (result == null) {
+            return;
+        }
+        final Text base = result.comparison.getBase().getText();
+        final Text witness = result.comparison.getWitness().getText();
+        final List<Token> baseTokens = result.baseTokens;
+        final List<Token> witnessTokens = result.witnessTokens;
+        final List<Edit> diffResult = result.edits;
+        final long baseOrigin = (segment ? origin(result.comparison.getBaseRanges()) : 0);
+        final long witnessOrigin = (segment ? origin(result.comparison.getWitnessRanges()) : 0);
 
-        // Convert the dif results into differences
+        // Convert the dif results into differences. Columnar stores
+        // take the rows directly, without any Difference objects
         DifferenceStore differenceStore = config.getDifferenceStore();
+        final DifferenceBuffer buffer = (differenceStore instanceof DifferenceBuffer ? (DifferenceBuffer)differenceStore : null);
+        if ( buffer != null ) {
+            buffer.begin(base, witness);
+        }
         int baseTokenIndex = 0; 
         int witnessTokenIndex = 0;
-        int diffSequece = 0;
+        int diffSequece = this.groupOffset;
         
         // Each diff may contain several contiguous tokens that make
         // up the total diff. Assign each diff a sequence number so
         // the token-based diffs can be grouped back into contiguous 
         // runs of text later
-        for ( Delta diff : diffResult.getDeltas() ) {
+        for ( Edit diff : diffResult ) {
             diffSequece++;
             
-            // grab references to diff token indexes for base (original) and witness (revised)
-            int baseDiffTokenStartIndex = diff.getOriginal().getPosition();
-            int baseDiffTokenEndIndex = baseDiffTokenStartIndex + diff.getOriginal().getLines().size();
-            int witnessDiffTokenStartIndex = diff.getRevised().getPosition();
-            int witnessDiffTokenEndIndex = witnessDiffTokenStartIndex + diff.getRevised().getLines().size();
+            // grab references to diff token indexes for base and witness
+            int baseDiffTokenStartIndex = diff.getBaseStart();
+            int baseDiffTokenEndIndex = diff.getBaseEnd();
+            int witnessDiffTokenStartIndex = diff.getWitnessStart();
+            int witnessDiffTokenEndIndex = diff.getWitnessEnd();
             
             do {
                 // curr indexes are before change - these are aligned, just skip over them
@@ -110,6 +267,11 @@ public class DiffCollator {
                 if ( baseTokenIndex < baseDiffTokenEndIndex && witnessTokenIndex < witnessDiffTokenEndIndex) {
                     Token baseToken = baseTokens.get(baseTokenIndex++);
                     Token witnessToken = witnessTokens.get(witnessTokenIndex++);
+                    if ( buffer != null ) {
+                        buffer.addChange(diffSequece, baseToken.getAnnotation(), witnessToken.getAnnotation(),
+                            baseToken.editDistanceTo(witnessToken));
+                        continue;
+                    }
                     differenceStore.add( createDifference(diffSequece, Difference.Type.CHANGE,
                         baseToken.getAnnotation(), baseToken, 
                         witnessToken.getAnnotation(), witnessToken));
@@ -119,7 +281,11 @@ public class DiffCollator {
                 // Base still within change range, witnesss not. Introduce a gap in the witness
                 if ( baseTokenIndex < baseDiffTokenEndIndex && witnessTokenIndex >= witnessDiffTokenEndIndex) {
                     Token baseToken = baseTokens.get(baseTokenIndex++);
-                    Annotation witnessGap = createGap( witness, witnessTokenIndex, witnessTokens );
+                    if ( buffer != null ) {
+                        buffer.addWitnessGap(diffSequece, baseToken.getAnnotation(), gapOffset(witnessTokenIndex, witnessTokens, witnessOrigin));
+                        continue;
+                    }
+                    Annotation witnessGap = createGap( witness, witnessTokenIndex, witnessTokens, witnessOrigin );
                     differenceStore.add( createDifference(diffSequece, Difference.Type.ADD_DEL,
                         baseToken.getAnnotation(), baseToken, witnessGap, null));
                     continue;
@@ -128,7 +294,11 @@ public class DiffCollator {
                 // WITNESS still within change range, base not. Introduce a gap in the base
                 if ( baseTokenIndex >= baseDiffTokenEndIndex && witnessTokenIndex < witnessDiffTokenEndIndex) {
                     Token witnessToken = witnessTokens.get(witnessTokenIndex++);
-                    Annotation baseGap = createGap( base, baseTokenIndex, baseTokens );
+                    if ( buffer != null ) {
+                        buffer.addBaseGap(diffSequece, gapOffset(baseTokenIndex, baseTokens, baseOrigin), witnessToken.getAnnotation());
+                        continue;
+                    }
+                    Annotation baseGap = createGap( base, baseTokenIndex, baseTokens, baseOrigin );
                     differenceStore.add( createDifference(diffSequece, Difference.Type.ADD_DEL, 
                         baseGap, null, witnessToken.getAnnotation(), witnessToken));
                     continue;
@@ -137,12 +307,41 @@ public class DiffCollator {
                 
             } while ( baseTokenIndex <  baseDiffTokenEndIndex || witnessTokenIndex <  witnessDiffTokenEndIndex );
         }
+        this.groupOffset = diffSequece;
+    }
+
+    private static long origin(SortedSet<Range> ranges) {
+        return (ranges.isEmpty() ? 0 : ranges.first().getStart());
+    }
+
+    private DiffAlgorithm getDiffAlgorithm(DiffCollatorConfiguration config, int tokenCount, boolean partition) {
+        DiffAlgorithm algorithm = config.getDiffAlgorithm();
+        
+        // very large comparisons cannot afford the path history kept by 
+        // the other algorithms; bound memory to the token arrays instead
+        final int threshold = config.getLinearSpaceThreshold();
+        if ( threshold > 0 && tokenCount > threshold ) {
+            LOG.info("Using linear space diff for " + tokenCount + " tokens");
+            algorithm = LINEAR_SPACE_ALGORITHM;
+        } else if ( algorithm == null ) {
+            algorithm = DEFAULT_ALGORITHM;
+        }
+        
+        // split large comparisons on unique anchors and diff the segments concurrently
+        final ExecutorService executor = config.getDiffExecutor();
+        if ( partition && executor != null ) {
+            algorithm = new PartitionedDiff(algorithm, executor);
+        }
+        
+        // strip identical prefix, suffix and blocks so only the 
+        // changed windows reach the full token diff
+        return new ReducingDiff(algorithm);
     }
 
-    private Annotation createGap(Text comparandText, int currIndex, List<Token> tokens) throws IOException {
+    private Annotation createGap(Text comparandText, int currIndex, List<Token> tokens, long origin) throws IOException {
         if ( currIndex == 0 ) {
             if ( this.transpositionCollation == false ) {
-                return  new GapAnnotation(comparandText, 0);
+                return  new GapAnnotation(comparandText, origin);
             }
             return  gap( tokens.get(0).getAnnotation() );
         } else {
@@ -150,6 +349,19 @@ public class DiffCollator {
         }
     }
 
+    /**
+     * Offset of the gap {@link #createGap} would create, without creating it
+     */
+    private long gapOffset(int currIndex, List<Token> tokens, long origin) {
+        if ( currIndex == 0 ) {
+            if ( this.transpositionCollation == false ) {
+                return origin;
+            }
+            return tokens.get(0).getAnnotation().getRange().getEnd();
+        }
+        return tokens.get(currIndex-1).getAnnotation().getRange().getEnd();
+    }
+
     private Difference createDifference(int diffSequece, Difference.Type type, Annotation base, Token baseToken, Annotation witness, Token witnessToken) {
         int editDistance = 0;
         if (type.equals(Difference.Type.CHANGE) ) {
@@ -1,6 +1,7 @@
 package org.juxtasoftware.diff;
 
 import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
 
 
 public interface DiffCollatorConfiguration {
@@ -13,4 +14,19 @@ public interface DiffCollatorConfiguration {
 
     DifferenceStore getDifferenceStore();
 
+    DiffAlgorithm getDiffAlgorithm();
+
+    /**
+     * Combined base and witness token count above which the collator switches
+     * to the linear space diff, regardless of the configured algorithm.
+     * A value of zero or less disables the switch.
+     */
+    int getLinearSpaceThreshold();
+
+    /**
+     * Executor used to diff the anchor-partitioned segments of large comparisons
+     * concurrently. Return <code>null</code> to diff every comparison on the calling thread.
+     */
+    ExecutorService getDiffExecutor();
+
 }
@@ -0,0 +1,274 @@
+package org.juxtasoftware.diff;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import eu.interedition.text.Annotation;
+import eu.interedition.text.Range;
+import eu.interedition.text.Text;
+
+/**
+ * Column oriented {@link DifferenceStore}. Instead of a {@link Difference} (and
+ * a gap annotation) per aligned token pair, every field is kept in a primitive
+ * array indexed by row: group, type, base and witness start/end, edit distance
+ * and the ids of the base and witness annotations. {@link DiffCollator} writes
+ * rows into the buffer directly, without creating objects. A gap is recorded
+ * by its offset and the {@link #GAP} id.
+ * <p/>
+ * All rows of a buffer belong to the same base and witness text. Subclasses
+ * persist the {@link #getRows() rows} in {@link #save()} and then {@link #clear()}
+ * the buffer, or {@link #takeRows() take} them to be persisted elsewhere.
+ * The buffer saves itself once it holds <code>batchSize</code> rows.
+ */
+public abstract class DifferenceBuffer implements DifferenceStore {
+    public static final long GAP = -1L;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Difference.Type[] TYPES = Difference.Type.values();
+
+    private final int batchSize;
+    private final Queue<Rows> recycled = new ConcurrentLinkedQueue<Rows>();
+    private Rows rows;
+
+    /**
+     * @param batchSize Number of rows to hold before saving. Zero or less never saves automatically.
+     */
+    protected DifferenceBuffer(int batchSize) {
+        this.batchSize = batchSize;
+        this.rows = new Rows(batchSize > 0 ? Math.min(batchSize, INITIAL_CAPACITY) : INITIAL_CAPACITY);
+    }
+
+    /**
+     * Id of a token annotation. Must not be {@link #GAP}.
+     */
+    protected abstract long annotationId(Annotation annotation);
+
+    /**
+     * Start collecting the differences between two texts. Rows buffered for
+     * another pair of texts are saved first.
+     */
+    public void begin(Text base, Text witness) throws IOException {
+        if (this.rows.size > 0 && (!base.equals(this.rows.baseText) || !witness.equals(this.rows.witnessText))) {
+            save();
+        }
+        this.rows.baseText = base;
+        this.rows.witnessText = witness;
+    }
+
+    public void addChange(int group, Annotation base, Annotation witness, int editDistance) throws IOException {
+        final Range baseRange = base.getRange();
+        final Range witnessRange = witness.getRange();
+        append(group, Difference.Type.CHANGE,
+            baseRange.getStart(), baseRange.getEnd(), annotationId(base),
+            witnessRange.getStart(), witnessRange.getEnd(), annotationId(witness),
+            editDistance);
+    }
+
+    /**
+     * A base token missing from the witness; the witness gets a gap at <code>witnessOffset</code>
+     */
+    public void addWitnessGap(int group, Annotation base, long witnessOffset) throws IOException {
+        final Range baseRange = base.getRange();
+        append(group, Difference.Type.ADD_DEL,
+            baseRange.getStart(), baseRange.getEnd(), annotationId(base),
+            witnessOffset, witnessOffset, GAP, -1);
+    }
+
+    /**
+     * A witness token missing from the base; the base gets a gap at <code>baseOffset</code>
+     */
+    public void addBaseGap(int group, long baseOffset, Annotation witness) throws IOException {
+        final Range witnessRange = witness.getRange();
+        append(group, Difference.Type.ADD_DEL,
+            baseOffset, baseOffset, GAP,
+            witnessRange.getStart(), witnessRange.getEnd(), annotationId(witness), -1);
+    }
+
+    @Override
+    public void add(Difference difference) throws IOException {
+        final Annotation base = difference.getBase();
+        final Annotation witness = difference.getWitness();
+        begin(base.getText(), witness.getText());
+        append(difference.getGroup(), difference.getType(),
+            base.getRange().getStart(), base.getRange().getEnd(), (isGap(base) ? GAP : annotationId(base)),
+            witness.getRange().getStart(), witness.getRange().getEnd(), (isGap(witness) ? GAP : annotationId(witness)),
+            difference.getEditDistance());
+    }
+
+    private static boolean isGap(Annotation annotation) {
+        return DiffCollator.GAP_NAME.equals(annotation.getName());
+    }
+
+    private void append(int group, Difference.Type type,
+        long baseStart, long baseEnd, long baseAnnotation,
+        long witnessStart, long witnessEnd, long witnessAnnotation, int editDistance) throws IOException {
+
+        final Rows rows = this.rows;
+        if (rows.size == rows.group.length) {
+            int capacity = rows.group.length * 2;
+            if (this.batchSize > 0) {
+                capacity = Math.min(capacity, Math.max(this.batchSize, rows.group.length + 1));
+            }
+            rows.grow(capacity);
+        }
+        final int row = rows.size++;
+        rows.group[row] = group;
+        rows.type[row] = (byte) type.ordinal();
+        rows.baseStart[row] = (int) baseStart;
+        rows.baseEnd[row] = (int) baseEnd;
+        rows.baseAnnotation[row] = baseAnnotation;
+        rows.witnessStart[row] = (int) witnessStart;
+        rows.witnessEnd[row] = (int) witnessEnd;
+        rows.witnessAnnotation[row] = witnessAnnotation;
+        rows.editDistance[row] = editDistance;
+
+        if (this.batchSize > 0 && rows.size >= this.batchSize) {
+            save();
+        }
+    }
+
+    /**
+     * Drop all rows. The arrays are kept for the next batch.
+     */
+    public void clear() {
+        this.rows.size = 0;
+    }
+
+    public int size() {
+        return this.rows.size;
+    }
+
+    /**
+     * The buffered rows. Only valid until the next add or clear.
+     */
+    public Rows getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Hand the buffered rows over, for example to another thread, and continue
+     * with empty columns for the same pair of texts. Rows that are no longer
+     * needed can be {@link #recycle(Rows) recycled}.
+     */
+    protected Rows takeRows() {
+        final Rows taken = this.rows;
+        Rows next = this.recycled.poll();
+        if (next == null) {
+            next = new Rows(taken.group.length);
+        }
+        next.baseText = taken.baseText;
+        next.witnessText = taken.witnessText;
+        this.rows = next;
+        return taken;
+    }
+
+    /**
+     * Return taken rows for reuse. May be called from any thread.
+     */
+    protected void recycle(Rows rows) {
+        rows.size = 0;
+        rows.baseText = null;
+        rows.witnessText = null;
+        this.recycled.offer(rows);
+    }
+
+    /**
+     * The columns of a batch of differences between one base and witness text.
+     */
+    public static final class Rows {
+        private Text baseText;
+        private Text witnessText;
+
+        private int size;
+        private int[] group;
+        private byte[] type;
+        private int[] baseStart;
+        private int[] baseEnd;
+        private int[] witnessStart;
+        private int[] witnessEnd;
+        private int[] editDistance;
+        private long[] baseAnnotation;
+        private long[] witnessAnnotation;
+
+        private Rows(int capacity) {
+            this.group = new int[capacity];
+            this.type = new byte[capacity];
+            this.baseStart = new int[capacity];
+            this.baseEnd = new int[capacity];
+            this.witnessStart = new int[capacity];
+            this.witnessEnd = new int[capacity];
+            this.editDistance = new int[capacity];
+            this.baseAnnotation = new long[capacity];
+            this.witnessAnnotation = new long[capacity];
+        }
+
+        private void grow(int capacity) {
+            this.group = Arrays.copyOf(this.group, capacity);
+            this.type = Arrays.copyOf(this.type, capacity);
+            this.baseStart = Arrays.copyOf(this.baseStart, capacity);
+            this.baseEnd = Arrays.copyOf(this.baseEnd, capacity);
+            this.witnessStart = Arrays.copyOf(this.witnessStart, capacity);
+            this.witnessEnd = Arrays.copyOf(this.witnessEnd, capacity);
+            this.editDistance = Arrays.copyOf(this.editDistance, capacity);
+            this.baseAnnotation = Arrays.copyOf(this.baseAnnotation, capacity);
+            this.witnessAnnotation = Arrays.copyOf(this.witnessAnnotation, capacity);
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public Text getBaseText() {
+            return this.baseText;
+        }
+
+        public Text getWitnessText() {
+            return this.witnessText;
+        }
+
+        public int getGroup(int row) {
+            return this.group[row];
+        }
+
+        public Difference.Type getType(int row) {
+            return TYPES[this.type[row]];
+        }
+
+        public int getBaseStart(int row) {
+            return this.baseStart[row];
+        }
+
+        public int getBaseEnd(int row) {
+            return this.baseEnd[row];
+        }
+
+        public long getBaseAnnotationId(int row) {
+            return this.baseAnnotation[row];
+        }
+
+        public boolean isBaseGap(int row) {
+            return this.baseAnnotation[row] == GAP;
+        }
+
+        public int getWitnessStart(int row) {
+            return this.witnessStart[row];
+        }
+
+        public int getWitnessEnd(int row) {
+            return this.witnessEnd[row];
+        }
+
+        public long getWitnessAnnotationId(int row) {
+            return this.witnessAnnotation[row];
+        }
+
+        public boolean isWitnessGap(int row) {
+            return this.witnessAnnotation[row] == GAP;
+        }
+
+        public int getEditDistance(int row) {
+            return this.editDistance[row];
+        }
+    }
+}
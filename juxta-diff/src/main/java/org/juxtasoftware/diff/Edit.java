@@ -0,0 +1,83 @@
+package org.juxtasoftware.diff;
+
+import com.google.common.base.Objects;
+
+/**
+ * A contiguous run of differences found by the diff: the base tokens
+ * in <code>[baseStart, baseEnd)</code> are replaced by the witness tokens in
+ * <code>[witnessStart, witnessEnd)</code>. An empty base or witness run
+ * denotes a pure addition or deletion.
+ *
+ * Token indexes are always relative to the full token lists of the comparison.
+ */
+public class Edit {
+    private final int baseStart;
+    private final int baseEnd;
+    private final int witnessStart;
+    private final int witnessEnd;
+
+    public Edit(int baseStart, int baseEnd, int witnessStart, int witnessEnd) {
+        this.baseStart = baseStart;
+        this.baseEnd = baseEnd;
+        this.witnessStart = witnessStart;
+        this.witnessEnd = witnessEnd;
+    }
+
+    public int getBaseStart() {
+        return baseStart;
+    }
+
+    public int getBaseEnd() {
+        return baseEnd;
+    }
+
+    public int getWitnessStart() {
+        return witnessStart;
+    }
+
+    public int getWitnessEnd() {
+        return witnessEnd;
+    }
+
+    public int getBaseLength() {
+        return this.baseEnd - this.baseStart;
+    }
+
+    public int getWitnessLength() {
+        return this.witnessEnd - this.witnessStart;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + baseStart;
+        result = prime * result + baseEnd;
+        result = prime * result + witnessStart;
+        result = prime * result + witnessEnd;
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        Edit other = (Edit) obj;
+        return ( this.baseStart == other.baseStart && this.baseEnd == other.baseEnd &&
+                 this.witnessStart == other.witnessStart && this.witnessEnd == other.witnessEnd );
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+            .add("base", "["+this.baseStart+","+this.baseEnd+")")
+            .add("witness", "["+this.witnessStart+","+this.witnessEnd+")").toString();
+    }
+}
@@ -0,0 +1,168 @@
+package org.juxtasoftware.diff;
+
+import static com.google.common.collect.Sets.newTreeSet;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import org.juxtasoftware.diff.impl.MyersDiff;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+
+import eu.interedition.text.Range;
+
+/**
+ * A structural part of a comparand, like a page, that can be collated
+ * on its own. Segments of a comparand are contiguous, in text order and
+ * together cover the text; a segment without structure of its own, like
+ * the text before the first page, has no label.
+ *
+ * @see DiffCollator#collate(DiffCollatorConfiguration, Comparand, List, Comparand, List)
+ */
+public class Segment {
+    private final Range range;
+    private final String label;
+
+    public Segment(Range range, String label) {
+        this.range = range;
+        this.label = (label == null || label.trim().length() == 0 ? null : label.trim());
+    }
+
+    public Range getRange() {
+        return range;
+    }
+
+    /**
+     * @return the label of the segment, or <code>null</code> if it has none
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this).add("range", range).add("label", label).toString();
+    }
+
+    /**
+     * Pair the segments of <code>base</code> with those of <code>witness</code>
+     * and split the collation of both into comparisons from one pair to the next.
+     * Segments are paired by their labels in text order. If no labels pair up,
+     * segments whose tokens hash the same are paired instead, and segments of
+     * two comparands with an equal number of them are paired by position as
+     * a last resort. Segments between pairs are compared with the pair before them.
+     *
+     * @return the comparisons in text order; a single comparison of the
+     *         whole texts if no segments could be paired
+     */
+    public static List<Comparison> align(TokenSource tokenSource,
+        Comparand base, List<Segment> baseSegments, Comparand witness, List<Segment> witnessSegments) throws IOException {
+
+        if (baseSegments.size() < 2 || witnessSegments.size() < 2) {
+            return Collections.singletonList(new Comparison(base, witness));
+        }
+
+        List<int[]> pairs = pair(labelsOf(baseSegments), labelsOf(witnessSegments));
+        if (pairs.isEmpty()) {
+            pairs = pair(hashesOf(tokenSource, base, baseSegments), hashesOf(tokenSource, witness, witnessSegments));
+        }
+        if (pairs.isEmpty() && baseSegments.size() == witnessSegments.size()) {
+            for (int i = 0; i < baseSegments.size(); i++) {
+                pairs.add(new int[] { i, i });
+            }
+        }
+        if (pairs.isEmpty()) {
+            return Collections.singletonList(new Comparison(base, witness));
+        }
+
+        // segments before the first pair belong to the first comparison
+        pairs.get(0)[0] = 0;
+        pairs.get(0)[1] = 0;
+        final List<Comparison> comparisons = Lists.newArrayListWithExpectedSize(pairs.size());
+        for (int p = 0; p < pairs.size(); p++) {
+            final boolean last = (p + 1 == pairs.size());
+            comparisons.add(new Comparison(base, witness,
+                rangesOf(baseSegments, pairs.get(p)[0], last ? baseSegments.size() : pairs.get(p + 1)[0]),
+                rangesOf(witnessSegments, pairs.get(p)[1], last ? witnessSegments.size() : pairs.get(p + 1)[1])));
+        }
+        return comparisons;
+    }
+
+    private static SortedSet<Range> rangesOf(List<Segment> segments, int from, int to) {
+        final SortedSet<Range> ranges = newTreeSet();
+        for (Segment segment : segments.subList(from, to)) {
+            ranges.add(segment.getRange());
+        }
+        return ranges;
+    }
+
+    private static String[] labelsOf(List<Segment> segments) {
+        final String[] labels = new String[segments.size()];
+        for (int i = 0; i < labels.length; i++) {
+            labels[i] = segments.get(i).getLabel();
+        }
+        return labels;
+    }
+
+    private static String[] hashesOf(TokenSource tokenSource, Comparand comparand, List<Segment> segments) throws IOException {
+        final String[] hashes = new String[segments.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            final List<Token> tokens = tokenSource.tokensOf(comparand.getText(),
+                Collections.singleton(segments.get(i).getRange()));
+            if (tokens.isEmpty() == false) {
+                hashes[i] = tokens.size() + ":" + tokens.hashCode();
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Pair equal keys in order, using the diff on the key sequences.
+     * <code>null</code> keys never pair.
+     *
+     * @return base and witness index of each pair
+     */
+    private static List<int[]> pair(String[] baseKeys, String[] witnessKeys) {
+        final Map<String, Integer> symbols = new HashMap<String, Integer>();
+        final int[] base = symbolsOf(baseKeys, symbols, -1);
+        final int[] witness = symbolsOf(witnessKeys, symbols, -1 - base.length);
+
+        final List<int[]> pairs = Lists.newArrayList();
+        int b = 0;
+        int w = 0;
+        for (Edit edit : new MyersDiff().diff(base, 0, base.length, witness, 0, witness.length)) {
+            while (b < edit.getBaseStart()) {
+                pairs.add(new int[] { b++, w++ });
+            }
+            b = edit.getBaseEnd();
+            w = edit.getWitnessEnd();
+        }
+        while (b < base.length) {
+            pairs.add(new int[] { b++, w++ });
+        }
+        return pairs;
+    }
+
+    private static int[] symbolsOf(String[] keys, Map<String, Integer> symbols, int unpaired) {
+        final int[] out = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) {
+                // a symbol no other key has
+                out[i] = unpaired - i;
+                continue;
+            }
+            Integer symbol = symbols.get(keys[i]);
+            if (symbol == null) {
+                symbol = symbols.size();
+                symbols.put(keys[i], symbol);
+            }
+            out[i] = symbol;
+        }
+        return out;
+    }
+}
@@ -0,0 +1,90 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+
+/**
+ * Base for divide and conquer diff algorithms. The compared range is repeatedly
+ * split around matching anchor regions picked by the subclass; sub-ranges without
+ * any usable anchor are handed to the {@link MyersDiff meyers} fallback.
+ * <p/>
+ * Ranges are kept on an explicit work stack rather than recursing, so long
+ * witnesses cannot exhaust the thread stack.
+ */
+public abstract class AbstractDiffAlgorithm implements DiffAlgorithm {
+    private final DiffAlgorithm fallback = new MyersDiff();
+
+    @Override
+    public List<Edit> diff(final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+        
+        final List<Edit> edits = new ArrayList<Edit>();
+        final LinkedList<int[]> work = new LinkedList<int[]>();
+        work.push(new int[] { baseStart, baseEnd, witnessStart, witnessEnd });
+        while ( work.isEmpty() == false ) {
+            final int[] range = work.pop();
+            trim(base, witness, range);
+            if ( range[0] == range[1] || range[2] == range[3] ) {
+                addEdit(edits, range[0], range[1], range[2], range[3]);
+                continue;
+            }
+            
+            final List<int[]> subRanges = split(base, witness, range);
+            if ( subRanges == null ) {
+                for ( Edit e : this.fallback.diff(base, range[0], range[1], witness, range[2], range[3])) {
+                    addEdit(edits, e.getBaseStart(), e.getBaseEnd(), e.getWitnessStart(), e.getWitnessEnd());
+                }
+            } else {
+                // push in reverse so the sub-ranges are processed left to right
+                for ( int i = subRanges.size() - 1; i >= 0; i-- ) {
+                    work.push( subRanges.get(i) );
+                }
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Split the range <code>{baseStart, baseEnd, witnessStart, witnessEnd}</code>
+     * around one or more matching anchors. The returned sub-ranges must be ordered, must
+     * not overlap and everything in between them must be equal in base and witness.
+     * 
+     * @return the ordered sub-ranges, or <code>null</code> if no anchor could be found
+     */
+    protected abstract List<int[]> split(int[] base, int[] witness, int[] range);
+
+    /**
+     * Shrink the range in place by removing the common prefix and suffix 
+     */
+    protected static void trim(final int[] base, final int[] witness, final int[] range) {
+        while ( range[0] < range[1] && range[2] < range[3] && base[range[0]] == witness[range[2]] ) {
+            range[0]++;
+            range[2]++;
+        }
+        while ( range[0] < range[1] && range[2] < range[3] && base[range[1] - 1] == witness[range[3] - 1] ) {
+            range[1]--;
+            range[3]--;
+        }
+    }
+
+    /**
+     * Append an edit, merging it with the previous one if the two are adjacent
+     */
+    protected static void addEdit(final List<Edit> edits, int baseStart, int baseEnd, int witnessStart, int witnessEnd) {
+        if ( baseStart == baseEnd && witnessStart == witnessEnd ) {
+            return;
+        }
+        if ( edits.isEmpty() == false ) {
+            final Edit last = edits.get( edits.size() - 1 );
+            if ( last.getBaseEnd() == baseStart && last.getWitnessEnd() == witnessStart ) {
+                edits.set(edits.size() - 1, new Edit(last.getBaseStart(), baseEnd, last.getWitnessStart(), witnessEnd));
+                return;
+            }
+        }
+        edits.add( new Edit(baseStart, baseEnd, witnessStart, witnessEnd) );
+    }
+}
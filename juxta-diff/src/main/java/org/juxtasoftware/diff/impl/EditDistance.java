@@ -16,19 +16,30 @@
 
 package org.juxtasoftware.diff.impl;
 
+/**
+ * Levenshtein distance between two token strings, capped at
+ * {@link #MAX_DISTANCE_COMPARISON}.
+ * <p/>
+ * When the shorter string fits in a machine word (64 chars) the distance is
+ * computed with Myers' bit-parallel algorithm in O(n) word operations. Longer
+ * strings use a two row DP restricted to a band around the diagonal that
+ * gives up as soon as every cell in a row exceeds the cap. Scratch buffers
+ * are kept per thread, so no call allocates.
+ */
 public final class EditDistance {
     private static final int MAX_DISTANCE_COMPARISON = 2500;
+    private static final int WORD_SIZE = 64;
 
-    public static int compute(String str1, String str2) {
-        if ((str1.length() * str2.length() > MAX_DISTANCE_COMPARISON)) {
-            return MAX_DISTANCE_COMPARISON;
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
         }
+    };
 
-        final char[] str1Chars = str1.toCharArray();
-        final int str1Length = str1Chars.length;
-        final char[] str2Chars = str2.toCharArray();
-        final int str2Length = str2Chars.length;
-
+    public static int compute(String str1, String str2) {
+        final int str1Length = str1.length();
+        final int str2Length = str2.length();
         if (str1Length == 0) {
             return str2Length;
         }
@@ -36,50 +47,133 @@ public final class EditDistance {
             return str1Length;
         }
 
-        int[][][] cache = new int[30][][];
-        int matrix[][]; 
-        if (str2Length >= cache.length) {
-            matrix = form(str1Length, str2Length);
-        } else if (cache[str2Length] != null) {
-            matrix = cache[str2Length];
-        } else {
-            matrix = cache[str2Length] = form(str1Length, str2Length);
+        // the shorter string is the pattern of the bit-parallel algorithm
+        if (str1Length <= str2Length) {
+            if (str1Length <= WORD_SIZE) {
+                return Math.min(bitParallel(str1, str2), MAX_DISTANCE_COMPARISON);
+            }
+        } else if (str2Length <= WORD_SIZE) {
+            return Math.min(bitParallel(str2, str1), MAX_DISTANCE_COMPARISON);
         }
-        
-        for (int i = 1; i <= str1Length; i++) {
-            final char str1Char = str1Chars[i - 1];
-            for (int j = 1; j <= str2Length; j++) {
-                final char str2Char = str2Chars[j - 1];
-                final int cost = (str1Char == str2Char ? 0 : 1);
-                matrix[i][j] = min3(matrix[i - 1][j] + 1, matrix[i][j - 1] + 1, matrix[i - 1][j - 1] + cost);
+        return banded(str1, str2, MAX_DISTANCE_COMPARISON);
+    }
+
+    /**
+     * Myers (1999) bit-vector edit distance, in the global distance form given
+     * by Hyyro. Bit <i>i</i> of <code>pv</code>/<code>mv</code> records whether the
+     * vertical delta at pattern row <i>i</i> of the current column is +1/-1.
+     */
+    private static int bitParallel(final String pattern, final String text) {
+        final int m = pattern.length();
+        final long[] peq = SCRATCH.get().peq;
+        for (int i = 0; i < m; i++) {
+            peq[pattern.charAt(i)] |= (1L << i);
+        }
+
+        final long last = 1L << (m - 1);
+        long pv = (m == WORD_SIZE ? -1L : (1L << m) - 1);
+        long mv = 0;
+        int score = m;
+        final int n = text.length();
+        for (int j = 0; j < n; j++) {
+            final long eq = peq[text.charAt(j)];
+            final long xv = eq | mv;
+            final long xh = (((eq & pv) + pv) ^ pv) | eq;
+            long ph = mv | ~(xh | pv);
+            long mh = pv & xh;
+            if ((ph & last) != 0) {
+                score++;
+            } else if ((mh & last) != 0) {
+                score--;
             }
+            ph = (ph << 1) | 1;
+            mh = mh << 1;
+            pv = mh | ~(xv | ph);
+            mv = ph & xv;
         }
 
-        return matrix[str1Length][str2Length];
+        // leave the shared table clean for the next call
+        for (int i = 0; i < m; i++) {
+            peq[pattern.charAt(i)] = 0;
+        }
+        return score;
     }
 
-    private static int[][] form(int n, int m) {
-        int[][] d = new int[n + 1][m + 1];
+    /**
+     * Two row DP that only fills cells within <code>max</code> of the diagonal.
+     * Returns <code>max</code> as soon as the distance is known to reach it.
+     */
+    private static int banded(final String str1, final String str2, final int max) {
+        final int n = str1.length();
+        final int m = str2.length();
+        if (Math.abs(n - m) >= max) {
+            return max;
+        }
 
-        for (int i = 0; i <= n; i++) {
-            d[i][0] = i;
+        final Scratch scratch = SCRATCH.get();
+        int[] prev = scratch.row(0, m + 1);
+        int[] curr = scratch.row(1, m + 1);
+        final int inf = max + 1;
 
+        final int firstHi = Math.min(m, max);
+        for (int j = 0; j <= firstHi; j++) {
+            prev[j] = j;
         }
-        for (int j = 0; j <= m; j++) {
-            d[0][j] = j;
+        if (firstHi < m) {
+            prev[firstHi + 1] = inf;
         }
-        return d;
-    }
 
-    private static int min3(int a, int b, int c) {
-        int mi = a;
-        if (b < mi) {
-            mi = b;
-        }
-        if (c < mi) {
-            mi = c;
+        for (int i = 1; i <= n; i++) {
+            final int lo = Math.max(1, i - max);
+            final int hi = Math.min(m, i + max);
+            curr[lo - 1] = (lo == 1 ? i : inf);
+            int rowMin = curr[lo - 1];
+            final char str1Char = str1.charAt(i - 1);
+            for (int j = lo; j <= hi; j++) {
+                final int cost = (str1Char == str2.charAt(j - 1) ? 0 : 1);
+                int value = prev[j - 1] + cost;
+                final int del = prev[j] + 1;
+                if (del < value) {
+                    value = del;
+                }
+                final int ins = curr[j - 1] + 1;
+                if (ins < value) {
+                    value = ins;
+                }
+                if (value > inf) {
+                    value = inf;
+                }
+                curr[j] = value;
+                if (value < rowMin) {
+                    rowMin = value;
+                }
+            }
+            if (hi < m) {
+                curr[hi + 1] = inf;
+            }
+            if (rowMin >= max) {
+                return max;
+            }
+
+            final int[] swap = prev;
+            prev = curr;
+            curr = swap;
         }
-        return mi;
+        return Math.min(prev[m], max);
     }
 
+    /**
+     * Per thread scratch space: the pattern bitmask table and two DP rows
+     */
+    private static final class Scratch {
+        private final long[] peq = new long[Character.MAX_VALUE + 1];
+        private final int[][] rows = new int[2][WORD_SIZE * 2];
+
+        private int[] row(int which, int size) {
+            if (this.rows[which].length < size + 1) {
+                this.rows[which] = new int[Math.max(size + 1, this.rows[which].length * 2)];
+            }
+            return this.rows[which];
+        }
+    }
 }
@@ -0,0 +1,109 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Histogram diff, as popularized by JGit. An extension of patience diff that
+ * anchors on the longest common region built around the <em>rarest</em> token of
+ * the base instead of requiring unique tokens. This keeps working on texts that have
+ * few unique words, and tokens that repeat more than <code>maxChainLength</code>
+ * times are never used as anchors, which bounds the effort spent on very common
+ * words. Ranges without a usable anchor fall back to meyers.
+ */
+public class HistogramDiff extends AbstractDiffAlgorithm {
+    private static final int DEFAULT_MAX_CHAIN_LENGTH = 64;
+    private final int maxChainLength;
+    
+    public HistogramDiff() {
+        this(DEFAULT_MAX_CHAIN_LENGTH);
+    }
+    
+    public HistogramDiff( int maxChainLength ) {
+        this.maxChainLength = maxChainLength;
+    }
+
+    @Override
+    protected List<int[]> split(final int[] base, final int[] witness, final int[] range) {
+        final int baseStart = range[0];
+        final int baseEnd = range[1];
+        final int witnessStart = range[2];
+        final int witnessEnd = range[3];
+        
+        // histogram of symbol positions in the base
+        final Map<Integer, Occurrences> histogram = new HashMap<Integer, Occurrences>();
+        for ( int i = baseStart; i < baseEnd; i++ ) {
+            Occurrences occ = histogram.get(base[i]);
+            if ( occ == null ) {
+                occ = new Occurrences();
+                histogram.put(base[i], occ);
+            }
+            occ.add(i);
+        }
+        
+        int bestCount = this.maxChainLength + 1;
+        int bestLength = 0;
+        int[] best = null;
+        int j = witnessStart;
+        while ( j < witnessEnd ) {
+            int next = j + 1;
+            final Occurrences occ = histogram.get(witness[j]);
+            if ( occ != null && occ.size <= bestCount && occ.size <= this.maxChainLength ) {
+                for ( int o = 0; o < occ.size; o++ ) {
+                    final int i = occ.positions[o];
+                    
+                    // grow the matching region around this candidate
+                    int bs = i;
+                    int ws = j;
+                    while ( bs > baseStart && ws > witnessStart && base[bs - 1] == witness[ws - 1] ) {
+                        bs--;
+                        ws--;
+                    }
+                    int be = i + 1;
+                    int we = j + 1;
+                    while ( be < baseEnd && we < witnessEnd && base[be] == witness[we] ) {
+                        be++;
+                        we++;
+                    }
+                    
+                    if ( occ.size < bestCount || (be - bs) > bestLength ) {
+                        bestCount = occ.size;
+                        bestLength = be - bs;
+                        best = new int[] {bs, be, ws, we};
+                    }
+                    if ( we > next ) {
+                        next = we;
+                    }
+                }
+            }
+            j = next;
+        }
+        
+        if ( best == null ) {
+            return null;
+        }
+        final List<int[]> subRanges = new ArrayList<int[]>(2);
+        subRanges.add( new int[] {baseStart, best[0], witnessStart, best[2]} );
+        subRanges.add( new int[] {best[1], baseEnd, best[3], witnessEnd} );
+        return subRanges;
+    }
+    
+    /**
+     * Growable list of positions for one symbol
+     */
+    private static final class Occurrences {
+        private int[] positions = new int[4];
+        private int size;
+        
+        private void add( int pos ) {
+            if ( this.size == this.positions.length ) {
+                final int[] grown = new int[this.size * 2];
+                System.arraycopy(this.positions, 0, grown, 0, this.size);
+                this.positions = grown;
+            }
+            this.positions[this.size++] = pos;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linear space variant of meyers' diff. Rather than remembering every furthest
+ * reaching path, each range is split on its <em>middle snake</em>, found by running
+ * the greedy search forwards from the start and backwards from the end until the
+ * two meet. Both halves are then diffed independently.
+ * <p/>
+ * The result is the same minimal edit script the full algorithm finds, but memory
+ * is bounded by O(N+M) rather than O(D^2), at the cost of roughly twice the
+ * comparisons. Used for witnesses too large for {@link MyersDiff}.
+ */
+public class LinearSpaceDiff extends AbstractDiffAlgorithm {
+
+    @Override
+    protected List<int[]> split(final int[] base, final int[] witness, final int[] range) {
+        final int[] snake = middleSnake(base, range[0], range[1], witness, range[2], range[3]);
+        final List<int[]> subRanges = new ArrayList<int[]>(2);
+        subRanges.add( new int[] {range[0], snake[0], range[2], snake[1]} );
+        subRanges.add( new int[] {snake[2], range[1], snake[3], range[3]} );
+        return subRanges;
+    }
+
+    /**
+     * Find the middle snake of an optimal path through the given ranges.
+     *
+     * @return <code>{baseStart, witnessStart, baseEnd, witnessEnd}</code> of the
+     *         snake, as absolute indexes. The snake may be empty.
+     */
+    private int[] middleSnake(final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+
+        final int n = baseEnd - baseStart;
+        final int m = witnessEnd - witnessStart;
+        final int delta = n - m;
+        final boolean odd = ( (delta & 1) != 0 );
+        final int max = (n + m + 1) / 2;
+        final int offset = max + 1;
+
+        // furthest reaching x for each diagonal, forwards and backwards.
+        // backward values count the tokens consumed from the end.
+        final int[] forward = new int[2 * max + 3];
+        final int[] backward = new int[2 * max + 3];
+
+        for ( int d = 0; d <= max; d++ ) {
+            for ( int k = -d; k <= d; k += 2 ) {
+                int x;
+                if ( k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]) ) {
+                    x = forward[offset + k + 1];
+                } else {
+                    x = forward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                final int startX = x;
+                final int startY = y;
+                while ( x < n && y < m && base[baseStart + x] == witness[witnessStart + y] ) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+
+                final int c = delta - k;
+                if ( odd && c >= -(d - 1) && c <= (d - 1) && x + backward[offset + c] >= n ) {
+                    return new int[] { baseStart + startX, witnessStart + startY, baseStart + x, witnessStart + y };
+                }
+            }
+
+            for ( int k = -d; k <= d; k += 2 ) {
+                int x;
+                if ( k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1]) ) {
+                    x = backward[offset + k + 1];
+                } else {
+                    x = backward[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                final int startX = x;
+                final int startY = y;
+                while ( x < n && y < m && base[baseEnd - 1 - x] == witness[witnessEnd - 1 - y] ) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+
+                final int c = delta - k;
+                if ( !odd && c >= -d && c <= d && x + forward[offset + c] >= n ) {
+                    return new int[] { baseEnd - x, witnessEnd - y, baseEnd - startX, witnessEnd - startY };
+                }
+            }
+        }
+        throw new IllegalStateException("Unable to find middle snake");
+    }
+}
@@ -0,0 +1,125 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+
+/**
+ * Myers' O(ND) greedy diff over sequences of interned token symbols.
+ * <p/>
+ * The forward search keeps a snapshot of the furthest reaching paths for each
+ * edit distance D and walks them backwards to recover the edit script, so
+ * memory use is O(D^2) rather than O(N*M).
+ *
+ * @see TokenInterner
+ */
+public class MyersDiff implements DiffAlgorithm {
+
+    /**
+     * Diff the symbols <code>base[baseStart, baseEnd)</code> against
+     * <code>witness[witnessStart, witnessEnd)</code>. The returned edits
+     * are ordered and use indexes into the full arrays.
+     */
+    @Override
+    public List<Edit> diff(final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+
+        final int n = baseEnd - baseStart;
+        final int m = witnessEnd - witnessStart;
+        if ( n == 0 && m == 0 ) {
+            return Collections.emptyList();
+        }
+        if ( n == 0 || m == 0 ) {
+            return Collections.singletonList( new Edit(baseStart, baseEnd, witnessStart, witnessEnd) );
+        }
+
+        final int max = n + m;
+        final int offset = max + 1;
+        final int[] v = new int[2 * max + 3];
+        final List<int[]> trace = new ArrayList<int[]>();
+
+        for (int d = 0; d <= max; d++) {
+            // remember the furthest reaching paths of the previous round
+            // for k in [-d, d]; that is all the backtracking will need
+            final int[] snapshot = new int[2 * d + 1];
+            System.arraycopy(v, offset - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if ( k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1]) ) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while ( x < n && y < m && base[baseStart + x] == witness[witnessStart + y] ) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if ( x >= n && y >= m ) {
+                    return backtrack(trace, d, n, m, baseStart, witnessStart);
+                }
+            }
+        }
+        throw new IllegalStateException("Myers diff failed to find a path");
+    }
+
+    private List<Edit> backtrack(final List<int[]> trace, final int distance, final int n, final int m,
+        final int baseStart, final int witnessStart) {
+
+        // collect the single token moves of the path from end to start
+        final List<int[]> moves = new ArrayList<int[]>(distance);
+        int x = n;
+        int y = m;
+        for (int d = distance; d > 0; d--) {
+            final int[] prev = trace.get(d);
+            final int k = x - y;
+            int prevK;
+            if ( k == -d || (k != d && prev[k - 1 + d] < prev[k + 1 + d]) ) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            final int prevX = prev[prevK + d];
+            final int prevY = prevX - prevK;
+
+            // skip back over the snake of matching tokens
+            while ( x > prevX && y > prevY ) {
+                x--;
+                y--;
+            }
+            moves.add(new int[] { prevX, prevY, x, y });
+            x = prevX;
+            y = prevY;
+        }
+        Collections.reverse(moves);
+
+        // merge adjacent moves into contiguous edits
+        final List<Edit> edits = new ArrayList<Edit>();
+        int[] current = null;
+        for (int[] move : moves) {
+            if ( current != null && current[2] == move[0] && current[3] == move[1] ) {
+                current[2] = move[2];
+                current[3] = move[3];
+            } else {
+                if ( current != null ) {
+                    edits.add(toEdit(current, baseStart, witnessStart));
+                }
+                current = move;
+            }
+        }
+        if ( current != null ) {
+            edits.add(toEdit(current, baseStart, witnessStart));
+        }
+        return edits;
+    }
+
+    private static Edit toEdit(final int[] move, final int baseStart, final int witnessStart) {
+        return new Edit(baseStart + move[0], baseStart + move[2], witnessStart + move[1], witnessStart + move[3]);
+    }
+}
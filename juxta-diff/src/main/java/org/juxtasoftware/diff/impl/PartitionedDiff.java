@@ -0,0 +1,118 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+
+/**
+ * Diff that splits a large comparison into independent segments and diffs
+ * them concurrently with a delegate algorithm.
+ * <p/>
+ * A pre-pass finds the tokens that are unique to both base and witness and
+ * appear in the same order in each (the {@link PatienceDiff patience} anchors).
+ * Segments are cut at anchors, so everything the delegate finds in one segment
+ * is independent of the others. The edits of all segments are stitched back
+ * together in order, which lets the collator number the difference groups
+ * exactly as it would for a single threaded diff.
+ */
+public class PartitionedDiff implements DiffAlgorithm {
+    public static final int DEFAULT_MIN_SEGMENT_SIZE = 2000;
+
+    private final DiffAlgorithm delegate;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final int minSegmentSize;
+
+    public PartitionedDiff(DiffAlgorithm delegate, ExecutorService executor) {
+        this(delegate, executor, DEFAULT_MIN_SEGMENT_SIZE);
+    }
+
+    public PartitionedDiff(DiffAlgorithm delegate, ExecutorService executor, int minSegmentSize) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.minSegmentSize = minSegmentSize;
+        if ( executor instanceof ThreadPoolExecutor ) {
+            this.parallelism = ((ThreadPoolExecutor)executor).getMaximumPoolSize();
+        } else {
+            this.parallelism = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    @Override
+    public List<Edit> diff(final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+
+        // not worth the overhead for small comparisons
+        final int total = (baseEnd - baseStart) + (witnessEnd - witnessStart);
+        if ( total < 2 * this.minSegmentSize ) {
+            return this.delegate.diff(base, baseStart, baseEnd, witness, witnessStart, witnessEnd);
+        }
+
+        final int[] range = new int[] {baseStart, baseEnd, witnessStart, witnessEnd};
+        final int targetSize = Math.max(this.minSegmentSize, total / (4 * Math.max(1, this.parallelism)));
+        final List<int[]> segments = segments(PatienceDiff.anchors(base, witness, range), range, targetSize);
+        if ( segments.size() < 2 ) {
+            return this.delegate.diff(base, baseStart, baseEnd, witness, witnessStart, witnessEnd);
+        }
+
+        final List<Future<List<Edit>>> results = new ArrayList<Future<List<Edit>>>(segments.size());
+        for ( final int[] segment : segments ) {
+            results.add( this.executor.submit(new Callable<List<Edit>>() {
+                @Override
+                public List<Edit> call() throws Exception {
+                    return delegate.diff(base, segment[0], segment[1], witness, segment[2], segment[3]);
+                }
+            }));
+        }
+
+        final List<Edit> edits = new ArrayList<Edit>();
+        try {
+            for ( Future<List<Edit>> result : results ) {
+                for ( Edit e : result.get() ) {
+                    AbstractDiffAlgorithm.addEdit(edits, e.getBaseStart(), e.getBaseEnd(), e.getWitnessStart(), e.getWitnessEnd());
+                }
+            }
+        } catch (InterruptedException e) {
+            cancel(results);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for segment diffs", e);
+        } catch (ExecutionException e) {
+            cancel(results);
+            throw new IllegalStateException("Segment diff failed", e.getCause());
+        }
+        return edits;
+    }
+
+    /**
+     * Group the ranges between anchors into segments of roughly <code>targetSize</code> tokens.
+     * Each cut is made just before an anchor, which then starts the next segment.
+     */
+    private List<int[]> segments(final int[][] anchors, final int[] range, final int targetSize) {
+        final List<int[]> segments = new ArrayList<int[]>();
+        int baseFrom = range[0];
+        int witnessFrom = range[2];
+        for ( int[] anchor : anchors ) {
+            final int size = (anchor[0] - baseFrom) + (anchor[1] - witnessFrom);
+            if ( size >= targetSize ) {
+                segments.add( new int[] {baseFrom, anchor[0], witnessFrom, anchor[1]} );
+                baseFrom = anchor[0];
+                witnessFrom = anchor[1];
+            }
+        }
+        segments.add( new int[] {baseFrom, range[1], witnessFrom, range[3]} );
+        return segments;
+    }
+
+    private void cancel( final List<Future<List<Edit>>> results ) {
+        for ( Future<List<Edit>> result : results ) {
+            result.cancel(true);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Patience diff. Tokens that occur exactly once in both base and witness are
+ * used as anchors; the longest run of anchors that appear in the same order in
+ * both sequences splits the comparison into smaller, independent ranges.
+ */
+public class PatienceDiff extends AbstractDiffAlgorithm {
+
+    @Override
+    protected List<int[]> split(final int[] base, final int[] witness, final int[] range) {
+        final int[][] anchors = anchors(base, witness, range);
+        if ( anchors.length == 0 ) {
+            return null;
+        }
+        
+        final List<int[]> subRanges = new ArrayList<int[]>(anchors.length + 1);
+        int baseFrom = range[0];
+        int witnessFrom = range[2];
+        for ( int[] anchor : anchors ) {
+            subRanges.add( new int[] {baseFrom, anchor[0], witnessFrom, anchor[1]} );
+            baseFrom = anchor[0] + 1;
+            witnessFrom = anchor[1] + 1;
+        }
+        subRanges.add( new int[] {baseFrom, range[1], witnessFrom, range[3]} );
+        return subRanges;
+    }
+
+    /**
+     * Find the longest ordered run of tokens that are unique to both sides of the range.
+     * 
+     * @return Array of <code>{baseIndex, witnessIndex}</code> pairs, ordered in both sequences
+     */
+    public static int[][] anchors(final int[] base, final int[] witness, final int[] range) {
+        // per symbol: {count in base, index in base, count in witness, index in witness}
+        final Map<Integer, int[]> counts = new HashMap<Integer, int[]>();
+        for ( int i = range[0]; i < range[1]; i++ ) {
+            int[] c = counts.get(base[i]);
+            if ( c == null ) {
+                c = new int[4];
+                counts.put(base[i], c);
+            }
+            c[0]++;
+            c[1] = i;
+        }
+        for ( int j = range[2]; j < range[3]; j++ ) {
+            final int[] c = counts.get(witness[j]);
+            if ( c != null ) {
+                c[2]++;
+                c[3] = j;
+            }
+        }
+        
+        // unique matches ordered by their position in the witness
+        final List<int[]> unique = new ArrayList<int[]>();
+        for ( int j = range[2]; j < range[3]; j++ ) {
+            final int[] c = counts.get(witness[j]);
+            if ( c != null && c[0] == 1 && c[2] == 1 ) {
+                unique.add( new int[] {c[1], j} );
+            }
+        }
+        return longestIncreasing(unique);
+    }
+
+    /**
+     * Longest subsequence of the given <code>{baseIndex, witnessIndex}</code> pairs
+     * whose base indexes increase, found by patience sorting. The pairs must be 
+     * ordered by their witness index.
+     */
+    public static int[][] longestIncreasing(final List<int[]> pairs) {
+        if ( pairs.isEmpty() ) {
+            return new int[0][];
+        }
+        
+        final int size = pairs.size();
+        final int[] tails = new int[size];
+        final int[] previous = new int[size];
+        int piles = 0;
+        for ( int u = 0; u < size; u++ ) {
+            final int baseIdx = pairs.get(u)[0];
+            int lo = 0;
+            int hi = piles;
+            while ( lo < hi ) {
+                final int mid = (lo + hi) >>> 1;
+                if ( pairs.get(tails[mid])[0] < baseIdx ) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            previous[u] = ( lo > 0 ? tails[lo - 1] : -1 );
+            tails[lo] = u;
+            if ( lo == piles ) {
+                piles++;
+            }
+        }
+        
+        final int[][] result = new int[piles][];
+        int u = tails[piles - 1];
+        for ( int a = piles - 1; a >= 0; a-- ) {
+            result[a] = pairs.get(u);
+            u = previous[u];
+        }
+        return result;
+    }
+}
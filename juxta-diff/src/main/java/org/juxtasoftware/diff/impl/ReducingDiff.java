@@ -0,0 +1,164 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+
+/**
+ * Reduction stage run ahead of the real diff. Witnesses are usually almost
+ * identical, so most of the work of a token diff goes into proving that long
+ * runs of tokens are equal. This stage removes that work up front:
+ * <ol>
+ * <li>the common prefix and suffix of base and witness are stripped,</li>
+ * <li>the rest of the base is cut into blocks of <code>blockSize</code> tokens and
+ * each block is hashed. Blocks that occur exactly once in base and witness,
+ * in the same order, are collapsed as identical.</li>
+ * </ol>
+ * Only the windows between the collapsed blocks are handed to the delegate algorithm.
+ */
+public class ReducingDiff implements DiffAlgorithm {
+    public static final int DEFAULT_BLOCK_SIZE = 32;
+    private static final long HASH_PRIME = 1000003L;
+
+    private final DiffAlgorithm delegate;
+    private final int blockSize;
+
+    public ReducingDiff(DiffAlgorithm delegate) {
+        this(delegate, DEFAULT_BLOCK_SIZE);
+    }
+
+    public ReducingDiff(DiffAlgorithm delegate, int blockSize) {
+        this.delegate = delegate;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public List<Edit> diff(final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+
+        final int[] range = new int[] { baseStart, baseEnd, witnessStart, witnessEnd };
+        AbstractDiffAlgorithm.trim(base, witness, range);
+
+        final List<Edit> edits = new ArrayList<Edit>();
+        int baseFrom = range[0];
+        int witnessFrom = range[2];
+        for ( int[] block : identicalBlocks(base, witness, range) ) {
+            window(edits, base, baseFrom, block[0], witness, witnessFrom, block[1]);
+            baseFrom = block[0] + this.blockSize;
+            witnessFrom = block[1] + this.blockSize;
+        }
+        window(edits, base, baseFrom, range[1], witness, witnessFrom, range[3]);
+        return edits;
+    }
+
+    private void window(final List<Edit> edits, final int[] base, final int baseStart, final int baseEnd,
+        final int[] witness, final int witnessStart, final int witnessEnd) {
+        if ( baseStart == baseEnd && witnessStart == witnessEnd ) {
+            return;
+        }
+        if ( baseStart == baseEnd || witnessStart == witnessEnd ) {
+            AbstractDiffAlgorithm.addEdit(edits, baseStart, baseEnd, witnessStart, witnessEnd);
+            return;
+        }
+        for ( Edit e : this.delegate.diff(base, baseStart, baseEnd, witness, witnessStart, witnessEnd) ) {
+            AbstractDiffAlgorithm.addEdit(edits, e.getBaseStart(), e.getBaseEnd(), e.getWitnessStart(), e.getWitnessEnd());
+        }
+    }
+
+    /**
+     * Find the blocks of the base that appear unchanged in the witness.
+     *
+     * @return Ordered, non-overlapping <code>{baseIndex, witnessIndex}</code> pairs,
+     *         each marking the start of a run of <code>blockSize</code> equal tokens
+     */
+    protected List<int[]> identicalBlocks(final int[] base, final int[] witness, final int[] range) {
+        final List<int[]> blocks = new ArrayList<int[]>();
+        final int size = this.blockSize;
+        if ( size < 1 || (range[1] - range[0]) < 2 * size || (range[3] - range[2]) < 2 * size ) {
+            return blocks;
+        }
+
+        // hash every aligned block of the base. Blocks that are not
+        // unique within the base are useless as anchors and marked with -1
+        final Map<Long, Integer> baseBlocks = new HashMap<Long, Integer>();
+        for ( int i = range[0]; i + size <= range[1]; i += size ) {
+            final Long hash = hash(base, i, size);
+            baseBlocks.put(hash, baseBlocks.containsKey(hash) ? -1 : i);
+        }
+
+        // slide a window over the witness looking for the base blocks. The
+        // hash of each window is rolled forward from the prior one.
+        long power = 1;
+        for ( int p = 1; p < size; p++ ) {
+            power *= HASH_PRIME;
+        }
+        final Map<Integer, int[]> matches = new HashMap<Integer, int[]>();
+        long hash = hash(witness, range[2], size);
+        for ( int j = range[2]; j + size <= range[3]; j++ ) {
+            if ( j > range[2] ) {
+                hash = (hash - witness[j - 1] * power) * HASH_PRIME + witness[j + size - 1];
+            }
+            final Integer baseIdx = baseBlocks.get(hash);
+            if ( baseIdx != null && baseIdx >= 0 && equal(base, baseIdx, witness, j, size) ) {
+                int[] match = matches.get(baseIdx);
+                if ( match == null ) {
+                    matches.put(baseIdx, new int[] { baseIdx, j, 1 });
+                } else {
+                    match[2]++;
+                }
+            }
+        }
+
+        // keep the blocks found exactly once in the witness, in witness order
+        final List<int[]> unique = new ArrayList<int[]>();
+        for ( int[] match : matches.values() ) {
+            if ( match[2] == 1 ) {
+                unique.add( match );
+            }
+        }
+        Collections.sort(unique, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] o1, int[] o2) {
+                return (o1[1] < o2[1] ? -1 : (o1[1] == o2[1] ? 0 : 1));
+            }
+        });
+        if ( unique.isEmpty() ) {
+            return blocks;
+        }
+
+        // longest run of blocks that appear in the same order in both texts,
+        // skipping any that would overlap the previous block in the witness
+        final int[][] ordered = PatienceDiff.longestIncreasing(unique);
+        int witnessLimit = range[2];
+        for ( int[] block : ordered ) {
+            if ( block[1] >= witnessLimit ) {
+                blocks.add( block );
+                witnessLimit = block[1] + size;
+            }
+        }
+        return blocks;
+    }
+
+    private static long hash(final int[] symbols, final int start, final int length) {
+        long hash = 0;
+        for ( int i = start; i < start + length; i++ ) {
+            hash = hash * HASH_PRIME + symbols[i];
+        }
+        return hash;
+    }
+
+    private static boolean equal(final int[] base, final int baseIdx, final int[] witness, final int witnessIdx, final int length) {
+        for ( int i = 0; i < length; i++ ) {
+            if ( base[baseIdx + i] != witness[witnessIdx + i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -10,10 +10,20 @@ import eu.interedition.text.Annotation;
 public class SimpleToken implements Token {
     private final Annotation annotation;
     private final String content;
+    private final int hash;
 
     public SimpleToken(Annotation annotation, String content) {
+        this(annotation, content, (content == null ? 0 : content.hashCode()));
+    }
+
+    /**
+     * @param contentHash the {@link String#hashCode() hash} of <code>content</code>,
+     *        if it is already known
+     */
+    public SimpleToken(Annotation annotation, String content, int contentHash) {
         this.annotation = annotation;
         this.content = content;
+        this.hash = 31 + contentHash;
     }
 
     @Override
@@ -23,10 +33,7 @@ public class SimpleToken implements Token {
 
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + ((content == null) ? 0 : content.hashCode());
-        return result;
+        return hash;
     }
 
     @Override
@@ -41,6 +48,9 @@ public class SimpleToken implements Token {
             return false;
         }
         SimpleToken other = (SimpleToken) obj;
+        if (hash != other.hash) {
+            return false;
+        }
         if (content == null) {
             if (other.content != null) {
                 return false;
@@ -0,0 +1,66 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.juxtasoftware.diff.Token;
+
+/**
+ * Dictionary that maps the normalized content of tokens onto integer symbols.
+ * All tokens that are equal to each other receive the same symbol, so the diff
+ * can compare plain <code>int</code> values instead of calling <code>Token.equals</code>
+ * and <code>String.equals</code> for every step of its inner loop.
+ *
+ * One interner must be shared by both sides of a comparison; symbols from
+ * different interners are not comparable. Not thread safe.
+ */
+public class TokenInterner {
+    private final Map<Token, Integer> symbols;
+
+    public TokenInterner() {
+        this(1024);
+    }
+
+    public TokenInterner( int expectedSize ) {
+        this.symbols = new HashMap<Token, Integer>( Math.max(16, expectedSize) );
+    }
+
+    /**
+     * Get the symbol for a single token, adding a new one to the dictionary
+     * if the token has not been seen before.
+     *
+     * @param token
+     * @return
+     */
+    public int intern( final Token token ) {
+        Integer symbol = this.symbols.get(token);
+        if ( symbol == null ) {
+            symbol = this.symbols.size();
+            this.symbols.put(token, symbol);
+        }
+        return symbol;
+    }
+
+    /**
+     * Convert a list of tokens into the equivalent sequence of symbols
+     *
+     * @param tokens
+     * @return
+     */
+    public int[] intern( final List<Token> tokens ) {
+        final int[] out = new int[ tokens.size() ];
+        int i = 0;
+        for ( Token t : tokens ) {
+            out[i++] = intern(t);
+        }
+        return out;
+    }
+
+    /**
+     * @return Number of distinct symbols in the dictionary
+     */
+    public int size() {
+        return this.symbols.size();
+    }
+}
@@ -6,8 +6,10 @@ import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.junit.Assert;
+import org.juxtasoftware.diff.impl.MyersDiff;
 import org.juxtasoftware.diff.impl.SimpleTokenComparator;
 import org.juxtasoftware.diff.util.SimpleComparand;
 import org.juxtasoftware.diff.util.SimpleTokenSource;
@@ -29,6 +31,8 @@ public abstract class AbstractTest implements DiffCollatorConfiguration, Differe
 
     protected SimpleTokenSource tokenSource = new SimpleTokenSource();
     protected Comparator<Token> tokenComparator = new SimpleTokenComparator();
+    protected DiffAlgorithm diffAlgorithm = new MyersDiff();
+    protected int linearSpaceThreshold = 0;
 
     protected List<Difference> collate(Comparand base, Comparand witness) {
         try {
@@ -104,6 +108,21 @@ public abstract class AbstractTest implements DiffCollatorConfiguration, Differe
         return this;
     }
 
+    @Override
+    public DiffAlgorithm getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    @Override
+    public int getLinearSpaceThreshold() {
+        return linearSpaceThreshold;
+    }
+
+    @Override
+    public ExecutorService getDiffExecutor() {
+        return null;
+    }
+
     @Override
     public void add(Difference diff) throws IOException {
         alignments.add(diff);
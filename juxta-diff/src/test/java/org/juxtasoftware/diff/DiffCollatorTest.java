@@ -1,5 +1,6 @@
 package org.juxtasoftware.diff;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -32,6 +33,13 @@ public class DiffCollatorTest extends AbstractTest {
     
 
 
+    @Test
+    public void identicalWitness() throws IOException {
+        Assert.assertTrue(collate(//
+                comparand("the quick red fox died"),
+                comparand("the quick red fox died")).isEmpty());
+    }
+
     @Test
     public void emptyWitness() throws IOException {
         print(collate(//
@@ -0,0 +1,113 @@
+package org.juxtasoftware.diff;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import eu.interedition.text.Annotation;
+
+/**
+ * Checks that the columnar buffer receives exactly the rows the collator
+ * produces as {@link Difference} objects.
+ */
+public class DifferenceBufferTest extends AbstractTest {
+    private DifferenceBuffer buffer;
+
+    @Override
+    public DifferenceStore getDifferenceStore() {
+        return (buffer == null ? this : buffer);
+    }
+
+    @Test
+    public void sameAsDifferences() throws IOException {
+        compare("that quick red fox died", "the quick ripe box lied");
+        compare("quick red fox got rabies and died", "the quick red fox died");
+        compare(" 'Drink me,' but the wise little Alice was not going to do THAT in a hurry.", " 'drink me,' 'but I'll look first,'");
+        compare("", "the quick red fox died");
+        compare("the quick red fox died", "");
+    }
+
+    @Test
+    public void savesFullBatches() throws IOException {
+        final List<Integer> saved = new ArrayList<Integer>();
+        buffer = new TestBuffer(2) {
+            @Override
+            public void save() throws IOException {
+                saved.add(size());
+                clear();
+            }
+        };
+        collate(comparand("a b c d e"), comparand("v w x y z"));
+        buffer.save();
+        Assert.assertEquals(3, saved.size());
+        Assert.assertEquals(2, saved.get(0).intValue());
+        Assert.assertEquals(2, saved.get(1).intValue());
+        Assert.assertEquals(1, saved.get(2).intValue());
+    }
+
+    @Test
+    public void takenRowsAreKept() throws IOException {
+        final List<DifferenceBuffer.Rows> taken = new ArrayList<DifferenceBuffer.Rows>();
+        buffer = new TestBuffer(2) {
+            @Override
+            public void save() throws IOException {
+                taken.add(takeRows());
+            }
+        };
+        final Comparand base = comparand("a b c");
+        final Comparand witness = comparand("x y z");
+        collate(base, witness);
+        Assert.assertEquals(1, taken.size());
+        Assert.assertEquals(2, taken.get(0).size());
+        Assert.assertEquals(1, buffer.size());
+        Assert.assertSame(base.getText(), buffer.getRows().getBaseText());
+        Assert.assertSame(witness.getText(), taken.get(0).getWitnessText());
+        Assert.assertEquals(1, taken.get(0).getGroup(1));
+    }
+
+    private void compare(String baseContent, String witnessContent) throws IOException {
+        final Comparand base = comparand(baseContent);
+        final Comparand witness = comparand(witnessContent);
+
+        alignments.clear();
+        buffer = null;
+        final List<Difference> differences = new ArrayList<Difference>(collate(base, witness));
+
+        buffer = new TestBuffer(0);
+        collate(base, witness);
+        final DifferenceBuffer.Rows rows = buffer.getRows();
+        Assert.assertEquals(differences.size(), rows.size());
+        for (int row = 0; row < differences.size(); row++) {
+            final Difference d = differences.get(row);
+            Assert.assertEquals(d.getGroup(), rows.getGroup(row));
+            Assert.assertEquals(d.getType(), rows.getType(row));
+            Assert.assertEquals(d.getEditDistance(), rows.getEditDistance(row));
+            Assert.assertEquals(d.getBase().getRange().getStart(), rows.getBaseStart(row));
+            Assert.assertEquals(d.getBase().getRange().getEnd(), rows.getBaseEnd(row));
+            Assert.assertEquals(d.getWitness().getRange().getStart(), rows.getWitnessStart(row));
+            Assert.assertEquals(d.getWitness().getRange().getEnd(), rows.getWitnessEnd(row));
+            Assert.assertEquals(d.getBase().getName().equals(DiffCollator.GAP_NAME), rows.isBaseGap(row));
+            Assert.assertEquals(d.getWitness().getName().equals(DiffCollator.GAP_NAME), rows.isWitnessGap(row));
+        }
+        Assert.assertSame(base.getText(), rows.getBaseText());
+        Assert.assertSame(witness.getText(), rows.getWitnessText());
+    }
+
+    private static class TestBuffer extends DifferenceBuffer {
+        private TestBuffer(int batchSize) {
+            super(batchSize);
+        }
+
+        @Override
+        protected long annotationId(Annotation annotation) {
+            return annotation.getRange().getStart();
+        }
+
+        @Override
+        public void save() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.juxtasoftware.diff;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.diff.util.SimpleComparand;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import eu.interedition.text.Range;
+
+public class SegmentTest extends AbstractTest {
+    private ExecutorService executor;
+
+    @Override
+    public ExecutorService getDiffExecutor() {
+        return executor;
+    }
+
+    @Test
+    public void pairsByLabel() throws IOException {
+        final SimpleComparand base = comparand("front|one red fox|two lazy dogs|three tall trees");
+        final SimpleComparand witness = comparand("front|one red fox|three tall trees");
+        final List<Comparison> comparisons = Segment.align(tokenSource,
+            base, segments(base, null, "1", "2", "3"), witness, segments(witness, null, "1", "3"));
+
+        // the unlabeled front and the missing page go with the comparison before them
+        Assert.assertEquals(2, comparisons.size());
+        Assert.assertEquals(new Range(0, 31), comparisons.get(0).getBaseRanges().first());
+        Assert.assertEquals(new Range(0, 17), comparisons.get(0).getWitnessRanges().first());
+        Assert.assertEquals(new Range(31, 48), comparisons.get(1).getBaseRanges().first());
+    }
+
+    @Test
+    public void pairsByContentWithoutLabels() throws IOException {
+        final SimpleComparand base = comparand("one red fox|two lazy dogs|three tall trees");
+        final SimpleComparand witness = comparand("one red fox|three tall trees");
+        final List<Comparison> comparisons = Segment.align(tokenSource,
+            base, segments(base, null, null, null), witness, segments(witness, null, null));
+        Assert.assertEquals(2, comparisons.size());
+    }
+
+    @Test
+    public void wholeTextWithoutPairs() throws IOException {
+        final SimpleComparand base = comparand("one red fox|two lazy dogs|three tall trees");
+        final SimpleComparand witness = comparand("a red fox|three short trees");
+        Assert.assertEquals(1, Segment.align(tokenSource,
+            base, segments(base, "1", "2", "3"), witness, segments(witness, "a", "b")).size());
+    }
+
+    @Test
+    public void groupsAreUniqueAcrossSegments() throws IOException {
+        final SimpleComparand base = comparand("the quick red fox|died in the woods");
+        final SimpleComparand witness = comparand("the slow red fox|lived in the woods");
+        collator.collate(this, base, segments(base, "1", "2"), witness, segments(witness, "1", "2"));
+
+        final Set<Integer> first = Sets.newHashSet();
+        final Set<Integer> second = Sets.newHashSet();
+        for (Difference d : alignments) {
+            (d.getBase().getRange().getStart() < 17 ? first : second).add(d.getGroup());
+        }
+        Assert.assertFalse(first.isEmpty());
+        Assert.assertFalse(second.isEmpty());
+        Assert.assertTrue(Sets.intersection(first, second).isEmpty());
+    }
+
+    @Test
+    public void concurrentSegmentsAreStoredInOrder() throws IOException {
+        final SimpleComparand base = comparand("a b c|d e f|g h i|j k l|m n o");
+        final SimpleComparand witness = comparand("a x c|d e y|z h i|j k l|m o");
+        collator.collate(this, base, segments(base, "1", "2", "3", "4", "5"), witness, segments(witness, "1", "2", "3", "4", "5"));
+        final List<Difference> sequential = Lists.newArrayList(alignments);
+
+        alignments.clear();
+        executor = Executors.newFixedThreadPool(2);
+        try {
+            collator.collate(this, base, segments(base, "1", "2", "3", "4", "5"), witness, segments(witness, "1", "2", "3", "4", "5"));
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(sequential.size(), alignments.size());
+        for (int i = 0; i < sequential.size(); i++) {
+            Assert.assertEquals(sequential.get(i).getGroup(), alignments.get(i).getGroup());
+            Assert.assertEquals(sequential.get(i).getBase().getRange(), alignments.get(i).getBase().getRange());
+            Assert.assertEquals(sequential.get(i).getWitness().getRange(), alignments.get(i).getWitness().getRange());
+        }
+    }
+
+    /**
+     * Segments of <code>comparand</code>, which starts a new one at every '|'
+     */
+    private static List<Segment> segments(SimpleComparand comparand, String... labels) {
+        final String content = ((eu.interedition.text.mem.SimpleText) comparand.getText()).getContent();
+        final List<Segment> segments = Lists.newArrayList();
+        int start = 0;
+        for (String label : labels) {
+            int end = content.indexOf('|', start + 1);
+            if (end < 0) {
+                end = content.length();
+            }
+            segments.add(new Segment(new Range(start, end), label));
+            start = end;
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,139 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+
+/**
+ * Checks that every diff algorithm produces a valid edit script for random
+ * symbol sequences, and that the meyers scripts are also minimal.
+ */
+public class DiffAlgorithmTest {
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void myers() {
+        check(new MyersDiff(), true);
+    }
+
+    @Test
+    public void patience() {
+        check(new PatienceDiff(), false);
+    }
+
+    @Test
+    public void histogram() {
+        check(new HistogramDiff(), false);
+    }
+
+    @Test
+    public void linearSpace() {
+        check(new LinearSpaceDiff(), true);
+    }
+
+    @Test
+    public void partitioned() {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            check(new PartitionedDiff(new MyersDiff(), executor, 4), false);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void subRange() {
+        final int[] base = { 9, 9, 1, 2, 3, 9 };
+        final int[] witness = { 8, 1, 4, 3 };
+        final List<Edit> edits = new MyersDiff().diff(base, 2, 5, witness, 1, 4);
+        Assert.assertEquals(1, edits.size());
+        Assert.assertEquals(new Edit(3, 4, 2, 3), edits.get(0));
+    }
+
+    protected static void check(DiffAlgorithm algorithm, boolean minimal) {
+        final Random random = new Random(42);
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int alphabet = 1 + random.nextInt(8);
+            final int[] base = randomSymbols(random, random.nextInt(40), alphabet);
+            final int[] witness = mutate(random, base, alphabet);
+            final List<Edit> edits = algorithm.diff(base, 0, base.length, witness, 0, witness.length);
+            final int cost = verify(base, witness, edits);
+            if (minimal) {
+                Assert.assertEquals(base.length + witness.length - 2 * lcs(base, witness), cost);
+            }
+        }
+    }
+
+    /**
+     * Walk the edit script and assert everything between the edits matches.
+     * @return the number of tokens touched by the edits
+     */
+    protected static int verify(int[] base, int[] witness, List<Edit> edits) {
+        int b = 0;
+        int w = 0;
+        int cost = 0;
+        for (Edit e : edits) {
+            Assert.assertTrue(e.getBaseLength() + e.getWitnessLength() > 0);
+            Assert.assertEquals(e.getBaseStart() - b, e.getWitnessStart() - w);
+            while (b < e.getBaseStart()) {
+                Assert.assertEquals(base[b++], witness[w++]);
+            }
+            b = e.getBaseEnd();
+            w = e.getWitnessEnd();
+            cost += e.getBaseLength() + e.getWitnessLength();
+        }
+        Assert.assertEquals(base.length - b, witness.length - w);
+        while (b < base.length) {
+            Assert.assertEquals(base[b++], witness[w++]);
+        }
+        return cost;
+    }
+
+    private static int[] randomSymbols(Random random, int length, int alphabet) {
+        final int[] symbols = new int[length];
+        for (int i = 0; i < length; i++) {
+            symbols[i] = random.nextInt(alphabet);
+        }
+        return symbols;
+    }
+
+    private static int[] mutate(Random random, int[] base, int alphabet) {
+        final List<Integer> symbols = new ArrayList<Integer>();
+        for (int s : base) {
+            symbols.add(s);
+        }
+        final int changes = random.nextInt(6);
+        for (int c = 0; c < changes; c++) {
+            final int op = random.nextInt(3);
+            if (op == 0 && !symbols.isEmpty()) {
+                symbols.remove(random.nextInt(symbols.size()));
+            } else if (op == 1 || symbols.isEmpty()) {
+                symbols.add(random.nextInt(symbols.size() + 1), random.nextInt(alphabet + 2));
+            } else {
+                symbols.set(random.nextInt(symbols.size()), random.nextInt(alphabet + 2));
+            }
+        }
+        final int[] witness = new int[symbols.size()];
+        for (int i = 0; i < witness.length; i++) {
+            witness[i] = symbols.get(i);
+        }
+        return witness;
+    }
+
+    private static int lcs(int[] a, int[] b) {
+        final int[][] d = new int[a.length + 1][b.length + 1];
+        for (int i = 1; i <= a.length; i++) {
+            for (int j = 1; j <= b.length; j++) {
+                d[i][j] = (a[i - 1] == b[j - 1]) ? d[i - 1][j - 1] + 1 : Math.max(d[i - 1][j], d[i][j - 1]);
+            }
+        }
+        return d[a.length][b.length];
+    }
+}
@@ -0,0 +1,76 @@
+package org.juxtasoftware.diff.impl;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the bit-parallel and banded edit distances with a plain
+ * Levenshtein matrix.
+ */
+public class EditDistanceTest {
+    private static final int CAP = 2500;
+
+    @Test
+    public void simple() {
+        Assert.assertEquals(0, EditDistance.compute("", ""));
+        Assert.assertEquals(5, EditDistance.compute("", "juxta"));
+        Assert.assertEquals(3, EditDistance.compute("kitten", "sitting"));
+        Assert.assertEquals(1, EditDistance.compute("colour", "color"));
+    }
+
+    @Test
+    public void shortTokens() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            final String a = randomText(random, random.nextInt(70), 1 + random.nextInt(6));
+            final String b = randomText(random, random.nextInt(70), 1 + random.nextInt(6));
+            Assert.assertEquals(levenshtein(a, b), EditDistance.compute(a, b));
+        }
+    }
+
+    @Test
+    public void longTokens() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            final String a = randomText(random, 65 + random.nextInt(300), 4);
+            final String b = a.substring(random.nextInt(20)) + randomText(random, random.nextInt(40), 4);
+            Assert.assertEquals(levenshtein(a, b), EditDistance.compute(a, b));
+        }
+    }
+
+    @Test
+    public void cappedDistance() {
+        final Random random = new Random(42);
+        final String a = randomText(random, 3000, 2);
+        Assert.assertEquals(CAP, EditDistance.compute(a, a.substring(0, 1)));
+        Assert.assertEquals(CAP, EditDistance.compute(a, a + a));
+        Assert.assertEquals(0, EditDistance.compute(a, new String(a)));
+    }
+
+    private static String randomText(Random random, int length, int alphabet) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (random.nextBoolean() ? 'a' + random.nextInt(alphabet) : 0x3b1 + random.nextInt(alphabet)));
+        }
+        return sb.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        final int[][] d = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= b.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            for (int j = 1; j <= b.length(); j++) {
+                final int cost = (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+            }
+        }
+        return Math.min(d[a.length()][b.length()], CAP);
+    }
+}
@@ -0,0 +1,101 @@
+package org.juxtasoftware.diff.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.diff.AbstractTest;
+import org.juxtasoftware.diff.DiffAlgorithm;
+import org.juxtasoftware.diff.Edit;
+import org.juxtasoftware.diff.Token;
+import org.juxtasoftware.diff.util.SimpleComparand;
+
+/**
+ * Runs the reduction stage over the {@link org.juxtasoftware.diff.DiffCollatorTest}
+ * fixtures and over long, mostly identical symbol sequences.
+ */
+public class ReducingDiffTest extends AbstractTest {
+
+    @Test
+    public void fixtures() throws IOException {
+        fixture("that quick red fox died", "the quick ripe box lied");
+        fixture(" 'Drink me,' but the wise little Alice was not going to do THAT in a hurry. 'No, I'll look first,'",
+            " 'drink me,' 'but I'll look first,'");
+        fixture("quick red fox got rabies and died", "the quick red fox died");
+        fixture("", "the quick red fox died");
+    }
+
+    @Test
+    public void prefixAndSuffix() {
+        final RecordingDiff recorder = new RecordingDiff();
+        final int[] base = { 1, 2, 3, 4, 5 };
+        final int[] witness = { 1, 2, 6, 4, 5 };
+        final List<Edit> edits = new ReducingDiff(recorder).diff(base, 0, base.length, witness, 0, witness.length);
+        Assert.assertEquals(Collections.singletonList(new Edit(2, 3, 2, 3)), edits);
+        Assert.assertEquals(1, recorder.windows.size());
+        Assert.assertEquals(2, recorder.windowSize());
+    }
+
+    @Test
+    public void identicalBlocks() {
+        final Random random = new Random(7);
+        final int[] base = new int[5000];
+        for (int i = 0; i < base.length; i++) {
+            base[i] = random.nextInt(1000);
+        }
+        final int[] witness = base.clone();
+        witness[100] = -1;
+        witness[2500] = -2;
+        witness[4000] = -3;
+
+        final RecordingDiff recorder = new RecordingDiff();
+        final List<Edit> edits = new ReducingDiff(recorder, 16).diff(base, 0, base.length, witness, 0, witness.length);
+        DiffAlgorithmTest.verify(base, witness, edits);
+        Assert.assertEquals(3, edits.size());
+        Assert.assertTrue(recorder.windowSize() < 6 * 2 * 16);
+    }
+
+    @Test
+    public void randomSequences() {
+        DiffAlgorithmTest.check(new ReducingDiff(new MyersDiff(), 2), false);
+    }
+
+    private void fixture(String base, String witness) throws IOException {
+        final int[][] symbols = symbols(comparand(base), comparand(witness));
+        final List<Edit> reduced = new ReducingDiff(new MyersDiff()).diff(symbols[0], 0, symbols[0].length, symbols[1], 0, symbols[1].length);
+        final List<Edit> full = new MyersDiff().diff(symbols[0], 0, symbols[0].length, symbols[1], 0, symbols[1].length);
+        Assert.assertEquals(DiffAlgorithmTest.verify(symbols[0], symbols[1], full), DiffAlgorithmTest.verify(symbols[0], symbols[1], reduced));
+    }
+
+    private int[][] symbols(SimpleComparand base, SimpleComparand witness) throws IOException {
+        final List<Token> baseTokens = tokenSource.tokensOf(base.getText(), Collections.singleton(base.getTextRange()));
+        final List<Token> witnessTokens = tokenSource.tokensOf(witness.getText(), Collections.singleton(witness.getTextRange()));
+        final TokenInterner interner = new TokenInterner();
+        return new int[][] { interner.intern(baseTokens), interner.intern(witnessTokens) };
+    }
+
+    /**
+     * Meyers diff that remembers the windows it was asked to compare
+     */
+    private static class RecordingDiff implements DiffAlgorithm {
+        private final List<int[]> windows = new ArrayList<int[]>();
+
+        @Override
+        public List<Edit> diff(int[] base, int baseStart, int baseEnd, int[] witness, int witnessStart, int witnessEnd) {
+            this.windows.add(new int[] { baseStart, baseEnd, witnessStart, witnessEnd });
+            return new MyersDiff().diff(base, baseStart, baseEnd, witness, witnessStart, witnessEnd);
+        }
+
+        private int windowSize() {
+            int size = 0;
+            for (int[] w : this.windows) {
+                size += (w[1] - w[0]) + (w[3] - w[2]);
+            }
+            return size;
+        }
+    }
+}
@@ -43,8 +43,10 @@ public class SimpleTokenSource implements TokenSource {
             } else {
                 if ( start != -1 ) {
                     Range tokenRange = new Range(start, offset);
-                    final SimpleAnnotation a = new SimpleAnnotation(text, TEST_TOKEN_NAME, tokenRange, null);
-                    tokens.add(new SimpleToken(a, token.toString()));
+                    if ( isIncluded(tokenRange, ranges) ) {
+                        final SimpleAnnotation a = new SimpleAnnotation(text, TEST_TOKEN_NAME, tokenRange, null);
+                        tokens.add(new SimpleToken(a, token.toString()));
+                    }
                     token = new StringBuffer();
                     start = -1;
                 }
@@ -53,11 +55,22 @@ public class SimpleTokenSource implements TokenSource {
         
         if (start > -1 ) {
             Range tokenRange = new Range(start, textContent.length()-1);
-            final SimpleAnnotation a = new SimpleAnnotation(text, TEST_TOKEN_NAME, tokenRange, null);
-            tokens.add(new SimpleToken(a, token.toString()));
+            if ( isIncluded(tokenRange, ranges) ) {
+                final SimpleAnnotation a = new SimpleAnnotation(text, TEST_TOKEN_NAME, tokenRange, null);
+                tokens.add(new SimpleToken(a, token.toString()));
+            }
         }
         return tokens;
     }
+    
+    private boolean isIncluded(Range tokenRange, Set<Range> ranges) {
+        for ( Range r : ranges ) {
+            if ( r.getStart() <= tokenRange.getStart() && tokenRange.getEnd() <= r.getEnd() ) {
+                return true;
+            }
+        }
+        return false;
+    }
 
     
     private boolean isTokenChar(int c) {
@@ -0,0 +1,79 @@
+truncate table juxta_schema_version;
+insert into juxta_schema_version (major, minor, micro) values ( '1','8','4');
+
+alter table juxta_collator_config add diff_algorithm enum('MYERS','PATIENCE','HISTOGRAM') not null default 'MYERS';
+alter table juxta_collator_config add collation_mode enum('ALL_PAIRS','BASE') not null default 'ALL_PAIRS';
+alter table juxta_collator_config add base_witness_id BIGINT default NULL;
+alter table juxta_collator_config add FOREIGN KEY (base_witness_id) REFERENCES juxta_witness (id)  ON DELETE SET NULL;
+alter table juxta_collator_config add segmented BOOL NOT NULL default 0;
+
+create table if not exists juxta_witness_tokenization (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    witness_id BIGINT NOT NULL,
+    text_id BIGINT NOT NULL,
+    join_linebreaks BOOL NOT NULL default 0,
+    tokenized_length INT UNSIGNED NOT NULL default 0,
+    complete BOOL NOT NULL default 0,
+    content_hash CHAR(40) default NULL,
+    token_boundaries LONGBLOB default NULL,
+    PRIMARY KEY (id),
+    UNIQUE (witness_id, text_id, join_linebreaks),
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (text_id) REFERENCES text_content (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+alter table juxta_comparison_set_member add tokenization_id BIGINT default NULL;
+alter table juxta_comparison_set_member add FOREIGN KEY (tokenization_id) REFERENCES juxta_witness_tokenization (id) ON DELETE SET NULL;
+
+alter table juxta_annotation modify set_id BIGINT default NULL;
+alter table juxta_annotation add tokenization_id BIGINT default NULL after set_id;
+alter table juxta_annotation add FOREIGN KEY (tokenization_id) REFERENCES juxta_witness_tokenization (id) ON DELETE CASCADE;
+alter table juxta_annotation add UNIQUE KEY token_range (tokenization_id, range_start, range_end);
+
+alter table juxta_comparison_set_member add collated BOOL NOT NULL default 0;
+-- tokens of existing sets are stored with the set, not the witness tokenization,
+-- so those sets are tokenized and collated again from scratch
+update juxta_comparison_set set status = 'NOT_COLLATED' where status in ('TOKENIZING', 'TOKENIZED', 'COLLATING', 'COLLATED');
+
+create table if not exists juxta_collation_progress (
+    set_id BIGINT NOT NULL,
+    witness_a_id BIGINT NOT NULL,
+    witness_b_id BIGINT NOT NULL,
+    completed TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE (set_id, witness_a_id, witness_b_id),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_a_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_b_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+create table if not exists juxta_pair_result (
+    set_id BIGINT NOT NULL,
+    base_id BIGINT NOT NULL,
+    witness_id BIGINT NOT NULL,
+    base_hash CHAR(40) NOT NULL,
+    witness_hash CHAR(40) NOT NULL,
+    config_key VARCHAR(64) NOT NULL,
+    UNIQUE (set_id, base_id, witness_id),
+    KEY content_key (base_hash, witness_hash, config_key),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (base_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+create table if not exists juxta_pair_job (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    set_id BIGINT NOT NULL,
+    base_id BIGINT NOT NULL,
+    witness_id BIGINT NOT NULL,
+    lease_token CHAR(36) default NULL,
+    lease_expires TIMESTAMP NULL default NULL,
+    attempts INT UNSIGNED NOT NULL default 0,
+    failed BOOL NOT NULL default 0,
+    error VARCHAR(255) default NULL,
+    PRIMARY KEY (id),
+    UNIQUE (set_id, base_id, witness_id),
+    KEY lease_token_key (lease_token),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (base_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
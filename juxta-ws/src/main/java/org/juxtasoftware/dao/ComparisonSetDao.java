@@ -6,6 +6,7 @@ import java.util.Set;
 import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.ResourceInfo;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.Usage;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.model.Workspace;
@@ -31,9 +32,19 @@ public interface ComparisonSetDao extends JuxtaDao<ComparisonSet> {
     boolean isWitness( final ComparisonSet set, final Witness witness );
     void setTokenzedLength(final ComparisonSet set, final Witness witness, final long tokenizedLength );
     long getTokenzedLength(final ComparisonSet set, final Witness witness );
+    void setTokenization(final ComparisonSet set, final Witness witness, final Tokenization tokenization );
+    Long getTokenizationId(final ComparisonSet set, final Witness witness );
+    boolean isCollated( final ComparisonSet set, final Witness witness );
+    void markCollated( final ComparisonSet set );
+    
+    // progress of a collation that has not finished yet
+    boolean isCollated( final ComparisonSet set, final Witness base, final Witness witness );
+    void markCollated( final ComparisonSet set, final Witness base, final Witness witness );
     
     // collation reset
     void clearCollationData( final ComparisonSet set);
+    void clearCollationData( final ComparisonSet set, final Witness witness );
+    void clearCollationData( final ComparisonSet set, final Witness base, final Witness witness );
     
     // alignment validation
     boolean hasAlignment( final ComparisonSet set, Long alignmentId );
@@ -1,9 +1,14 @@
 package org.juxtasoftware.dao;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import org.juxtasoftware.model.AnnotationConstraint;
 import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.Tokenization;
+
+import eu.interedition.text.Range;
 
 /**
  * @author loufoster
@@ -11,7 +16,8 @@ import org.juxtasoftware.model.JuxtaAnnotation;
  */
 public interface JuxtaAnnotationDao  {
     /**
-     * Create a entries for all annotations in the lts
+     * Create a entries for all annotations in the lts with a single batch
+     * insert, and set the new ID of each
      * @param annotations
      * @return Count of annotations created
      */
@@ -24,6 +30,16 @@ public interface JuxtaAnnotationDao  {
      */
     Long create(JuxtaAnnotation annotation);
     
+    /**
+     * Get the IDs of the token annotations of <code>tokenization</code> at
+     * <code>ranges</code>, creating the ones that are not stored yet. Tokens
+     * are only stored as annotations once an alignment refers to them.
+     * @param tokenization
+     * @param ranges
+     * @return The annotation ID of each range
+     */
+    Map<Range, Long> createTokens( Tokenization tokenization, Collection<Range> ranges );
+    
     /**
      * Delete a spaecific annotation
      * @param annotation
@@ -39,20 +55,25 @@ public interface JuxtaAnnotationDao  {
     JuxtaAnnotation find( Long id, boolean includeText);
     
     /**
-     * Get a list of all annotations that match the constraints
+     * Get a list of all annotations that match the constraints. Tokens that
+     * are not stored as annotations are decoded from the token boundaries
+     * of their tokenization and have no ID. A manual alignment refers to
+     * such a token by its name, range and witness, which stores it.
      * @param constraint
      * @return
      */
     List<JuxtaAnnotation> list( final AnnotationConstraint constraint );
     
     /**
-     * Given a textID and a starting position, find the start of the NEXT token
-     * @param witnessId
+     * Given a tokenization and a starting position, find the start of the NEXT token.
+     * Load the tokenization with its boundaries once for all lookups; tokenizations
+     * without boundaries are searched in the db
+     * @param tokenization
      * @param fromPos
-     * @return
+     * @return The start of the token, or -1 if there is none
      */
-    long findNextTokenStart( final Long witnessId, final long fromPos);
+    long findNextTokenStart( final Tokenization tokenization, final long fromPos);
     
-    long findPriorTokenEnd( final Long witnessId, final long fromPos);
+    long findPriorTokenEnd( final Tokenization tokenization, final long fromPos);
     
 }
@@ -0,0 +1,70 @@
+package org.juxtasoftware.dao;
+
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.PairJob;
+import org.juxtasoftware.model.Witness;
+
+/**
+ * The queue of witness pairs shared by all nodes that collate against 
+ * the same database
+ */
+public interface PairJobDao {
+    
+    /**
+     * Queue the pair <code>base</code> and <code>witness</code> of <code>set</code>
+     */
+    void create( final ComparisonSet set, final Witness base, final Witness witness );
+    
+    /**
+     * Lease the oldest job that is not leased or whose lease has expired. Jobs
+     * that were leased <code>maxAttempts</code> times are failed instead.
+     * 
+     * @param setId Only lease jobs of this set; null for any set
+     * @param leaseSeconds
+     * @param maxAttempts
+     * @return the leased job or null if there is none
+     */
+    PairJob lease( final Long setId, final int leaseSeconds, final int maxAttempts );
+    
+    /**
+     * Extend the lease on <code>job</code>
+     * @return false if the lease was lost to another node
+     */
+    boolean renew( final PairJob job, final int leaseSeconds );
+    
+    /**
+     * Lock <code>job</code> until the end of the current transaction, so it
+     * cannot be leased by another node before the transaction commits. Call
+     * this in each transaction that writes results of the job.
+     * @return false if the lease was lost to another node
+     */
+    boolean lock( final PairJob job );
+    
+    /**
+     * Remove the completed <code>job</code>. Call this in the transaction that
+     * records the pair as collated.
+     * @return false if the lease was lost to another node
+     */
+    boolean complete( final PairJob job );
+    
+    /**
+     * Give up the lease on a <code>job</code> that failed. It is leased again
+     * unless it has been tried <code>maxAttempts</code> times.
+     */
+    void release( final PairJob job, final String error, final int maxAttempts );
+    
+    /**
+     * @return the number of jobs of <code>set</code> that are not done or failed
+     */
+    int countOpen( final ComparisonSet set );
+    
+    /**
+     * @return the error of a failed job of <code>set</code>, or null if none failed
+     */
+    String findFailure( final ComparisonSet set );
+    
+    /**
+     * Remove all jobs of <code>set</code>
+     */
+    void delete( final ComparisonSet set );
+}
@@ -0,0 +1,27 @@
+package org.juxtasoftware.dao;
+
+import org.juxtasoftware.model.PairResult;
+
+/**
+ * Data access object for the completed witness pairs that can be
+ * copied between comparison sets
+ */
+public interface PairResultDao {
+    
+    /**
+     * Record a completed pair
+     * @param result
+     */
+    void create( final PairResult result );
+    
+    /**
+     * Find a completed pair of texts with the given hashes, in either order,
+     * that was collated with the same settings
+     * 
+     * @param configKey
+     * @param hashA
+     * @param hashB
+     * @return A matching pair of a set that is not deleted, or null
+     */
+    PairResult find( final String configKey, final String hashA, final String hashB );
+}
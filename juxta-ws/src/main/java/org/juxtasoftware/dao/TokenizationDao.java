@@ -0,0 +1,60 @@
+package org.juxtasoftware.dao;
+
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+
+/**
+ * Data access object for the witness level tokenizations that
+ * are shared by comparison sets
+ */
+public interface TokenizationDao {
+    
+    /**
+     * Create an empty, incomplete tokenization
+     * @param tokenization
+     * @return The new tokenization ID
+     */
+    Long create( Tokenization tokenization );
+    
+    /**
+     * Find the tokenization of the current text of <code>witness</code>
+     * 
+     * @param witness
+     * @param joinLinebreaks Join words hyphenated across linebreaks
+     * @return The tokenization or null if the witness has not been tokenized this way
+     */
+    Tokenization find( final Witness witness, final boolean joinLinebreaks );
+    
+    /**
+     * Like {@link #find(Witness, boolean)}, but lock the tokenization, or the slot 
+     * for it if there is none, until the current transaction ends. Waits for a 
+     * transaction that is writing the same tokenization on another node.
+     * 
+     * @param witness
+     * @param joinLinebreaks Join words hyphenated across linebreaks
+     * @return The tokenization or null if the witness has not been tokenized this way
+     */
+    Tokenization lock( final Witness witness, final boolean joinLinebreaks );
+    
+    /**
+     * Find a tokenization by ID and optionally include its token boundaries
+     * 
+     * @param id
+     * @param includeBoundaries
+     * @return The tokenization or null if there is none
+     */
+    Tokenization find( final Long id, final boolean includeBoundaries );
+    
+    /**
+     * Record the tokenized length, content hash and token boundaries of 
+     * <code>tokenization</code> and flag it as complete
+     * @param tokenization
+     */
+    void complete( Tokenization tokenization );
+    
+    /**
+     * Delete a tokenization and all of its tokens
+     * @param tokenization
+     */
+    void delete( Tokenization tokenization );
+}
@@ -11,10 +11,13 @@ import java.util.Set;
 import org.juxtasoftware.dao.ComparisonSetDao;
 import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.CollatorConfig;
+import org.juxtasoftware.model.CollatorConfig.CollationMode;
+import org.juxtasoftware.model.CollatorConfig.DiffAlgorithm;
 import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.ComparisonSet.Status;
 import org.juxtasoftware.model.ResourceInfo;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.Usage;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.model.Workspace;
@@ -28,6 +31,8 @@ import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 
+import com.google.common.base.Objects;
+
 /**
  * @author <a href="http://gregor.middell.net/" title="Homepage">Gregor Middell</a>
  */
@@ -46,6 +51,8 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
     private static final String CFG_TABLE = "juxta_collator_config";
     private static final String SET_MEMBER_TABLE = "juxta_comparison_set_member";
     private static final String NOTE_TABLE = "juxta_comparison_note";
+    private static final String PROGRESS_TABLE = "juxta_collation_progress";
+    private static final String PAIR_RESULT_TABLE = "juxta_pair_result";
 
     public ComparisionSetDaoImpl() {
         super("juxta_comparison_set");
@@ -91,11 +98,27 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
   
         // clear alignments, annotations and cached visualization data
         this.cacheDao.deleteAll(set.getId());
+        this.jt.update("update "+SET_MEMBER_TABLE+" set collated=? where set_id=?", false, set.getId());
+        this.jt.update("delete from "+PROGRESS_TABLE+" where set_id=?", set.getId());
+        this.jt.update("delete from "+PAIR_RESULT_TABLE+" where set_id=?", set.getId());
 
+        // Tokens belong to the witnesses and are kept for other sets, so 
+        // alignments between them do not cascade delete with the set annotations
+        final int maxDel = 5000;
+        while ( true ) {
+            final String sql = "delete from juxta_alignment where set_id=? and manual=? order by id limit "+maxDel;
+            int cnt = this.jt.update(sql, set.getId(), 0);
+            if (cnt < maxDel ) {
+                break;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {}
+        }
+        
         while ( true ) {
-            // NOTE: the alignments will cascade delete with the annotations
+            // NOTE: the remaining alignments will cascade delete with the annotations
             // Also note: don't delete the manually created annotations
-            final int maxDel = 5000;
             final String sql = "delete from juxta_annotation where set_id=? and manual=? order by id limit "+maxDel;
             int cnt = this.jt.update(sql, set.getId(), 0);
             if (cnt < maxDel ) {
@@ -107,12 +130,168 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
         }
     }
     
+    @Override
+    public void clearCollationData(final ComparisonSet set, final Witness witness) {
+        clearCollationData(set, witness, getTokenizationId(set, witness));
+    }
+    
+    /**
+     * Clear the collation data of the pairs of <code>set</code> that include <code>witness</code>,
+     * whose tokens in this set are those of <code>tokenizationId</code>. The ID is passed in 
+     * because the member row that holds it is gone once the witness is removed from the set.
+     */
+    private void clearCollationData(final ComparisonSet set, final Witness witness, final Long tokenizationId) {
+        this.cacheDao.deleteAll(set.getId());
+        this.jt.update("update "+SET_MEMBER_TABLE+" set collated=? where set_id=? and witness_id=?", 
+            false, set.getId(), witness.getId());
+        this.jt.update("delete from "+PROGRESS_TABLE+" where set_id=? and (witness_a_id=? or witness_b_id=?)", 
+            set.getId(), witness.getId(), witness.getId());
+        this.jt.update("delete from "+PAIR_RESULT_TABLE+" where set_id=? and (base_id=? or witness_id=?)", 
+            set.getId(), witness.getId(), witness.getId());
+        
+        // only the alignments of pairs that include this witness go. Token 
+        // annotations are shared, so they are matched by the tokenization of the set
+        final String sql = "select al.id from juxta_alignment al"
+            + " inner join juxta_annotation a on a.id=al.annotation_a_id"
+            + " inner join juxta_annotation b on b.id=al.annotation_b_id"
+            + " where al.set_id=? and al.manual=? and (" + annotationOf("a") + " or " + annotationOf("b") + ")";
+        deleteAlignments(sql, set.getId(), 0, 
+            tokenizationId, set.getId(), witness.getId(), tokenizationId, set.getId(), witness.getId());
+        
+        // the gaps those alignments pointed to, in this witness and its partners,
+        // are no longer referenced
+        deleteUnalignedGaps(set);
+        
+        // views may have been rebuilt while the alignments were going
+        this.cacheDao.deleteAll(set.getId());
+    }
+    
+    @Override
+    public void clearCollationData(final ComparisonSet set, final Witness base, final Witness witness) {
+        this.jt.update("delete from "+PROGRESS_TABLE+" where set_id=? and witness_a_id=? and witness_b_id=?", 
+            set.getId(), Math.min(base.getId(), witness.getId()), Math.max(base.getId(), witness.getId()));
+        this.jt.update("delete from "+PAIR_RESULT_TABLE+" where set_id=? and ((base_id=? and witness_id=?) or (base_id=? and witness_id=?))", 
+            set.getId(), base.getId(), witness.getId(), witness.getId(), base.getId());
+        
+        // either witness may have been the base when the pair was collated
+        final Long baseTokens = getTokenizationId(set, base);
+        final Long witnessTokens = getTokenizationId(set, witness);
+        final String sql = "select al.id from juxta_alignment al"
+            + " inner join juxta_annotation a on a.id=al.annotation_a_id"
+            + " inner join juxta_annotation b on b.id=al.annotation_b_id"
+            + " where al.set_id=? and al.manual=? and ("
+            + "(" + annotationOf("a") + " and " + annotationOf("b") + ") or "
+            + "(" + annotationOf("a") + " and " + annotationOf("b") + "))";
+        int cnt = deleteAlignments(sql, set.getId(), 0,
+            baseTokens, set.getId(), base.getId(), witnessTokens, set.getId(), witness.getId(),
+            witnessTokens, set.getId(), witness.getId(), baseTokens, set.getId(), base.getId());
+        if ( cnt > 0 ) {
+            deleteUnalignedGaps(set);
+        }
+    }
+    
+    /**
+     * Condition on the annotation <code>alias</code> that matches the tokens of a
+     * tokenization and the gaps of a witness in a set, in that parameter order
+     */
+    private static String annotationOf( final String alias ) {
+        return "(" + alias + ".tokenization_id=? or (" + alias + ".set_id=? and " + alias + ".witness_id=?))";
+    }
+    
+    @Override
+    public Long getTokenizationId( final ComparisonSet set, final Witness witness ) {
+        final String sql = "select tokenization_id from "+SET_MEMBER_TABLE+" where set_id=? and witness_id=?";
+        return DataAccessUtils.singleResult( this.jt.queryForList(sql, Long.class, set.getId(), witness.getId()) );
+    }
+    
+    /**
+     * Delete the alignments whose IDs are selected by <code>sql</code>, in batches
+     * so the table is not locked for long
+     * 
+     * @return The number of alignments deleted
+     */
+    private int deleteAlignments( final String sql, final Object... args ) {
+        final int maxDel = 5000;
+        int total = 0;
+        while ( true ) {
+            final List<Long> ids = this.jt.queryForList(sql + " limit " + maxDel, Long.class, args);
+            if ( ids.isEmpty() ) {
+                break;
+            }
+            final StringBuilder idList = new StringBuilder();
+            for ( Long id : ids ) {
+                if ( idList.length() > 0 ) {
+                    idList.append(",");
+                }
+                idList.append(id);
+            }
+            total += this.jt.update("delete from juxta_alignment where id in (" + idList + ")");
+            if ( ids.size() < maxDel ) {
+                break;
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {}
+        }
+        return total;
+    }
+    
+    /**
+     * Delete the generated gap annotations of <code>set</code> that no alignment 
+     * refers to. Gaps are the only zero length annotations.
+     */
+    private void deleteUnalignedGaps(final ComparisonSet set) {
+        final String sql = "delete from juxta_annotation where set_id=? and manual=? and range_start=range_end" 
+            + " and id not in (select annotation_a_id from juxta_alignment where set_id=?)"
+            + " and id not in (select annotation_b_id from juxta_alignment where set_id=?)";
+        this.jt.update(sql, set.getId(), 0, set.getId(), set.getId());
+    }
+    
+    @Override
+    public boolean isCollated(ComparisonSet set, Witness witness) {
+        final String sql = "select count(*) as cnt from " + SET_MEMBER_TABLE + 
+            " where set_id = ? and witness_id=? and collated=?";
+        int cnt = this.jt.queryForInt(sql,  set.getId(), witness.getId(), true);
+        return (cnt > 0);
+    }
+    
+    @Override
+    public void markCollated(ComparisonSet set) {
+        final String sql = "update "+SET_MEMBER_TABLE+" set collated=? where set_id=?";
+        this.jt.update(sql, true, set.getId());
+        
+        // the member flags cover all pairs now
+        this.jt.update("delete from "+PROGRESS_TABLE+" where set_id=?", set.getId());
+    }
+    
+    @Override
+    public boolean isCollated(ComparisonSet set, Witness base, Witness witness) {
+        final String sql = "select count(*) as cnt from " + PROGRESS_TABLE + 
+            " where set_id = ? and witness_a_id=? and witness_b_id=?";
+        int cnt = this.jt.queryForInt(sql,  set.getId(), 
+            Math.min(base.getId(), witness.getId()), Math.max(base.getId(), witness.getId()));
+        return (cnt > 0);
+    }
+    
+    @Override
+    public void markCollated(ComparisonSet set, Witness base, Witness witness) {
+        final String sql = "insert into "+PROGRESS_TABLE+" (set_id, witness_a_id, witness_b_id) values (?,?,?)";
+        this.jt.update(sql, set.getId(), 
+            Math.min(base.getId(), witness.getId()), Math.max(base.getId(), witness.getId()));
+    }
+    
     @Override
     public void setTokenzedLength(ComparisonSet set, Witness witness, long tokenizedLength) {
         final String sql = "update "+SET_MEMBER_TABLE+" set tokenized_length=? where set_id=? and witness_id=?";
         this.jt.update(sql, tokenizedLength, set.getId(), witness.getId());
     }
     
+    @Override
+    public void setTokenization(ComparisonSet set, Witness witness, Tokenization tokenization) {
+        final String sql = "update "+SET_MEMBER_TABLE+" set tokenized_length=?, tokenization_id=? where set_id=? and witness_id=?";
+        this.jt.update(sql, tokenization.getTokenizedLength(), tokenization.getId(), set.getId(), witness.getId());
+    }
+    
     @Override
     public long getTokenzedLength(ComparisonSet set, Witness witness) {
         final String sql = "select tokenized_length from "+SET_MEMBER_TABLE+" where set_id=? and witness_id=?";
@@ -165,7 +344,13 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
     @Override
     public void addWitnesses( final ComparisonSet set, final Set<Witness> witnesses) {
         if ( witnesses.size() > 0 ) {
-            clearCollationData( set );
+            // Alignments between the current members stay. The new members 
+            // are not collated, so the next collation only does their pairs
+            if ( set.getStatus().equals(Status.DELETED) == false ) {
+                set.setStatus(ComparisonSet.Status.NOT_COLLATED);
+                update(set);
+            }
+            this.cacheDao.deleteAll(set.getId());
             
             final long setId = set.getId();
             final List<SqlParameterSource> batch = new ArrayList<SqlParameterSource>(
@@ -209,15 +394,17 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
         // delete witness and update time. These happen quickly.
         // Clearing of collation data can be LONG. put it in a worker
         final String sql = "delete from "+SET_MEMBER_TABLE+" where set_id=? and witness_id=?";
+        final Long tokenizationId = getTokenizationId(set, witness);
         this.jt.update(sql, set.getId(), witness.getId() );
         updateLastUpdatedTime( set );
-        set.setStatus(Status.NOT_COLLATED);
-        update( set );
+        this.cacheDao.deleteAll(set.getId());
         
+        // The pairs of the remaining witnesses are unaffected, so a collated
+        // set stays collated. Only the alignments involving this witness go
         this.taskExecutor.execute(new Runnable() {
             @Override
             public void run() {
-                clearCollationData(set); 
+                clearCollationData(set, witness, tokenizationId); 
             }
         });
     }
@@ -290,18 +477,41 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
     
     @Override
     public void updateCollatorConfig( final ComparisonSet set, final CollatorConfig cfg ) {
+        // pairs collated with other settings can not be kept. Only the flags are reset
+        // here; with no member collated, the next collation clears the old data
+        final CollatorConfig prior = getCollatorConfig(set);
+        if ( prior != null && sameSettings(prior, cfg) == false ) {
+            this.jt.update("update "+SET_MEMBER_TABLE+" set collated=? where set_id=?", false, set.getId());
+            this.jt.update("delete from "+PROGRESS_TABLE+" where set_id=?", set.getId());
+        }
+        
         final String sql = "delete from "+CFG_TABLE+" where set_id=?";
         this.jt.update(sql, set.getId());
         createCollatorConfig(set.getId(), cfg);
         updateLastUpdatedTime( set );
     }
     
+    private boolean sameSettings( final CollatorConfig a, final CollatorConfig b ) {
+        return a.isFilterCase() == b.isFilterCase()
+            && a.isFilterPunctuation() == b.isFilterPunctuation()
+            && a.isFilterWhitespace() == b.isFilterWhitespace()
+            && a.getHyphenationFilter() == b.getHyphenationFilter()
+            && a.getDiffAlgorithm() == b.getDiffAlgorithm()
+            && a.getCollationMode() == b.getCollationMode()
+            && a.isSegmented() == b.isSegmented()
+            && (a.getCollationMode() != CollationMode.BASE || Objects.equal(a.getBaseWitnessId(), b.getBaseWitnessId()));
+    }
+    
     private void createCollatorConfig( final Long setId, final CollatorConfig cfg ) {
         final MapSqlParameterSource ps = new MapSqlParameterSource();
         ps.addValue("filter_case", cfg.isFilterCase() );
         ps.addValue("filter_punctuation", cfg.isFilterPunctuation() );
         ps.addValue("filter_whitespace", cfg.isFilterWhitespace() );
         ps.addValue("hyphenation_filter", cfg.getHyphenationFilter().toString() );
+        ps.addValue("diff_algorithm", cfg.getDiffAlgorithm().toString() );
+        ps.addValue("collation_mode", cfg.getCollationMode().toString() );
+        ps.addValue("base_witness_id", cfg.getBaseWitnessId() );
+        ps.addValue("segmented", cfg.isSegmented() );
         ps.addValue("set_id", setId);
         this.configInsert.execute( ps );
     }
@@ -339,6 +549,11 @@ public class ComparisionSetDaoImpl extends JuxtaDaoImpl<ComparisonSet> implement
             cfg.setFilterPunctuation( rs.getBoolean("filter_punctuation") );
             cfg.setFilterWhitespace( rs.getBoolean("filter_whitespace") );
             cfg.setHyphenationFilter( HyphenationFilter.valueOf(rs.getString("hyphenation_filter")) );
+            cfg.setDiffAlgorithm( DiffAlgorithm.valueOf(rs.getString("diff_algorithm")) );
+            cfg.setCollationMode( CollationMode.valueOf(rs.getString("collation_mode")) );
+            final long baseId = rs.getLong("base_witness_id");
+            cfg.setBaseWitnessId( rs.wasNull() ? null : baseId );
+            cfg.setSegmented( rs.getBoolean("segmented") );
             return cfg;
         }
     }
@@ -2,26 +2,45 @@ package org.juxtasoftware.dao.impl;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.Set;
 
+import org.juxtasoftware.Constants;
 import org.juxtasoftware.dao.JuxtaAnnotationDao;
+import org.juxtasoftware.dao.TokenizationDao;
 import org.juxtasoftware.model.AnnotationConstraint;
 import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.QNameFilter;
+import org.juxtasoftware.model.TokenBoundaries;
+import org.juxtasoftware.model.Tokenization;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 
+import eu.interedition.text.Name;
+import eu.interedition.text.NameRepository;
 import eu.interedition.text.Range;
 import eu.interedition.text.mem.SimpleName;
 import eu.interedition.text.rdbms.RelationalName;
@@ -33,6 +52,8 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
     private final String tableName = "juxta_annotation";
     private SimpleJdbcInsert insert;
     @Autowired private JdbcTemplate jdbcTemplate;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private NameRepository qnameRepo;
     
     @Override
     public void afterPropertiesSet() throws Exception {
@@ -44,36 +65,67 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
         if ( annotations.isEmpty() ) {
             return 0;
         }
-        StringBuilder sql = new StringBuilder();
+        final StringBuilder sql = new StringBuilder();
         sql.append("insert into ").append(tableName);
-        sql.append(" (set_id, witness_id, text_id, qname_id, range_start, range_end, manual)");
-        sql.append(" values (?,?,?,?,?,?,?)");
-        int[] rowsAffected = this.jdbcTemplate.batchUpdate(sql.toString(), new BatchPreparedStatementSetter() {
-
-                @Override
-                public void setValues(PreparedStatement ps, int i) throws SQLException {
-                    ps.setLong(1, annotations.get(i).getSetId());
-                    ps.setLong(2, annotations.get(i).getWitnessId());
-                    ps.setLong(3, ((RelationalText)annotations.get(i).getText()).getId());
-                    ps.setLong(4, ((RelationalName)annotations.get(i).getName()).getId());
-                    ps.setLong(5, annotations.get(i).getRange().getStart());
-                    ps.setLong(6, annotations.get(i).getRange().getEnd());
-                    ps.setBoolean(7, annotations.get(i).isManual());
-                }
+        sql.append(" (set_id, tokenization_id, witness_id, text_id, qname_id, range_start, range_end, manual)");
+        sql.append(" values (?,?,?,?,?,?,?,?)");
+        return this.jdbcTemplate.execute(new PreparedStatementCreator() {
+            
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                return con.prepareStatement(sql.toString(), Statement.RETURN_GENERATED_KEYS);
+            }
+            
+        }, new PreparedStatementCallback<Integer>() {
 
-                @Override
-                public int getBatchSize() {
-                    return annotations.size();
+            @Override
+            public Integer doInPreparedStatement(PreparedStatement ps) throws SQLException {
+                for ( JuxtaAnnotation annotation : annotations ) {
+                    setNullableLong(ps, 1, annotation.getSetId());
+                    setNullableLong(ps, 2, annotation.getTokenizationId());
+                    ps.setLong(3, annotation.getWitnessId());
+                    ps.setLong(4, ((RelationalText)annotation.getText()).getId());
+                    ps.setLong(5, ((RelationalName)annotation.getName()).getId());
+                    ps.setLong(6, annotation.getRange().getStart());
+                    ps.setLong(7, annotation.getRange().getEnd());
+                    ps.setBoolean(8, annotation.isManual());
+                    ps.addBatch();
                 }
+                final int[] rowsAffected = ps.executeBatch();
                 
-            } );
-        return rowsAffected.length;
+                // the batch is sent as one multi-row insert, whose keys come
+                // back in the order of its rows
+                final ResultSet keys = ps.getGeneratedKeys();
+                int count = 0;
+                try {
+                    while ( keys.next() && count < annotations.size() ) {
+                        annotations.get(count++).setId( keys.getLong(1) );
+                    }
+                } finally {
+                    keys.close();
+                }
+                if ( count != annotations.size() ) {
+                    throw new IncorrectResultSizeDataAccessException("Generated keys of annotations", 
+                        annotations.size(), count);
+                }
+                return rowsAffected.length;
+            }
+        });
+    }
+    
+    private static void setNullableLong(PreparedStatement ps, int index, Long value) throws SQLException {
+        if ( value == null ) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, value);
+        }
     }
     
     @Override
     public Long create(JuxtaAnnotation annotation) {
         final MapSqlParameterSource ps = new MapSqlParameterSource();
         ps.addValue("set_id", annotation.getSetId());
+        ps.addValue("tokenization_id", annotation.getTokenizationId());
         ps.addValue("witness_id", annotation.getWitnessId());
         ps.addValue("text_id", ((RelationalText)annotation.getText()).getId());
         ps.addValue("qname_id", ((RelationalName)annotation.getName()).getId());
@@ -83,6 +135,86 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
         return (Long)this.insert.executeAndReturnKey( ps );
     }
     
+    @Override
+    public Map<Range, Long> createTokens(final Tokenization tokenization, final Collection<Range> ranges) {
+        final Map<Range, Long> ids = new HashMap<Range, Long>();
+        if ( ranges.isEmpty() ) {
+            return ids;
+        }
+        long from = Long.MAX_VALUE;
+        long to = Long.MIN_VALUE;
+        for ( Range r : ranges ) {
+            from = Math.min(from, r.getStart());
+            to = Math.max(to, r.getStart());
+        }
+        
+        Map<Range, Long> stored = findTokenIds(tokenization.getId(), from, to, false);
+        // inserted in order of their offsets, so collations storing tokens of the
+        // same tokenization lock its keys in the same order
+        final List<Range> missing = new ArrayList<Range>();
+        for ( Range r : new TreeSet<Range>(ranges) ) {
+            if ( stored.containsKey(r) == false ) {
+                missing.add(r);
+            }
+        }
+        if ( missing.isEmpty() == false ) {
+            // another collation may store the same tokens at the same time;
+            // the unique key on the token ranges keeps one record of each
+            final String sql = "insert ignore into " + this.tableName
+                + " (tokenization_id, witness_id, text_id, qname_id, range_start, range_end) values (?,?,?,?,?,?)";
+            final long qnameId = ((RelationalName)this.qnameRepo.get(Constants.TOKEN_NAME)).getId();
+            this.jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setLong(1, tokenization.getId());
+                    ps.setLong(2, tokenization.getWitnessId());
+                    ps.setLong(3, tokenization.getTextId());
+                    ps.setLong(4, qnameId);
+                    ps.setLong(5, missing.get(i).getStart());
+                    ps.setLong(6, missing.get(i).getEnd());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return missing.size();
+                }
+            });
+            
+            // tokens committed by others since this transaction began are not in its 
+            // snapshot; a locking read sees them
+            stored = findTokenIds(tokenization.getId(), from, to, true);
+        }
+        
+        for ( Range r : ranges ) {
+            final Long id = stored.get(r);
+            if ( id == null ) {
+                throw new IllegalStateException("No token at " + r + " of " + tokenization);
+            }
+            ids.put(r, id);
+        }
+        return ids;
+    }
+    
+    /**
+     * Get the IDs of the stored tokens of a tokenization that start within <code>from</code> 
+     * and <code>to</code>, by range. A <code>locking</code> read sees the latest committed
+     * tokens rather than those of the transaction's snapshot.
+     */
+    private Map<Range, Long> findTokenIds(final Long tokenizationId, final long from, final long to, final boolean locking) {
+        String sql = "select id, range_start, range_end from " + this.tableName 
+            + " where tokenization_id=? and range_start >= ? and range_start <= ?";
+        if ( locking ) {
+            sql += " lock in share mode";
+        }
+        final Map<Range, Long> ids = new HashMap<Range, Long>();
+        for ( Map<String, Object> row : this.jdbcTemplate.queryForList(sql, tokenizationId, from, to) ) {
+            ids.put( new Range(((Number)row.get("range_start")).longValue(), ((Number)row.get("range_end")).longValue()), 
+                ((Number)row.get("id")).longValue() );
+        }
+        return ids;
+    }
+    
     @Override
     public void delete(JuxtaAnnotation annotation) {
         final String sql = "delete from " + this.tableName + " where id=?";
@@ -90,12 +222,16 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
     }
 
     @Override
-    public long findNextTokenStart(final Long witnessId, final long fromPos) {
+    public long findNextTokenStart(final Tokenization tokenization, final long fromPos) {
+        if ( tokenization.getBoundaries() != null ) {
+            return tokenization.getBoundaries().findNextStart(fromPos);
+        }
+        
         final String sql = 
             "select range_start from juxta_annotation" +
-            " where witness_id=? and range_start > ?  order by range_start asc limit 1";
+            " where tokenization_id=? and range_start > ?  order by range_start asc limit 1";
         try {
-            long pos = this.jdbcTemplate.queryForLong(sql, witnessId, fromPos);
+            long pos = this.jdbcTemplate.queryForLong(sql, tokenization.getId(), fromPos);
             return pos;
         } catch (Exception e) {
             return -1;
@@ -103,12 +239,16 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
     }
     
     @Override
-    public long findPriorTokenEnd(final Long witnessId, final long fromPos) {
+    public long findPriorTokenEnd(final Tokenization tokenization, final long fromPos) {
+        if ( tokenization.getBoundaries() != null ) {
+            return tokenization.getBoundaries().findPriorEnd(fromPos);
+        }
+        
         final String sql = 
             "select range_end from juxta_annotation" +
-            " where witness_id=? and range_end < ? order by range_end desc limit 1";
+            " where tokenization_id=? and range_end < ? order by range_end desc limit 1";
         try {
-            return this.jdbcTemplate.queryForLong(sql, witnessId, fromPos);
+            return this.jdbcTemplate.queryForLong(sql, tokenization.getId(), fromPos);
         } catch (Exception e) {
             return fromPos;
         }
@@ -132,9 +272,30 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
     @Override
     public List<JuxtaAnnotation> list( final AnnotationConstraint constraint) {
         StringBuilder sql = new StringBuilder( getSql() );
-        sql.append(" where");
-        sql.append(" t.id = ? and a.set_id = ?");
-        List<JuxtaAnnotation> annotations = null;
+        List<Object> args = new ArrayList<Object>();
+        sql.append(" where t.id = ?");
+        args.add( constraint.getTextId() );
+        
+        // tokens belong to a witness tokenization; all else to the set
+        Long tokenizationId = constraint.getTokenizationId();
+        if ( tokenizationId == null && constraint.getSetId() != null ) {
+            tokenizationId = findSetTokenization(constraint.getSetId(), constraint.getTextId());
+        }
+        if ( constraint.getSetId() == null ) {
+            sql.append(" and a.tokenization_id = ?");
+            args.add( tokenizationId );
+        } else if ( tokenizationId == null ) {
+            sql.append(" and a.set_id = ?");
+            args.add( constraint.getSetId() );
+        } else {
+            // generated tokens stored with the set before it was tokenized per witness
+            // are superseded by the tokenization
+            sql.append(" and (a.tokenization_id = ? or (a.set_id = ? and (a.manual = ? or a.qname_id != ?)))");
+            args.add( tokenizationId );
+            args.add( constraint.getSetId() );
+            args.add( true );
+            args.add( ((RelationalName)this.qnameRepo.get(Constants.TOKEN_NAME)).getId() );
+        }
         
         if ( constraint.getFilter() != null ) {
             sql.append(" and q.id in (");
@@ -157,21 +318,18 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
                 cnt++;
             }
             if ( constraint.getRanges().size() > 1 ) {
-                sql.append(") order by a.range_start asc");
-            } else {
-                sql.append(" order by a.range_start asc");
+                sql.append(")");
+            }
+        }
+        sql.append(" order by a.range_start asc");
+        List<JuxtaAnnotation> annotations = this.jdbcTemplate.query(sql.toString(), new AnnotationMapper(), args.toArray());
+        
+        // tokens that are not stored are decoded from the token boundaries
+        if ( tokenizationId != null && includesTokens(constraint.getFilter()) ) {
+            final Tokenization tokenization = this.tokenizationDao.find(tokenizationId, true);
+            if ( tokenization != null && tokenization.getBoundaries() != null ) {
+                annotations = mergeTokens(annotations, tokenization, constraint);
             }
-
-            annotations = this.jdbcTemplate.query(sql.toString(), 
-                new AnnotationMapper(), 
-                constraint.getTextId(), constraint.getSetId() );
-        } else {
-
-            sql.append(" order by a.range_start asc");
-            
-            annotations = this.jdbcTemplate.query(sql.toString(), 
-                new AnnotationMapper(), 
-                constraint.getTextId(), constraint.getSetId() );
         }
         
         // pull token content for all from the witness text
@@ -182,6 +340,82 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
         return annotations;
     }
     
+    private boolean includesTokens(final QNameFilter filter) {
+        if ( filter == null ) {
+            return true;
+        }
+        final Long tokenNameId = ((RelationalName)this.qnameRepo.get(Constants.TOKEN_NAME)).getId();
+        for ( Name qname : filter.getQNames() ) {
+            if ( tokenNameId.equals(((RelationalName)qname).getId()) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Merge the tokens of <code>tokenization</code> that meet the range constraints
+     * into the annotations read from the db, in text order. Stored tokens 
+     * keep their ID.
+     */
+    private List<JuxtaAnnotation> mergeTokens(List<JuxtaAnnotation> annotations, Tokenization tokenization, 
+        AnnotationConstraint constraint) {
+        final Map<Range, JuxtaAnnotation> stored = new HashMap<Range, JuxtaAnnotation>();
+        final List<JuxtaAnnotation> others = new ArrayList<JuxtaAnnotation>();
+        for ( JuxtaAnnotation a : annotations ) {
+            if ( tokenization.getId().equals(a.getTokenizationId()) ) {
+                stored.put(a.getRange(), a);
+            } else {
+                others.add(a);
+            }
+        }
+        
+        final Set<Range> ranges = constraint.getRanges();
+        long last = Long.MAX_VALUE;
+        if ( ranges.isEmpty() == false ) {
+            last = 0;
+            for ( Range r : ranges ) {
+                last = Math.max(last, r.getEnd());
+            }
+        }
+        
+        final List<JuxtaAnnotation> merged = new ArrayList<JuxtaAnnotation>();
+        int next = 0;
+        final TokenBoundaries.Cursor cursor = tokenization.getBoundaries().cursor();
+        while ( cursor.next() && cursor.getEnd() <= last ) {
+            if ( isInRanges(cursor.getStart(), cursor.getEnd(), ranges) == false ) {
+                continue;
+            }
+            while ( next < others.size() && others.get(next).getRange().getStart() <= cursor.getStart() ) {
+                merged.add( others.get(next++) );
+            }
+            final Range range = new Range(cursor.getStart(), cursor.getEnd());
+            JuxtaAnnotation token = stored.get(range);
+            if ( token == null ) {
+                token = new JuxtaAnnotation(null, null, tokenization.getWitnessId(), constraint.getText(), 
+                    Constants.TOKEN_NAME, range);
+                token.setTokenizationId(tokenization.getId());
+            }
+            merged.add(token);
+        }
+        while ( next < others.size() ) {
+            merged.add( others.get(next++) );
+        }
+        return merged;
+    }
+    
+    private static boolean isInRanges(long start, long end, Set<Range> ranges) {
+        if ( ranges.isEmpty() ) {
+            return true;
+        }
+        for ( Range r : ranges ) {
+            if ( start >= r.getStart() && end <= r.getEnd() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
     private void readTokenContent(Long textId, List<JuxtaAnnotation> annotations) {
         try {
             if ( annotations.size() == 0) {
@@ -248,9 +482,20 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
         }
     }
     
+    /**
+     * Get the ID of the tokenization used for the witness with text <code>textId</code> in a set
+     */
+    private Long findSetTokenization(final Long setId, final Long textId) {
+        final String sql = 
+            "select m.tokenization_id from juxta_comparison_set_member m" +
+            " inner join juxta_witness w on w.id = m.witness_id" +
+            " where m.set_id=? and w.text_id=? and m.tokenization_id is not null";
+        return DataAccessUtils.singleResult( this.jdbcTemplate.queryForList(sql, Long.class, setId, textId) );
+    }
+    
     private String getSql() {
         StringBuilder sql = new StringBuilder();
-        sql.append("select a.id, a.set_id, a.witness_id, a.text_id, a.qname_id, a.range_start, a.range_end, ");
+        sql.append("select a.id, a.set_id, a.tokenization_id, a.witness_id, a.text_id, a.qname_id, a.range_start, a.range_end, ");
         sql.append(RelationalTextRepository.selectTextFrom("t"));
         sql.append(", q.id, q.local_name, q.namespace ");
         sql.append(" from ").append(this.tableName).append(" as a");
@@ -266,14 +511,22 @@ public class JuxtaAnnotationDaoImpl implements JuxtaAnnotationDao, InitializingB
      */
     private static class AnnotationMapper implements RowMapper<JuxtaAnnotation> {
         public JuxtaAnnotation mapRow(ResultSet rs, int rowNum) throws SQLException {
+            Long setId = rs.getLong("set_id");
+            if ( rs.wasNull() ) {
+                setId = null;
+            }
             final JuxtaAnnotation annotation = new JuxtaAnnotation(
                 rs.getLong("id"),
-                rs.getLong("set_id"),
+                setId,
                 rs.getLong("witness_id"),
                 RelationalTextRepository.mapTextFrom(rs, "t"),
                 new SimpleName(rs.getString("namespace"), rs.getString("local_name")),
                 new Range(rs.getInt("range_start"), rs.getInt("range_end"))
             );
+            final long tokenizationId = rs.getLong("tokenization_id");
+            if ( rs.wasNull() == false ) {
+                annotation.setTokenizationId(tokenizationId);
+            }
             return annotation;
         }
     }
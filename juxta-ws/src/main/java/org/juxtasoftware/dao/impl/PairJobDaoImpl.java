@@ -0,0 +1,118 @@
+package org.juxtasoftware.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.juxtasoftware.dao.PairJobDao;
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.PairJob;
+import org.juxtasoftware.model.Witness;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Leases are taken with a single conditional update, so two nodes can 
+ * never hold the lease on one job. The database clock decides when 
+ * a lease expires.
+ */
+@Repository
+public class PairJobDaoImpl implements PairJobDao {
+    private static final String TABLE_NAME = "juxta_pair_job";
+    @Autowired private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void create(ComparisonSet set, Witness base, Witness witness) {
+        final String sql = "insert into " + TABLE_NAME + " (set_id, base_id, witness_id) values (?,?,?)";
+        this.jdbcTemplate.update(sql, set.getId(), base.getId(), witness.getId());
+    }
+
+    @Override
+    public PairJob lease(Long setId, int leaseSeconds, int maxAttempts) {
+        // jobs whose lease keeps running out take their nodes down; stop trying them
+        this.jdbcTemplate.update("update " + TABLE_NAME + " set failed=?, error=?"
+            + " where failed=? and lease_expires < now() and attempts >= ?", 
+            true, "Lease expired " + maxAttempts + " times", false, maxAttempts);
+        
+        final String token = UUID.randomUUID().toString();
+        final List<Object> args = new ArrayList<Object>();
+        args.add(token);
+        args.add(leaseSeconds);
+        args.add(false);
+        String sql = "update " + TABLE_NAME 
+            + " set lease_token=?, lease_expires=date_add(now(), interval ? second), attempts=attempts+1"
+            + " where failed=? and (lease_expires is null or lease_expires < now())";
+        if ( setId != null ) {
+            sql += " and set_id=?";
+            args.add(setId);
+        }
+        sql += " order by id limit 1";
+        if ( this.jdbcTemplate.update(sql, args.toArray()) == 0 ) {
+            return null;
+        }
+        
+        final String select = "select id, set_id, base_id, witness_id, lease_token, attempts from " 
+            + TABLE_NAME + " where lease_token=?";
+        return DataAccessUtils.singleResult( this.jdbcTemplate.query(select, new RowMapper<PairJob>() {
+            @Override
+            public PairJob mapRow(ResultSet rs, int rowNum) throws SQLException {
+                PairJob job = new PairJob();
+                job.setId( rs.getLong("id") );
+                job.setSetId( rs.getLong("set_id") );
+                job.setBaseId( rs.getLong("base_id") );
+                job.setWitnessId( rs.getLong("witness_id") );
+                job.setLeaseToken( rs.getString("lease_token") );
+                job.setAttempts( rs.getInt("attempts") );
+                return job;
+            }
+        }, token) );
+    }
+
+    @Override
+    public boolean renew(PairJob job, int leaseSeconds) {
+        final String sql = "update " + TABLE_NAME 
+            + " set lease_expires=date_add(now(), interval ? second) where id=? and lease_token=?";
+        return ( this.jdbcTemplate.update(sql, leaseSeconds, job.getId(), job.getLeaseToken()) == 1 );
+    }
+
+    @Override
+    public boolean lock(PairJob job) {
+        final String sql = "select count(*) from " + TABLE_NAME + " where id=? and lease_token=? for update";
+        return ( this.jdbcTemplate.queryForInt(sql, job.getId(), job.getLeaseToken()) == 1 );
+    }
+
+    @Override
+    public boolean complete(PairJob job) {
+        final String sql = "delete from " + TABLE_NAME + " where id=? and lease_token=?";
+        return ( this.jdbcTemplate.update(sql, job.getId(), job.getLeaseToken()) == 1 );
+    }
+
+    @Override
+    public void release(PairJob job, String error, int maxAttempts) {
+        final String sql = "update " + TABLE_NAME 
+            + " set lease_token=null, lease_expires=null, error=?, failed=(attempts >= ?) where id=? and lease_token=?";
+        this.jdbcTemplate.update(sql, error, maxAttempts, job.getId(), job.getLeaseToken());
+    }
+
+    @Override
+    public int countOpen(ComparisonSet set) {
+        final String sql = "select count(*) from " + TABLE_NAME + " where set_id=? and failed=?";
+        return this.jdbcTemplate.queryForInt(sql, set.getId(), false);
+    }
+
+    @Override
+    public String findFailure(ComparisonSet set) {
+        final String sql = "select error from " + TABLE_NAME + " where set_id=? and failed=? limit 1";
+        return DataAccessUtils.singleResult( this.jdbcTemplate.queryForList(sql, String.class, set.getId(), true) );
+    }
+
+    @Override
+    public void delete(ComparisonSet set) {
+        this.jdbcTemplate.update("delete from " + TABLE_NAME + " where set_id=?", set.getId());
+    }
+}
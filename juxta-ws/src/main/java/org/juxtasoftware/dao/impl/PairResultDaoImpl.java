@@ -0,0 +1,63 @@
+package org.juxtasoftware.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.juxtasoftware.dao.PairResultDao;
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.PairResult;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public class PairResultDaoImpl implements PairResultDao, InitializingBean {
+    private static final String TABLE_NAME = "juxta_pair_result";
+    @Autowired private JdbcTemplate jdbcTemplate;
+    private SimpleJdbcInsert insert;
+    
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.insert = new SimpleJdbcInsert(this.jdbcTemplate).withTableName(TABLE_NAME);
+    }
+
+    @Override
+    public void create(PairResult result) {
+        final MapSqlParameterSource ps = new MapSqlParameterSource();
+        ps.addValue("set_id", result.getSetId());
+        ps.addValue("base_id", result.getBaseId());
+        ps.addValue("witness_id", result.getWitnessId());
+        ps.addValue("base_hash", result.getBaseHash());
+        ps.addValue("witness_hash", result.getWitnessHash());
+        ps.addValue("config_key", result.getConfigKey());
+        this.insert.execute( ps );
+    }
+
+    @Override
+    public PairResult find(final String configKey, final String hashA, final String hashB) {
+        final String sql = "select r.set_id, r.base_id, r.witness_id, r.base_hash, r.witness_hash, r.config_key from "
+            + TABLE_NAME + " r inner join juxta_comparison_set s on s.id = r.set_id"
+            + " where r.config_key=? and ((r.base_hash=? and r.witness_hash=?) or (r.base_hash=? and r.witness_hash=?))"
+            + " and s.status!=? limit 1";
+        return DataAccessUtils.singleResult( this.jdbcTemplate.query(sql, new RowMapper<PairResult>(){
+
+            @Override
+            public PairResult mapRow(ResultSet rs, int rowNum) throws SQLException {
+                PairResult r = new PairResult();
+                r.setSetId( rs.getLong("set_id") );
+                r.setBaseId( rs.getLong("base_id") );
+                r.setWitnessId( rs.getLong("witness_id") );
+                r.setBaseHash( rs.getString("base_hash") );
+                r.setWitnessHash( rs.getString("witness_hash") );
+                r.setConfigKey( rs.getString("config_key") );
+                return r;
+            }
+            
+        }, configKey, hashA, hashB, hashB, hashA, ComparisonSet.Status.DELETED.toString()) );
+    }
+}
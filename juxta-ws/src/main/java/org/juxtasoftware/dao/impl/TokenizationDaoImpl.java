@@ -0,0 +1,109 @@
+package org.juxtasoftware.dao.impl;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.juxtasoftware.dao.TokenizationDao;
+import org.juxtasoftware.model.TokenBoundaries;
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
+import org.springframework.stereotype.Repository;
+
+import eu.interedition.text.rdbms.RelationalText;
+
+@Repository
+public class TokenizationDaoImpl implements TokenizationDao, InitializingBean {
+    private static final String TABLE_NAME = "juxta_witness_tokenization";
+    @Autowired private JdbcTemplate jdbcTemplate;
+    private SimpleJdbcInsert insert;
+    
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.insert = new SimpleJdbcInsert(this.jdbcTemplate).withTableName(TABLE_NAME).usingGeneratedKeyColumns("id");
+    }
+
+    @Override
+    public Long create(Tokenization tokenization) {
+        final MapSqlParameterSource ps = new MapSqlParameterSource();
+        ps.addValue("witness_id", tokenization.getWitnessId());
+        ps.addValue("text_id", tokenization.getTextId());
+        ps.addValue("join_linebreaks", tokenization.isJoinLinebreaks());
+        ps.addValue("tokenized_length", tokenization.getTokenizedLength());
+        ps.addValue("complete", tokenization.isComplete());
+        return this.insert.executeAndReturnKey( ps ).longValue();
+    }
+
+    @Override
+    public Tokenization find(final Witness witness, final boolean joinLinebreaks) {
+        return find(witness, joinLinebreaks, "");
+    }
+    
+    @Override
+    public Tokenization lock(final Witness witness, final boolean joinLinebreaks) {
+        return find(witness, joinLinebreaks, " for update");
+    }
+    
+    private Tokenization find(final Witness witness, final boolean joinLinebreaks, final String lockClause) {
+        final String sql = "select id, witness_id, text_id, join_linebreaks, tokenized_length, complete, content_hash from "
+            + TABLE_NAME + " where witness_id=? and text_id=? and join_linebreaks=?" + lockClause;
+        return DataAccessUtils.uniqueResult( this.jdbcTemplate.query(sql, new TokenizationMapper(false), 
+            witness.getId(), ((RelationalText)witness.getText()).getId(), joinLinebreaks) );
+    }
+    
+    @Override
+    public Tokenization find(final Long id, final boolean includeBoundaries) {
+        final String sql = "select id, witness_id, text_id, join_linebreaks, tokenized_length, complete, content_hash"
+            + (includeBoundaries ? ", token_boundaries" : "") + " from " + TABLE_NAME + " where id=?";
+        return DataAccessUtils.uniqueResult( this.jdbcTemplate.query(sql, new TokenizationMapper(includeBoundaries), id) );
+    }
+
+    @Override
+    public void complete(Tokenization tokenization) {
+        final String sql = "update "+TABLE_NAME+" set tokenized_length=?, content_hash=?, token_boundaries=?, complete=? where id=?";
+        final TokenBoundaries boundaries = tokenization.getBoundaries();
+        this.jdbcTemplate.update(sql, tokenization.getTokenizedLength(), tokenization.getContentHash(), 
+            (boundaries == null ? null : boundaries.toByteArray()), true, tokenization.getId());
+        tokenization.setComplete(true);
+    }
+
+    @Override
+    public void delete(Tokenization tokenization) {
+        // NOTE: the tokens and the alignments between them cascade delete
+        final String sql = "delete from "+TABLE_NAME+" where id=?";
+        this.jdbcTemplate.update(sql, tokenization.getId());
+    }
+    
+    private static class TokenizationMapper implements RowMapper<Tokenization> {
+        private final boolean includeBoundaries;
+        
+        private TokenizationMapper(boolean includeBoundaries) {
+            this.includeBoundaries = includeBoundaries;
+        }
+
+        @Override
+        public Tokenization mapRow(ResultSet rs, int rowNum) throws SQLException {
+            Tokenization t = new Tokenization();
+            t.setId( rs.getLong("id") );
+            t.setWitnessId( rs.getLong("witness_id") );
+            t.setTextId( rs.getLong("text_id") );
+            t.setJoinLinebreaks( rs.getBoolean("join_linebreaks") );
+            t.setTokenizedLength( rs.getLong("tokenized_length") );
+            t.setComplete( rs.getBoolean("complete") );
+            t.setContentHash( rs.getString("content_hash") );
+            if ( this.includeBoundaries ) {
+                final byte[] boundaries = rs.getBytes("token_boundaries");
+                if ( boundaries != null ) {
+                    t.setBoundaries( new TokenBoundaries(boundaries) );
+                }
+            }
+            return t;
+        }
+    }
+}
@@ -17,17 +17,24 @@ public class AnnotationConstraint {
     private Set<Range> ranges = new HashSet<Range>();
     private QNameFilter filter = null;
     private boolean includeText = false;
+    private final Text text;
     private final Long textId;
     private final Long setId;
+    private Long tokenizationId;
     
     public AnnotationConstraint( final Long setId, final Text text ) {
+        this.text = text;
         this.textId = ((RelationalText)text).getId();
         this.setId = setId;
     }
     public AnnotationConstraint( final Long setId, final Witness witness) {
+        this.text = witness.getText();
         this.textId = new Long(((RelationalText)witness.getText()).getId());
         this.setId = setId;
     }
+    public final Text getText() {
+        return text;
+    }
     public final Long getTextId() {
         return textId;
     }
@@ -39,6 +46,20 @@ public class AnnotationConstraint {
         return this.setId;
     }
     
+    /**
+     * Get the tokens of a specific witness tokenization. By default, the tokens
+     * of the tokenization the set uses for the witness are returned. With
+     * a null set ID, only these tokens are returned.
+     * @param tokenizationId
+     */
+    public final void setTokenizationId(Long tokenizationId) {
+        this.tokenizationId = tokenizationId;
+    }
+    
+    public final Long getTokenizationId() {
+        return this.tokenizationId;
+    }
+    
     /**
      * Get annotations over a limited range of a witness
      * @param range
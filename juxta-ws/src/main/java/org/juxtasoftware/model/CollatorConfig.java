@@ -3,12 +3,23 @@ package org.juxtasoftware.model;
 
 public class CollatorConfig {
     public enum HyphenationFilter {INCLUDE_ALL, FILTER_LINEBREAK, FILTER_ALL}
+    public enum DiffAlgorithm {MYERS, PATIENCE, HISTOGRAM}
+    
+    /**
+     * Which witness pairs are collated: all of them, or only those of the 
+     * base witness. Other pairs of a BASE set are collated when first viewed.
+     */
+    public enum CollationMode {ALL_PAIRS, BASE}
     
     private Long id;
     private boolean filterWhitespace = true;
     private boolean filterPunctuation = false;
     private boolean filterCase = false;
     private HyphenationFilter hyphenationFilter = HyphenationFilter.INCLUDE_ALL;
+    private DiffAlgorithm diffAlgorithm = DiffAlgorithm.MYERS;
+    private CollationMode collationMode = CollationMode.ALL_PAIRS;
+    private Long baseWitnessId;
+    private boolean segmented = false;
 
     public CollatorConfig() {
         this(true,false,false);
@@ -60,6 +71,60 @@ public class CollatorConfig {
         this.hyphenationFilter = hyphenationFilter;
     }
 
+    public DiffAlgorithm getDiffAlgorithm() {
+        return diffAlgorithm;
+    }
+
+    public void setDiffAlgorithm(DiffAlgorithm diffAlgorithm) {
+        this.diffAlgorithm = diffAlgorithm;
+    }
+
+    public CollationMode getCollationMode() {
+        return collationMode;
+    }
+
+    public void setCollationMode(CollationMode collationMode) {
+        this.collationMode = collationMode;
+    }
+
+    /**
+     * @return the witness all others are collated against in BASE mode
+     */
+    public Long getBaseWitnessId() {
+        return baseWitnessId;
+    }
+
+    public void setBaseWitnessId(Long baseWitnessId) {
+        this.baseWitnessId = baseWitnessId;
+    }
+    
+    /**
+     * @return true if witnesses with page breaks are collated page by page
+     */
+    public boolean isSegmented() {
+        return segmented;
+    }
+
+    public void setSegmented(boolean segmented) {
+        this.segmented = segmented;
+    }
+    
+    /**
+     * @return true if the pairs of <code>witnessId</code> with every other 
+     *         witness are collated, so views against it as base are available
+     */
+    public boolean isCollatedBase(Long witnessId) {
+        return ( this.collationMode != CollationMode.BASE || witnessId.equals(this.baseWitnessId) );
+    }
+    
+    /**
+     * @return true if the pair of <code>witnessA</code> and <code>witnessB</code>
+     *         is collated with the set rather than when first viewed
+     */
+    public boolean isCollatedPair(Long witnessA, Long witnessB) {
+        return ( isCollatedBase(witnessA) || isCollatedBase(witnessB) );
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -17,6 +17,7 @@ import eu.interedition.text.Text;
 public class JuxtaAnnotation implements Annotation {
     private Long id;
     private final Long setId;
+    private Long tokenizationId;
     private final Long witnessId;
     private final Text text;
     private final Name qName;
@@ -77,6 +78,19 @@ public class JuxtaAnnotation implements Annotation {
     public Long getSetId() {
         return this.setId;
     }
+    
+    /**
+     * Tokens belong to the tokenization of a witness rather than
+     * to a comparison set. Their set ID is null.
+     * @param tokenizationId
+     */
+    public void setTokenizationId(Long tokenizationId) {
+        this.tokenizationId = tokenizationId;
+    }
+    
+    public Long getTokenizationId() {
+        return this.tokenizationId;
+    }
 
     @Override
     public int compareTo(Annotation other) {
@@ -0,0 +1,66 @@
+package org.juxtasoftware.model;
+
+/**
+ * A witness pair of a comparison set waiting in the shared job queue to
+ * be collated by any node. A node leases the job for a limited time and
+ * renews the lease while it works on the pair; a job whose lease runs out 
+ * is taken over by another node.
+ */
+public class PairJob {
+    private Long id;
+    private Long setId;
+    private Long baseId;
+    private Long witnessId;
+    private String leaseToken;
+    private int attempts;
+    
+    public final Long getId() {
+        return id;
+    }
+    public final void setId(Long id) {
+        this.id = id;
+    }
+    public final Long getSetId() {
+        return setId;
+    }
+    public final void setSetId(Long setId) {
+        this.setId = setId;
+    }
+    public final Long getBaseId() {
+        return baseId;
+    }
+    public final void setBaseId(Long baseId) {
+        this.baseId = baseId;
+    }
+    public final Long getWitnessId() {
+        return witnessId;
+    }
+    public final void setWitnessId(Long witnessId) {
+        this.witnessId = witnessId;
+    }
+    
+    /**
+     * @return the token identifying the current lease of this job
+     */
+    public final String getLeaseToken() {
+        return leaseToken;
+    }
+    public final void setLeaseToken(String leaseToken) {
+        this.leaseToken = leaseToken;
+    }
+    
+    /**
+     * @return the number of times this job has been leased
+     */
+    public final int getAttempts() {
+        return attempts;
+    }
+    public final void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+    
+    @Override
+    public String toString() {
+        return "PairJob [id=" + id + ", setId=" + setId + ", " + baseId + " vs. " + witnessId + "]";
+    }
+}
@@ -0,0 +1,67 @@
+package org.juxtasoftware.model;
+
+/**
+ * Record that the alignments of a witness pair in a comparison set are 
+ * complete and may be copied to other sets. Texts are identified by the
+ * content hash of their tokenization, collator settings by a key of 
+ * all settings that change the result.
+ */
+public class PairResult {
+    private Long setId;
+    private Long baseId;
+    private Long witnessId;
+    private String baseHash;
+    private String witnessHash;
+    private String configKey;
+    
+    public final Long getSetId() {
+        return setId;
+    }
+    public final void setSetId(Long setId) {
+        this.setId = setId;
+    }
+    public final Long getBaseId() {
+        return baseId;
+    }
+    public final void setBaseId(Long baseId) {
+        this.baseId = baseId;
+    }
+    public final Long getWitnessId() {
+        return witnessId;
+    }
+    public final void setWitnessId(Long witnessId) {
+        this.witnessId = witnessId;
+    }
+    public final String getBaseHash() {
+        return baseHash;
+    }
+    public final void setBaseHash(String baseHash) {
+        this.baseHash = baseHash;
+    }
+    public final String getWitnessHash() {
+        return witnessHash;
+    }
+    public final void setWitnessHash(String witnessHash) {
+        this.witnessHash = witnessHash;
+    }
+    public final String getConfigKey() {
+        return configKey;
+    }
+    public final void setConfigKey(String configKey) {
+        this.configKey = configKey;
+    }
+    
+    /**
+     * Build the key of the collator settings that change the alignments of a pair
+     */
+    public static String configKey( final CollatorConfig cfg ) {
+        return cfg.isFilterCase() + "/" + cfg.isFilterPunctuation() + "/" + cfg.isFilterWhitespace() 
+            + "/" + cfg.getHyphenationFilter() + "/" + cfg.getDiffAlgorithm()
+            + (cfg.isSegmented() ? "/segmented" : "");
+    }
+    
+    @Override
+    public String toString() {
+        return "PairResult [setId=" + setId + ", baseId=" + baseId + ", witnessId=" + witnessId + "]";
+    }
+}
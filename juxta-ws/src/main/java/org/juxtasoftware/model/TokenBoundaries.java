@@ -0,0 +1,210 @@
+package org.juxtasoftware.model;
+
+import java.util.Arrays;
+
+/**
+ * The token boundaries of a {@link Tokenization} in compact form. Tokens
+ * are in text order and do not overlap. Each one is stored as the distance of
+ * its start from the end of the token before it, followed by its length;
+ * both are variable length integers of 7 bits per byte, so most tokens
+ * take two bytes.
+ * <p/>
+ * Tokens are decoded on demand with a {@link Cursor}. Searching for the token
+ * next to an offset decodes all of them once, and then takes a binary search.
+ */
+public final class TokenBoundaries {
+    private final byte[] data;
+    private final int size;
+    
+    // start and end of each token in turn, decoded on the first search
+    private volatile int[] offsets;
+
+    /**
+     * Wrap the encoded boundaries, as returned by {@link #toByteArray()}
+     * @param data
+     */
+    public TokenBoundaries(byte[] data) {
+        this.data = data;
+        int ends = 0;
+        for ( byte b : data ) {
+            if ( (b & 0x80) == 0 ) {
+                ends++;
+            }
+        }
+        this.size = ends / 2;
+    }
+
+    /**
+     * @return The number of tokens
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @return The encoded boundaries. Do not modify.
+     */
+    public byte[] toByteArray() {
+        return this.data;
+    }
+
+    /**
+     * @return The start of the first token that starts after <code>pos</code>,
+     *         or -1 if there is none
+     */
+    public long findNextStart(long pos) {
+        final int[] offsets = offsets();
+        final int i = firstAbove(offsets, 0, pos);
+        return ( i < this.size ? offsets[2 * i] : -1 );
+    }
+    
+    /**
+     * @return The end of the last token that ends before <code>pos</code>,
+     *         or <code>pos</code> if there is none
+     */
+    public long findPriorEnd(long pos) {
+        final int[] offsets = offsets();
+        final int i = firstAbove(offsets, 1, pos - 1);
+        return ( i > 0 ? offsets[2 * i - 1] : pos );
+    }
+    
+    /**
+     * @return true if there is a token from <code>start</code> to <code>end</code>
+     */
+    public boolean contains(long start, long end) {
+        final int[] offsets = offsets();
+        for ( int i = firstAbove(offsets, 0, start - 1); i < this.size && offsets[2 * i] == start; i++ ) {
+            if ( offsets[2 * i + 1] == end ) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * @return The index of the first token whose start (<code>field</code> 0)
+     *         or end (<code>field</code> 1) is after <code>pos</code>
+     */
+    private int firstAbove(int[] offsets, int field, long pos) {
+        int low = 0;
+        int high = this.size;
+        while ( low < high ) {
+            final int mid = (low + high) >>> 1;
+            if ( offsets[2 * mid + field] > pos ) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+    
+    private int[] offsets() {
+        int[] offsets = this.offsets;
+        if ( offsets == null ) {
+            offsets = new int[2 * this.size];
+            final Cursor cursor = cursor();
+            for ( int i = 0; cursor.next(); i += 2 ) {
+                offsets[i] = cursor.getStart();
+                offsets[i + 1] = cursor.getEnd();
+            }
+            this.offsets = offsets;
+        }
+        return offsets;
+    }
+
+    /**
+     * @return A cursor before the first token
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Steps through the tokens in text order
+     */
+    public final class Cursor {
+        private int pos;
+        private int start;
+        private int end;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the next token
+         * @return false if there are no more tokens
+         */
+        public boolean next() {
+            if ( this.pos >= data.length ) {
+                return false;
+            }
+            this.start = this.end + readInt();
+            this.end = this.start + readInt();
+            return true;
+        }
+
+        /**
+         * @return The start offset of the current token
+         */
+        public int getStart() {
+            return this.start;
+        }
+
+        /**
+         * @return The end offset of the current token
+         */
+        public int getEnd() {
+            return this.end;
+        }
+
+        private int readInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[this.pos++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ( (b & 0x80) != 0 );
+            return value;
+        }
+    }
+
+    /**
+     * Encodes the boundaries of tokens as they are found
+     */
+    public static final class Builder {
+        private byte[] data = new byte[1024];
+        private int length;
+        private int lastEnd;
+
+        /**
+         * Add the next token
+         * @throws IllegalArgumentException if the token starts before the end of the last one
+         */
+        public void add(int start, int end) {
+            if ( start < this.lastEnd || end < start ) {
+                throw new IllegalArgumentException("Token [" + start + ", " + end + "] out of order");
+            }
+            writeInt(start - this.lastEnd);
+            writeInt(end - start);
+            this.lastEnd = end;
+        }
+
+        public TokenBoundaries build() {
+            return new TokenBoundaries(Arrays.copyOf(this.data, this.length));
+        }
+
+        private void writeInt(int value) {
+            if ( this.length + 5 > this.data.length ) {
+                this.data = Arrays.copyOf(this.data, this.data.length * 2);
+            }
+            while ( (value & ~0x7F) != 0 ) {
+                this.data[this.length++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.data[this.length++] = (byte)value;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.juxtasoftware.model;
+
+import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
+
+/**
+ * The tokens of a witness text. Token boundaries depend on the text and on 
+ * whether words hyphenated across a linebreak are joined, so a tokenization 
+ * is shared by every comparison set that collates the witness with the same
+ * hyphenation handling. All other collator settings are applied when the 
+ * tokens are read.
+ * <p/>
+ * Token boundaries are stored in compact form with the tokenization. A token
+ * is only stored as an annotation once an alignment refers to it.
+ */
+public class Tokenization {
+    private Long id;
+    private Long witnessId;
+    private Long textId;
+    private boolean joinLinebreaks;
+    private long tokenizedLength;
+    private boolean complete;
+    private String contentHash;
+    private TokenBoundaries boundaries;
+    
+    /**
+     * @return true if tokens of <code>filter</code> join words hyphenated across a linebreak
+     */
+    public static boolean joinsLinebreaks( final HyphenationFilter filter ) {
+        return ( filter.equals(HyphenationFilter.FILTER_LINEBREAK) || filter.equals(HyphenationFilter.FILTER_ALL) );
+    }
+    
+    public final Long getId() {
+        return id;
+    }
+    public final void setId(Long id) {
+        this.id = id;
+    }
+    public final Long getWitnessId() {
+        return witnessId;
+    }
+    public final void setWitnessId(Long witnessId) {
+        this.witnessId = witnessId;
+    }
+    public final Long getTextId() {
+        return textId;
+    }
+    public final void setTextId(Long textId) {
+        this.textId = textId;
+    }
+    public final boolean isJoinLinebreaks() {
+        return joinLinebreaks;
+    }
+    public final void setJoinLinebreaks(boolean joinLinebreaks) {
+        this.joinLinebreaks = joinLinebreaks;
+    }
+    public final long getTokenizedLength() {
+        return tokenizedLength;
+    }
+    public final void setTokenizedLength(long tokenizedLength) {
+        this.tokenizedLength = tokenizedLength;
+    }
+    
+    /**
+     * @return true once all tokens have been written
+     */
+    public final boolean isComplete() {
+        return complete;
+    }
+    public final void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+    
+    /**
+     * @return SHA-1 of the tokenized text, or null for tokenizations made 
+     *         before hashes were recorded
+     */
+    public final String getContentHash() {
+        return contentHash;
+    }
+    public final void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    /**
+     * @return The token boundaries, if they were requested. Null for 
+     *         tokenizations made before boundaries were recorded, whose
+     *         tokens are all stored as annotations.
+     */
+    public final TokenBoundaries getBoundaries() {
+        return boundaries;
+    }
+    public final void setBoundaries(TokenBoundaries boundaries) {
+        this.boundaries = boundaries;
+    }
+    
+    @Override
+    public String toString() {
+        return "Tokenization [id=" + id + ", witnessId=" + witnessId + ", joinLinebreaks=" + joinLinebreaks + "]";
+    }
+}
@@ -1,15 +1,18 @@
 package org.juxtasoftware.resource;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import org.juxtasoftware.Constants;
 import org.juxtasoftware.dao.AlignmentDao;
 import org.juxtasoftware.dao.ComparisonSetDao;
 import org.juxtasoftware.dao.JuxtaAnnotationDao;
 import org.juxtasoftware.dao.QNameFilterDao;
+import org.juxtasoftware.dao.TokenizationDao;
 import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
@@ -17,6 +20,7 @@ import org.juxtasoftware.model.AlignmentConstraint;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.JuxtaAnnotation;
 import org.juxtasoftware.model.QNameFilter;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.util.AlignmentSerializer;
 import org.restlet.data.Status;
@@ -40,6 +44,7 @@ import eu.interedition.text.Name;
 import eu.interedition.text.NameRepository;
 import eu.interedition.text.Range;
 import eu.interedition.text.mem.SimpleName;
+import eu.interedition.text.rdbms.RelationalName;
 
 @Service
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
@@ -50,6 +55,7 @@ public class AlignmentsResource extends BaseResource {
     @Autowired private QNameFilterDao filterDao;
     @Autowired private NameRepository nameRepo;
     @Autowired private WitnessDao witnessDao;
+    @Autowired private TokenizationDao tokenizationDao;
     
     private ComparisonSet set = null;
     private QNameFilter filter = null;
@@ -226,6 +232,16 @@ public class AlignmentsResource extends BaseResource {
             return null;
         }
         
+        // tokens are shared by all sets, and listed without an ID until an 
+        // alignment refers to them; align the stored token instead of a copy.
+        // Other ranges, and tokens of older tokenizations, get a manual annotation
+        if ( isToken(qname) && witness != null ) {
+            final JuxtaAnnotation token = findToken(witness, range);
+            if ( token != null ) {
+                return token;
+            }
+        }
+        
         JuxtaAnnotation ano = new JuxtaAnnotation( this.set.getId(), witness,  qname, range);
         ano.setManual();
         Long id = this.annotationDao.create(ano);
@@ -233,6 +249,30 @@ public class AlignmentsResource extends BaseResource {
         return ano;
     }
 
+    private boolean isToken(Name qname) {
+        final Long tokenNameId = ((RelationalName)this.nameRepo.get(Constants.TOKEN_NAME)).getId();
+        return tokenNameId.equals( ((RelationalName)qname).getId() );
+    }
+    
+    /**
+     * Get the token of <code>witness</code> at <code>range</code> in the tokenization
+     * this set uses, storing it as an annotation if it is not yet
+     * @return The token, or null if there is no token with boundaries at that range
+     */
+    private JuxtaAnnotation findToken(Witness witness, Range range) {
+        final Long tokenizationId = this.setDao.getTokenizationId(this.set, witness);
+        if ( tokenizationId == null ) {
+            return null;
+        }
+        final Tokenization tokenization = this.tokenizationDao.find(tokenizationId, true);
+        if ( tokenization == null || tokenization.getBoundaries() == null 
+            || tokenization.getBoundaries().contains(range.getStart(), range.getEnd()) == false ) {
+            return null;
+        }
+        final Long id = this.annotationDao.createTokens(tokenization, Collections.singletonList(range)).get(range);
+        return this.annotationDao.find(id, false);
+    }
+
     private Name getQnameFromJson(JsonObject nameObj) {
         // note: this creates a name if it does not exist
         Name name = this.nameRepo.get( new SimpleName(
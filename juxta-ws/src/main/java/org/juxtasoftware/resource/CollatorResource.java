@@ -5,11 +5,11 @@ import java.util.Date;
 import java.util.List;
 
 import org.juxtasoftware.dao.ComparisonSetDao;
+import org.juxtasoftware.dao.PairJobDao;
 import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.service.ComparisonSetCollator;
-import org.juxtasoftware.service.Tokenizer;
 import org.juxtasoftware.util.BackgroundTask;
 import org.juxtasoftware.util.BackgroundTaskCanceledException;
 import org.juxtasoftware.util.BackgroundTaskStatus;
@@ -36,10 +36,11 @@ public class CollatorResource extends BaseResource {
     }
 
     @Autowired private ComparisonSetDao setDao;
-    @Autowired private Tokenizer tokenizer;
     @Autowired private ComparisonSetCollator collator;
     @Autowired private TaskManager taskManager;
     @Autowired private MetricsHelper metrics;
+    @Autowired private PairJobDao pairJobDao;
+    @Autowired private Boolean distributedCollation;
 
     private Action action;
     private ComparisonSet set;
@@ -85,11 +86,18 @@ public class CollatorResource extends BaseResource {
 
     private Representation doCollation() {
 
+        final String taskId = generateTaskName(this.set.getId());
         if (this.set.getStatus().equals(ComparisonSet.Status.COLLATING) || 
             this.set.getStatus().equals(ComparisonSet.Status.TOKENIZING)  ) {
-            LOG.error("Attempt to collate "+this.set+" when it is aalready collating");
-            setStatus(Status.CLIENT_ERROR_CONFLICT);
-            return toTextRepresentation("Set " + this.set.getId() + " is currently collating");
+            if ( isBeingCollated(taskId) ) {
+                LOG.error("Attempt to collate "+this.set+" when it is aalready collating");
+                setStatus(Status.CLIENT_ERROR_CONFLICT);
+                return toTextRepresentation("Set " + this.set.getId() + " is currently collating");
+            }
+            
+            // No task is working on the set; it was interrupted by a restart.
+            // The collator picks up after the last completed pair
+            LOG.info("Resuming interrupted collation of "+this.set);
         }
         List<Witness> witnesses = this.setDao.getWitnesses(this.set);
         if (witnesses.size() < 2) {
@@ -98,8 +106,20 @@ public class CollatorResource extends BaseResource {
             return toTextRepresentation("Set " + this.set.getId()
                 + " has fewer than 2 witnesses; cannot collate");
         }
+        
+        // collating against a base needs that base in the set
+        CollatorConfig cfg = this.setDao.getCollatorConfig(this.set);
+        boolean hasBase = false;
+        for ( Witness w : witnesses ) {
+            hasBase = hasBase || w.getId().equals(cfg.getBaseWitnessId());
+        }
+        if ( cfg.getCollationMode().equals(CollatorConfig.CollationMode.BASE) && hasBase == false ) {
+            LOG.error("Attempt to collate "+this.set+" against a base witness that is not in the set");
+            setStatus(Status.CLIENT_ERROR_FAILED_DEPENDENCY);
+            return toTextRepresentation("Set " + this.set.getId()
+                + " has no base witness " + cfg.getBaseWitnessId() + "; cannot collate");
+        }
 
-        final String taskId = generateTaskName(this.set.getId());
         this.taskManager.submit(new CollateTask(taskId));
         return toTextRepresentation(taskId);
     }
@@ -107,6 +127,22 @@ public class CollatorResource extends BaseResource {
     private Representation configureCollator(String json) {
         Gson gson = new Gson();
         CollatorConfig cfg = gson.fromJson(json, CollatorConfig.class);
+        
+        // unknown enum names come back as null
+        if ( cfg.getHyphenationFilter() == null || cfg.getDiffAlgorithm() == null || cfg.getCollationMode() == null ) {
+            setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+            return toTextRepresentation("Invalid hyphenation filter, diff algorithm or collation mode");
+        }
+        if ( cfg.getCollationMode().equals(CollatorConfig.CollationMode.BASE) ) {
+            boolean hasBase = false;
+            for ( Witness w : this.setDao.getWitnesses(this.set) ) {
+                hasBase = hasBase || w.getId().equals(cfg.getBaseWitnessId());
+            }
+            if ( hasBase == false ) {
+                setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
+                return toTextRepresentation("Base witness " + cfg.getBaseWitnessId() + " is not in set " + this.set.getId());
+            }
+        }
         this.setDao.updateCollatorConfig(this.set, cfg);
         return toTextRepresentation(this.set.getId().toString());
     }
@@ -127,6 +163,21 @@ public class CollatorResource extends BaseResource {
         return "collate-"+result;
     }
 
+    /**
+     * Check for a collate, tokenize or import task of this set. Their names 
+     * only differ in the prefix. A distributed collation is also in progress 
+     * on another node while the set has open pair jobs.
+     */
+    private boolean isBeingCollated(final String taskId) {
+        final String setPart = taskId.substring(taskId.indexOf('-'));
+        for ( String prefix : new String[] {"collate", "tokenize", "import"} ) {
+            if ( this.taskManager.isActive(prefix + setPart) ) {
+                return true;
+            }
+        }
+        return ( this.distributedCollation && this.pairJobDao.countOpen(this.set) > 0 );
+    }
+
     private Representation getCollationConfig() {
         CollatorConfig cfg = this.setDao.getCollatorConfig(this.set);
         Gson gson = new Gson();
@@ -165,14 +216,15 @@ public class CollatorResource extends BaseResource {
                     CollatorResource.this.collator.collate(set, this.config, this.status);
                 } else {
                     CollatorResource.this.metrics.collationStarted(CollatorResource.this.workspace, CollatorResource.this.set);
-                    LOG.info(this.name+" tokenizing....");
-                    CollatorResource.this.tokenizer.tokenize( CollatorResource.this.set, this.config, this.status);
-                    LOG.info(this.name+" collating....");
-                    CollatorResource.this.collator.collate(set, this.config, this.status);
+                    LOG.info(this.name+" tokenizing and collating....");
+                    CollatorResource.this.collator.tokenizeAndCollate(set, this.config, this.status);
                 }
                 LOG.info("collation task " + this.name + " COMPLETE");
                 metrics.collationFinished(workspace,set);
                 this.endDate = new Date();
+                if ( set.getStatus().equals(ComparisonSet.Status.COLLATED) ) {
+                    this.status.finish();
+                }
             } catch (IOException e) {
                 LOG.error(this.name + " task failed", e.toString());
                 this.status.fail(e.toString());
@@ -29,6 +29,7 @@ import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
 import org.juxtasoftware.model.AlignmentConstraint;
+import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.PageMark;
 import org.juxtasoftware.model.QNameFilter;
@@ -221,6 +222,11 @@ public class EditionBuilderResource extends BaseResource implements FileDirectiv
             setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
             return toTextRepresentation("No base witness has been specified.");
         }
+        CollatorConfig cfg = this.setDao.getCollatorConfig(this.set);
+        if ( cfg.isCollatedBase(this.baseWitnessId) == false ) {
+            setStatus(Status.CLIENT_ERROR_CONFLICT);
+            return toTextRepresentation("This set is only collated against its base witness. Use it as the edition base.");
+        }
         if ( this.witnesses.size() < 2 ) {
             setStatus(Status.CLIENT_ERROR_BAD_REQUEST);
             return toTextRepresentation("At least 2 witnesses must be included.");
@@ -28,6 +28,7 @@ import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
 import org.juxtasoftware.model.AlignmentConstraint;
+import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.QNameFilter;
 import org.juxtasoftware.model.Witness;
@@ -108,6 +109,12 @@ public class Exporter extends BaseResource {
                 return;
             }
             
+            // sets collated against one base only have the differences to that base
+            CollatorConfig cfg = this.setDao.getCollatorConfig(this.set);
+            if ( cfg.isCollatedBase(this.base.getId()) == false ) {
+                setStatus(Status.CLIENT_ERROR_CONFLICT, "Set is only collated against base witness "+cfg.getBaseWitnessId());
+            }
+            
         } else {
             setStatus(Status.CLIENT_ERROR_BAD_REQUEST, "Missing required base parameter");
         }
@@ -23,13 +23,16 @@ import org.juxtasoftware.dao.ComparisonSetDao;
 import org.juxtasoftware.dao.JuxtaAnnotationDao;
 import org.juxtasoftware.dao.NoteDao;
 import org.juxtasoftware.dao.PageMarkDao;
+import org.juxtasoftware.dao.TokenizationDao;
 import org.juxtasoftware.dao.UserAnnotationDao;
 import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
 import org.juxtasoftware.model.AlignmentConstraint;
+import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.QNameFilter;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.VisualizationInfo;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.resource.BaseResource;
@@ -67,6 +70,7 @@ public class HeatmapView  {
     @Autowired private TaskManager taskManager;
     @Autowired private Integer visualizationBatchSize;
     @Autowired private JuxtaAnnotationDao annotationDao;
+    @Autowired private TokenizationDao tokenizationDao;
     @Autowired private UserAnnotationDao userNoteDao;
     
     private BaseResource parent;
@@ -133,7 +137,11 @@ public class HeatmapView  {
             return this.parent.toTextRepresentation("This set contains less than two witnesess. Unable to view heatmap.");
         }
         
-        // Set the base witness id to the first in the set of it was not specified
+        // Set the base witness id to the collation base or the first in the set if it was not specified
+        final CollatorConfig config = this.setDao.getCollatorConfig(set);
+        if ( baseWitnessId == null && config.getCollationMode().equals(CollatorConfig.CollationMode.BASE) ) {
+            baseWitnessId = config.getBaseWitnessId();
+        }
         if ( baseWitnessId == null ) {
             baseWitnessId = setWitnesses.get(0).getId();
         }
@@ -161,6 +169,12 @@ public class HeatmapView  {
             return parent.toTextRepresentation("The specified base witness was not found");
         }
         
+        // sets collated against one base only have the differences to that base
+        if ( config.isCollatedBase(base.getId()) == false ) {
+            parent.setStatus(Status.CLIENT_ERROR_CONFLICT);
+            return parent.toTextRepresentation("This set is only collated against its base witness. Unable to view heatmap of another base.");
+        }
+        
         // get the witness filter list. these witnesses will not be rendered in the visualization.
         // if no filter witnesses are  present, all witnesses will be included. 
         // Use this to create a visualiztionInfo object that will be used to generate a key to uniquely identify
@@ -487,8 +501,9 @@ public class HeatmapView  {
             }
         }
         
-        // overlay adds
+        // overlay adds. The token boundaries of the base are loaded once for all of them
         Collections.sort(zeroLen);
+        final Tokenization baseTokens = ( zeroLen.isEmpty() ? null : findTokenization(set, base) );
         for (Integer pos : zeroLen ) {
             boolean handled = false;
             for ( Change c : changes ) {
@@ -501,12 +516,15 @@ public class HeatmapView  {
             
             if ( handled == false ) {
                 Change c =  new Change(changeId++, new Range(pos, pos), 1);
-                int adjPos = (int)this.annotationDao.findNextTokenStart(base.getId(), pos);
+                int adjPos = -1;
+                if ( baseTokens != null ) {
+                    adjPos = (int)this.annotationDao.findNextTokenStart(baseTokens, pos);
+                }
                 if ( adjPos == -1 || adjPos+1 >= base.getText().getLength() ) {
                     c.adjustRange(pos-1, pos);
                 } else {
                     // first, see if there are any more tokens after this point
-                    int nextPos = (int)this.annotationDao.findNextTokenStart(base.getId(), adjPos);
+                    int nextPos = (int)this.annotationDao.findNextTokenStart(baseTokens, adjPos);
                     if ( nextPos == -1 ) {
                         // this was the last token. Don't highlight past it, just up to it.
                         // this fixes a special case: punct is not ignored and last non-whitespace char
@@ -525,6 +543,20 @@ public class HeatmapView  {
         return changes;
     }
     
+    /**
+     * Get the tokenization of <code>base</code> that <code>set</code> was collated 
+     * with, including its token boundaries
+     */
+    private Tokenization findTokenization(final ComparisonSet set, final Witness base) {
+        final CollatorConfig config = this.setDao.getCollatorConfig(set);
+        final Tokenization tokenization = this.tokenizationDao.find(base, 
+            Tokenization.joinsLinebreaks(config.getHyphenationFilter()));
+        if ( tokenization == null ) {
+            return null;
+        }
+        return this.tokenizationDao.find(tokenization.getId(), true);
+    }
+    
     private List<Alignment> getPairAlignments(final ComparisonSet set, final Long baseId, final Long witnessId, int startIdx, int batchSize) {
         QNameFilter changesFilter = this.filters.getDifferencesFilter();
         AlignmentConstraint constraints = new AlignmentConstraint(set);
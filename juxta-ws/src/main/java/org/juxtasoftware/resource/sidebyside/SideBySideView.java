@@ -25,10 +25,12 @@ import org.juxtasoftware.dao.WitnessDao;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
 import org.juxtasoftware.model.AlignmentConstraint;
+import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.QNameFilter;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.resource.BaseResource;
+import org.juxtasoftware.service.ComparisonSetCollator;
 import org.juxtasoftware.util.BackgroundTask;
 import org.juxtasoftware.util.BackgroundTaskCanceledException;
 import org.juxtasoftware.util.BackgroundTaskStatus;
@@ -159,6 +161,9 @@ public class SideBySideView implements FileDirectiveListener  {
         Long leftWitId = this.witnessDetails.get(0).getId();
         Long rightWitId = this.witnessDetails.get(1).getId();
         if ( leftWitId.equals(rightWitId ) == false ) {
+            // sets collated against one base get their other pairs when first viewed
+            collateOnDemand(status, set);
+            
             // generate the change lists for each witness and
             // update the changes map with this data
             status.setNote("Generating witness change lists");
@@ -207,6 +212,18 @@ public class SideBySideView implements FileDirectiveListener  {
         this.cacheDao.cacheSideBySide(set.getId(), leftWitId, rightWitId, sbsFtl.getReader());
     }
 
+    private void collateOnDemand(BackgroundTaskStatus status, final ComparisonSet set) throws IOException {
+        final Witness left = this.witnessDetails.get(0).witness;
+        final Witness right = this.witnessDetails.get(1).witness;
+        final CollatorConfig config = this.setDao.getCollatorConfig(set);
+        if ( set.getStatus().equals(ComparisonSet.Status.COLLATED) == false || 
+             config.isCollatedPair(left.getId(), right.getId()) ) {
+            return;
+        }
+        status.setNote("Collating "+left.getJsonName()+" vs. "+right.getJsonName());
+        this.context.getBean(ComparisonSetCollator.class).collatePair(set, config, left, right, status);
+    }
+
     @Override
     public void fileReadComplete(File file) {
         // once the file has been rendered to the template
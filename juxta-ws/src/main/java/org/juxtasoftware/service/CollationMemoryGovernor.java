@@ -0,0 +1,143 @@
+package org.juxtasoftware.service;
+
+import org.juxtasoftware.Constants;
+import org.juxtasoftware.diff.impl.PartitionedDiff;
+import org.juxtasoftware.util.BackgroundTaskCanceledException;
+import org.juxtasoftware.util.BackgroundTaskStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps collation within a heap budget. Before a witness pair is diffed its
+ * memory footprint is estimated from the tokenized lengths of the two witnesses,
+ * and the cheapest diff strategy that fits the budget is picked. Pairs are
+ * then held back until the budget, shared by all running collations, has
+ * room for them. A pair that does not fit even on its own runs alone.
+ */
+@Component
+public class CollationMemoryGovernor {
+    public enum Strategy {FULL, PARTITIONED, LINEAR_SPACE};
+
+    // rough heap cost of one token during a diff: the token annotation, its
+    // normalized content, the token wrapper and the interned symbol
+    static final long BYTES_PER_TOKEN = 300;
+    static final long CHARS_PER_TOKEN = 5;
+
+    // fraction of the tokens expected to be part of an edit
+    private static final double CHANGE_RATIO = 0.1;
+    private static final long MB = 1024L * 1024L;
+
+    @Autowired private Integer collationMemoryBudget;
+
+    private long budget;
+    private long reserved;
+
+    private static final Logger LOG = LoggerFactory.getLogger( Constants.WS_LOGGER_NAME );
+
+    public CollationMemoryGovernor() {
+    }
+
+    CollationMemoryGovernor(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the budget in bytes; by default a percentage of the max heap
+     */
+    public synchronized long getBudget() {
+        if ( this.budget <= 0 ) {
+            this.budget = Runtime.getRuntime().maxMemory() / 100 * this.collationMemoryBudget;
+        }
+        return this.budget;
+    }
+
+    /**
+     * Pick the diff strategy for a pair of witnesses.
+     *
+     * @param baseLength Tokenized length of the base, in characters
+     * @param witnessLength Tokenized length of the witness, in characters
+     * @param parallelism Number of threads available to a partitioned diff; 1 or less if none
+     */
+    public Plan plan(long baseLength, long witnessLength, int parallelism) {
+        final long tokens = (baseLength + witnessLength) / CHARS_PER_TOKEN + 2;
+        final long tokenBytes = tokens * BYTES_PER_TOKEN;
+        final long edits = (long) (tokens * CHANGE_RATIO);
+        final long budget = getBudget();
+
+        // the O(ND) diff keeps a row of furthest reaching paths per edit
+        final long full = tokenBytes + 4 * edits * edits;
+        if ( parallelism > 1 && tokens >= 2 * PartitionedDiff.DEFAULT_MIN_SEGMENT_SIZE ) {
+            // about 4 segments per thread, each with its share of the edits
+            final long partitioned = tokenBytes + 4 * edits * edits / (16L * parallelism);
+            if ( partitioned <= budget ) {
+                return new Plan(Strategy.PARTITIONED, partitioned);
+            }
+        } else if ( full <= budget ) {
+            return new Plan(Strategy.FULL, full);
+        }
+
+        // forward and backward path arrays only
+        return new Plan(Strategy.LINEAR_SPACE, tokenBytes + 8 * tokens);
+    }
+
+    /**
+     * Reserve the memory of a plan, waiting until the budget allows it.
+     * Waiting can be cancelled through the task status.
+     */
+    public synchronized void acquire(Plan plan, BackgroundTaskStatus status) throws InterruptedException {
+        final long budget = getBudget();
+        String note = null;
+        while ( this.reserved > 0 && this.reserved + plan.bytes > budget ) {
+            if ( note == null ) {
+                note = status.getNote();
+                status.setNote("Waiting for memory ("+plan+")");
+                LOG.info("Holding back "+plan+"; "+(this.reserved / MB)+" of "+(budget / MB)+" MB in use");
+            }
+            if ( BackgroundTaskStatus.Status.CANCEL_REQUESTED.equals(status.getStatus()) ) {
+                throw new BackgroundTaskCanceledException();
+            }
+            wait(1000);
+        }
+        if ( note != null ) {
+            status.setNote(note);
+        }
+        this.reserved += plan.bytes;
+    }
+
+    public synchronized void release(Plan plan) {
+        this.reserved = Math.max(0, this.reserved - plan.bytes);
+        notifyAll();
+    }
+
+    synchronized long getReserved() {
+        return this.reserved;
+    }
+
+    /**
+     * The chosen strategy for a pair and its estimated heap use
+     */
+    public static final class Plan {
+        private final Strategy strategy;
+        private final long bytes;
+
+        private Plan(Strategy strategy, long bytes) {
+            this.strategy = strategy;
+            this.bytes = bytes;
+        }
+
+        public Strategy getStrategy() {
+            return this.strategy;
+        }
+
+        public long getEstimatedBytes() {
+            return this.bytes;
+        }
+
+        @Override
+        public String toString() {
+            return this.strategy.toString().toLowerCase().replace('_', ' ') + " diff, ~" + Math.max(1, this.bytes / MB) + " MB";
+        }
+    }
+}
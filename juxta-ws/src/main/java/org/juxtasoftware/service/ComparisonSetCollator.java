@@ -2,28 +2,48 @@ package org.juxtasoftware.service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.json.simple.JSONObject;
 import org.juxtasoftware.Constants;
 import org.juxtasoftware.dao.AlignmentDao;
 import org.juxtasoftware.dao.ComparisonSetDao;
 import org.juxtasoftware.dao.JuxtaAnnotationDao;
+import org.juxtasoftware.dao.PageMarkDao;
+import org.juxtasoftware.dao.PairJobDao;
+import org.juxtasoftware.dao.TokenizationDao;
 import org.juxtasoftware.diff.Comparison;
+import org.juxtasoftware.diff.DiffAlgorithm;
 import org.juxtasoftware.diff.DiffCollator;
 import org.juxtasoftware.diff.DiffCollatorConfiguration;
 import org.juxtasoftware.diff.Difference;
+import org.juxtasoftware.diff.DifferenceBuffer;
 import org.juxtasoftware.diff.DifferenceStore;
+import org.juxtasoftware.diff.Segment;
 import org.juxtasoftware.diff.Token;
 import org.juxtasoftware.diff.TokenSource;
 import org.juxtasoftware.diff.TranspositionSource;
+import org.juxtasoftware.diff.impl.HistogramDiff;
+import org.juxtasoftware.diff.impl.MyersDiff;
+import org.juxtasoftware.diff.impl.PatienceDiff;
 import org.juxtasoftware.diff.impl.SimpleTokenComparator;
 import org.juxtasoftware.model.Alignment;
 import org.juxtasoftware.model.Alignment.AlignedAnnotation;
@@ -32,17 +52,31 @@ import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
 import org.juxtasoftware.model.ComparisonSet;
 import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.PageMark;
+import org.juxtasoftware.model.PairJob;
+import org.juxtasoftware.model.PairResult;
 import org.juxtasoftware.model.QNameFilter;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.util.BackgroundTaskCanceledException;
 import org.juxtasoftware.util.BackgroundTaskSegment;
 import org.juxtasoftware.util.BackgroundTaskStatus;
 import org.juxtasoftware.util.QNameFilters;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.google.common.collect.Sets;
 
@@ -50,6 +84,7 @@ import eu.interedition.text.Annotation;
 import eu.interedition.text.Name;
 import eu.interedition.text.NameRepository;
 import eu.interedition.text.Range;
+import eu.interedition.text.Text;
 import eu.interedition.text.rdbms.RelationalAnnotation;
 
 @Service
@@ -61,53 +96,602 @@ public class ComparisonSetCollator extends DiffCollator {
     @Autowired private AlignmentDao alignmentDao;
     @Autowired private NameRepository nameRepository;
     @Autowired private Integer collationBatchSize;
+    @Autowired private Integer collationWriteQueueSize;
+    @Autowired private Integer collationTokenCacheSize;
+    @Autowired private Integer linearSpaceThreshold;
+    @Autowired @Qualifier("pair-executor") private ThreadPoolTaskExecutor pairExecutor;
+    @Autowired @Qualifier("diff-executor") private ThreadPoolTaskExecutor diffExecutor;
+    @Autowired private CollationMemoryGovernor memoryGovernor;
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private PairResultCache pairResultCache;
+    @Autowired private Tokenizer tokenizer;
+    @Autowired private PairJobDao pairJobDao;
+    @Autowired private PairJobRunner pairJobRunner;
+    @Autowired private Boolean distributedCollation;
+    @Autowired private Integer pairJobLease;
+    @Autowired private Integer pairJobAttempts;
+    @Autowired private PageMarkDao pageMarkDao;
     
     private List<Witness> witnessList;
     private ComparisonSet comparisonSet;
+    private String configKey;
+    private Map<Long, Tokenization> tokenizations;
+    private PairJob pairJob;
+    private volatile boolean halted;
     
     private static final Logger LOG = LoggerFactory.getLogger( Constants.WS_LOGGER_NAME );
+    
+    // a pair collated on demand is collated by one thread at a time
+    private static final Object[] PAIR_LOCKS = new Object[64];
+    static {
+        for ( int i = 0; i < PAIR_LOCKS.length; i++ ) {
+            PAIR_LOCKS[i] = new Object();
+        }
+    }
 
+    /**
+     * Collate a set whose witnesses have all been tokenized
+     */
     public void collate(ComparisonSet comparisonSet, CollatorConfig config, BackgroundTaskStatus taskStatus) throws IOException {
+        collate(comparisonSet, config, taskStatus, false);
+    }
+    
+    /**
+     * Tokenize the witnesses of a set and collate it in one pass. Witnesses are 
+     * tokenized one after another, and each pair is collated as soon as both of its 
+     * witnesses are tokenized; tokenizing the rest of the set overlaps with diffing.
+     * The set is TOKENIZING until its last witness is tokenized, and the task status
+     * has a segment for each stage.
+     */
+    public void tokenizeAndCollate(ComparisonSet comparisonSet, CollatorConfig config, BackgroundTaskStatus taskStatus) throws IOException {
+        collate(comparisonSet, config, taskStatus, true);
+    }
+    
+    /**
+     * Collate one pair of a set that was collated against its base witness only.
+     * This is done when the pair is first viewed, and leaves the set status alone.
+     */
+    public void collatePair(ComparisonSet comparisonSet, CollatorConfig config, Witness witnessA, Witness witnessB, 
+        BackgroundTaskStatus taskStatus) throws IOException {
+        synchronized ( PAIR_LOCKS[(int)(comparisonSet.getId() % PAIR_LOCKS.length)] ) {
+            if ( this.setDao.isCollated(comparisonSet, witnessA, witnessB) ) {
+                return;
+            }
+            LOG.info("Collating " + witnessA + " vs. " + witnessB + " of " + comparisonSet + " on demand");
+            runPair(comparisonSet, config, witnessA, witnessB, taskStatus);
+        }
+    }
+    
+    /**
+     * Collate the pair of a job leased from the queue shared by all nodes. The job 
+     * is removed in the transaction that records the pair as collated. Each batch of
+     * differences is written while holding the lock on the job; once the lease is 
+     * lost to another node, nothing more is written, and the node that took the job
+     * over clears what was written before.
+     */
+    public void collateJob(ComparisonSet comparisonSet, CollatorConfig config, PairJob job, Witness base, Witness witness, 
+        BackgroundTaskStatus taskStatus) throws IOException {
+        this.pairJob = job;
+        runPair(comparisonSet, config, base, witness, taskStatus);
+    }
+    
+    /**
+     * Stop collating after the pair in progress; none of its differences are kept
+     */
+    public void halt() {
+        this.halted = true;
+    }
+    
+    /**
+     * Collate a single pair in the calling thread, replacing anything left of it
+     */
+    private void runPair(ComparisonSet comparisonSet, CollatorConfig config, Witness witnessA, Witness witnessB, 
+        BackgroundTaskStatus taskStatus) throws IOException {
+        this.comparisonSet = comparisonSet;
+        this.witnessList = Arrays.asList(witnessA, witnessB);
+        this.halted = false;
+        this.configKey = PairResult.configKey(config);
+        this.tokenizations = new ConcurrentHashMap<Long, Tokenization>();
+        this.setDao.clearCollationData(comparisonSet, witnessA, witnessB);
+        
+        final List<Witness[]> pending = new ArrayList<Witness[]>(1);
+        pending.add( new Witness[] {witnessA, witnessB} );
+        final PairSchedule pairs = new PairSchedule(pending);
+        final Map<Long, Long> tokenizedLengths = new HashMap<Long, Long>();
+        for ( Witness witness : this.witnessList ) {
+            Tokenization tokenization = this.tokenizer.tokenize(witness, config.getHyphenationFilter());
+            this.tokenizations.put(witness.getId(), tokenization);
+            tokenizedLengths.put(witness.getId(), tokenization.getTokenizedLength());
+            pairs.tokenized(witness);
+        }
+        pairs.close();
+        
+        final TokenCache tokenCache = new TokenCache(this.collationTokenCacheSize * 1024L * 1024L);
+        final PairWorker worker = new PairWorker(new CollatorConfigAdapter(config, tokenCache), pairs, 
+            new LinkedBlockingQueue<Witness[]>(), tokenizedLengths, taskStatus);
+        try {
+            worker.call();
+        } catch ( IOException e ) {
+            throw e;
+        } catch ( RuntimeException e ) {
+            throw e;
+        } catch ( Exception e ) {
+            throw new IOException(e);
+        }
+    }
+    
+    private void collate(ComparisonSet comparisonSet, CollatorConfig config, BackgroundTaskStatus taskStatus, boolean tokenize) throws IOException {
         
         // grab reference to key data used in the colaltion
         this.comparisonSet = comparisonSet;
         this.witnessList = this.setDao.getWitnesses(comparisonSet);
-        this.comparisonSet.setStatus(ComparisonSet.Status.COLLATING);
-        this.setDao.update(this.comparisonSet);
+        this.halted = false;
         
-        // copy the witness list into a working copy
+        // pairs of texts already collated with these settings are copied from other sets.
+        // Tokens are filled in as witnesses are tokenized
+        this.configKey = PairResult.configKey(config);
+        this.tokenizations = new ConcurrentHashMap<Long, Tokenization>();
+        
+        // pairs of witnesses that were both collated before are kept
+        final Set<Witness> uncollated = new HashSet<Witness>();
+        for ( Witness witness : this.witnessList ) {
+            if ( this.setDao.isCollated(comparisonSet, witness) == false ) {
+                uncollated.add(witness);
+            }
+        }
+        
+        // pair up the witnesses that still need collating. Pairs completed by an 
+        // earlier, unfinished run are skipped
         final Set<Witness> witnesses = new HashSet<Witness>( this.witnessList );
-        final CollatorConfigAdapter configAdapter = new CollatorConfigAdapter(config);
+        final List<Witness[]> pending = new ArrayList<Witness[]>();
+        int completed = 0;
+        for (Iterator<Witness> baseIt = witnesses.iterator(); baseIt.hasNext(); ) {
+            final Witness base = baseIt.next();
+            baseIt.remove();
+            for (Witness witness : witnesses) {
+                if ( config.isCollatedPair(base.getId(), witness.getId()) == false ) {
+                    continue;
+                }
+                if ( uncollated.contains(base) == false && uncollated.contains(witness) == false ) {
+                    continue;
+                }
+                if ( this.setDao.isCollated(comparisonSet, base, witness) ) {
+                    completed++;
+                } else {
+                    pending.add( new Witness[] {base, witness} );
+                }
+            }
+        }
+        
+        // anything left over from unfinished pairs is removed first. Nodes still
+        // working on jobs of an earlier run lose their leases
+        taskStatus.setNote("Clearing old collation data");
+        if ( this.distributedCollation ) {
+            this.pairJobDao.delete(comparisonSet);
+        }
+        if ( uncollated.size() == this.witnessList.size() && completed == 0 ) {
+            this.setDao.clearCollationData(comparisonSet);
+        } else {
+            LOG.info("Resuming collation of " + comparisonSet + ": " + uncollated.size() + " witnesses not collated, " 
+                + completed + " pairs done, " + pending.size() + " to do");
+            for ( Witness[] pair : pending ) {
+                this.setDao.clearCollationData(comparisonSet, pair[0], pair[1]);
+            }
+        }
+        this.comparisonSet.setStatus(tokenize ? ComparisonSet.Status.TOKENIZING : ComparisonSet.Status.COLLATING);
+        this.setDao.update(this.comparisonSet);
 
-        final BackgroundTaskSegment ts = taskStatus.add(1, new BackgroundTaskSegment((witnesses.size() * (witnesses.size() - 1)) / 2));
-        taskStatus.setNote("Collating SET " + JSONObject.escape(comparisonSet.getName()));
+        // pairs are released to the workers once both witnesses are tokenized.
+        // Tokenized lengths are used to estimate the memory each pair needs
+        final PairSchedule pairs = new PairSchedule(pending);
+        final Map<Long, Long> tokenizedLengths = new ConcurrentHashMap<Long, Long>();
+        // each witness tokenized adds a segment of weight one; collating weighs as much as all of them
+        final BackgroundTaskSegment ts = taskStatus.add(tokenize ? this.witnessList.size() : 1, new BackgroundTaskSegment(pending.size()));
+        if ( tokenize == false ) {
+            for ( Witness witness : this.witnessList ) {
+                final Tokenization tokenization = this.tokenizationDao.find(witness, 
+                    Tokenization.joinsLinebreaks(config.getHyphenationFilter()));
+                if ( tokenization != null ) {
+                    this.tokenizations.put(witness.getId(), tokenization);
+                }
+                tokenizedLengths.put(witness.getId(), this.setDao.getTokenzedLength(comparisonSet, witness));
+                pairs.tokenized(witness);
+            }
+            pairs.close();
+            taskStatus.setNote("Collating SET " + JSONObject.escape(comparisonSet.getName()));
+        }
         LOG.info("Collating " + comparisonSet);
 
+        // pairs are independent; workers take them from the schedule until it is 
+        // done. Each worker has its own token source and difference store. A 
+        // distributed collation queues the pairs as jobs for all nodes instead
+        final int workerCount = (this.distributedCollation ? 0 : 
+            Math.max(1, Math.min(this.pairExecutor.getMaxPoolSize(), pending.size())));
+        final BlockingQueue<Witness[]> collated = new LinkedBlockingQueue<Witness[]>();
+        final TokenCache tokenCache = new TokenCache(this.collationTokenCacheSize * 1024L * 1024L);
+        final List<Future<Void>> workers = new ArrayList<Future<Void>>(workerCount);
         try {
-            for (Iterator<Witness> baseIt = witnesses.iterator(); baseIt.hasNext(); ) {
-                final Witness base = baseIt.next();
-                baseIt.remove();
-    
-                for (Witness witness : witnesses) {
-                    taskStatus.setNote(base.getJsonName() + " vs. " + witness.getJsonName());
-                    LOG.info("Collating: " + base + " vs. " + witness);
-    
-                    collate(configAdapter, base, witness);
-                    configAdapter.getDifferenceStore().save();
-                    ts.incrementValue();
-                }
+            for ( int i = 0; i < workerCount; i++ ) {
+                PairWorker worker = new PairWorker(new CollatorConfigAdapter(config, tokenCache), pairs, collated, tokenizedLengths, taskStatus);
+                workers.add( this.pairExecutor.submit(worker) );
+            }
+            if ( tokenize ) {
+                tokenizeWitnesses(config, pairs, tokenizedLengths, collated, ts, taskStatus);
+            }
+            if ( this.distributedCollation ) {
+                queueJobs(pairs);
+                awaitJobs(pending.size(), ts, taskStatus);
+            } else {
+                awaitWorkers(workers, collated, ts, taskStatus);
             }
             
+            this.setDao.markCollated(this.comparisonSet);
             this.comparisonSet.setStatus(ComparisonSet.Status.COLLATED);
             this.setDao.update(this.comparisonSet);
+        } catch ( BackgroundTaskCanceledException e ) {
+            throw e;
+        } catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new BackgroundTaskCanceledException(e);
         } catch ( OutOfMemoryError  oom ) {
             LOG.error("Not enough memory to collate "+this.comparisonSet);
             this.comparisonSet.setStatus(ComparisonSet.Status.ERROR);
             this.setDao.update(this.comparisonSet);
+        } catch ( IOException e ) {
+            LOG.error("Collation of "+this.comparisonSet+" FAILED",e);
+            this.comparisonSet.setStatus(ComparisonSet.Status.ERROR);
+            this.setDao.update(this.comparisonSet);
+            throw e;
         } catch ( Exception e ) {
             LOG.error("Collation of "+this.comparisonSet+" FAILED",e);
             this.comparisonSet.setStatus(ComparisonSet.Status.ERROR);
             this.setDao.update(this.comparisonSet);
+        } finally {
+            stopWorkers(workers);
+            if ( this.distributedCollation ) {
+                this.pairJobDao.delete(this.comparisonSet);
+            }
+            LOG.info("Token cache of " + this.comparisonSet + ": " + tokenCache);
+        }
+    }
+    
+    /**
+     * The tokenizing stage of the pipeline. Witnesses are tokenized concurrently while 
+     * the workers collate the pairs they release, and the pairs collated so far are 
+     * reported after each witness.
+     */
+    private void tokenizeWitnesses(CollatorConfig config, final PairSchedule pairs, final Map<Long, Long> tokenizedLengths, 
+        final BlockingQueue<Witness[]> collated, final BackgroundTaskSegment ts, 
+        BackgroundTaskStatus taskStatus) throws IOException {
+        LOG.info("Tokenizing " + this.comparisonSet);
+        try {
+            this.tokenizer.tokenize(this.witnessList, config.getHyphenationFilter(), taskStatus, new Tokenizer.Listener() {
+                @Override
+                public boolean tokenized(Witness witness, Tokenization tokenization) {
+                    if ( halted ) {
+                        return false;
+                    }
+                    setDao.setTokenization(comparisonSet, witness, tokenization);
+                    tokenizations.put(witness.getId(), tokenization);
+                    tokenizedLengths.put(witness.getId(), tokenization.getTokenizedLength());
+                    pairs.tokenized(witness);
+                    if ( distributedCollation ) {
+                        queueJobs(pairs);
+                    }
+                    synchronized ( ts ) {
+                        while ( collated.poll() != null ) {
+                            ts.incrementValue();
+                        }
+                    }
+                    return ( halted == false );
+                }
+            });
+        } finally {
+            pairs.close();
+        }
+        
+        if ( this.halted == false ) {
+            this.comparisonSet.setStatus(ComparisonSet.Status.COLLATING);
+            this.setDao.update(this.comparisonSet);
+            taskStatus.setNote("Collating SET " + JSONObject.escape(this.comparisonSet.getName()));
+        }
+    }
+    
+    /**
+     * Put the pairs released so far in the job queue shared by all nodes
+     */
+    private void queueJobs(PairSchedule pairs) {
+        for ( Witness[] pair : pairs.drain() ) {
+            this.pairJobDao.create(this.comparisonSet, pair[0], pair[1]);
+        }
+    }
+    
+    /**
+     * Wait until the jobs of this set are collated by any node, running them here as 
+     * well while there are some to lease. A job that failed too often fails the set.
+     */
+    private void awaitJobs(int total, BackgroundTaskSegment ts, BackgroundTaskStatus taskStatus) throws IOException, InterruptedException {
+        while ( true ) {
+            if ( BackgroundTaskStatus.Status.CANCEL_REQUESTED.equals(taskStatus.getStatus()) ) {
+                throw new BackgroundTaskCanceledException();
+            }
+            final String failure = this.pairJobDao.findFailure(this.comparisonSet);
+            if ( failure != null ) {
+                throw new IOException("Collation of a witness pair failed: " + failure);
+            }
+            final int open = this.pairJobDao.countOpen(this.comparisonSet);
+            ts.setValue(total - open);
+            if ( open == 0 ) {
+                return;
+            }
+            
+            final PairJob job = this.pairJobDao.lease(this.comparisonSet.getId(), this.pairJobLease, this.pairJobAttempts);
+            if ( job != null ) {
+                this.pairJobRunner.runJob(job);
+            } else {
+                Thread.sleep(1000);
+            }
+        }
+    }
+    
+    /**
+     * Report collated pairs to the task segment until all workers are done.
+     * The first failure of a worker is rethrown here, and a cancel request 
+     * is noticed within a second even while no pair completes.
+     */
+    private void awaitWorkers(List<Future<Void>> workers, BlockingQueue<Witness[]> collated, 
+        BackgroundTaskSegment ts, BackgroundTaskStatus taskStatus) throws IOException, InterruptedException {
+        boolean running = true;
+        while ( running ) {
+            if ( collated.poll(1, TimeUnit.SECONDS) != null ) {
+                ts.incrementValue();
+            } else if ( BackgroundTaskStatus.Status.CANCEL_REQUESTED.equals(taskStatus.getStatus()) ) {
+                throw new BackgroundTaskCanceledException();
+            }
+            
+            running = false;
+            for ( Future<Void> worker : workers ) {
+                if ( worker.isDone() == false ) {
+                    running = true;
+                    continue;
+                }
+                try {
+                    worker.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if ( cause instanceof IOException ) {
+                        throw (IOException)cause;
+                    } else if ( cause instanceof RuntimeException ) {
+                        throw (RuntimeException)cause;
+                    } else if ( cause instanceof Error ) {
+                        throw (Error)cause;
+                    }
+                    throw new IOException(cause);
+                }
+            }
+        }
+        while ( collated.poll() != null ) {
+            ts.incrementValue();
+        }
+    }
+    
+    /**
+     * Ask the workers to stop after their current pair and wait for them. 
+     * Nothing is written for this set once this returns; an interrupt is
+     * kept for the caller once the workers are done.
+     */
+    private void stopWorkers(List<Future<Void>> workers) {
+        this.halted = true;
+        boolean interrupted = false;
+        for ( Future<Void> worker : workers ) {
+            while ( true ) {
+                try {
+                    worker.get();
+                    break;
+                } catch (ExecutionException e) {
+                    // already reported by awaitWorkers
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * The pairs of a collation, each released once both of its witnesses
+     * are tokenized
+     */
+    private final class PairSchedule {
+        private final BlockingQueue<Witness[]> ready = new LinkedBlockingQueue<Witness[]>();
+        private final List<Witness[]> waiting;
+        private final Set<Long> tokenized = new HashSet<Long>();
+        private volatile boolean closed;
+        
+        private PairSchedule(List<Witness[]> pairs) {
+            this.waiting = new ArrayList<Witness[]>(pairs);
+        }
+        
+        /**
+         * Release the pairs of <code>witness</code> whose other witness is tokenized
+         */
+        private synchronized void tokenized(Witness witness) {
+            this.tokenized.add(witness.getId());
+            for (Iterator<Witness[]> itr = this.waiting.iterator(); itr.hasNext(); ) {
+                final Witness[] pair = itr.next();
+                if ( this.tokenized.contains(pair[0].getId()) && this.tokenized.contains(pair[1].getId()) ) {
+                    this.ready.add(pair);
+                    itr.remove();
+                }
+            }
+        }
+        
+        /**
+         * @return the released pairs, without waiting for more
+         */
+        private List<Witness[]> drain() {
+            final List<Witness[]> released = new ArrayList<Witness[]>();
+            this.ready.drainTo(released);
+            return released;
+        }
+        
+        /**
+         * No more witnesses will be tokenized
+         */
+        private void close() {
+            this.closed = true;
+        }
+        
+        /**
+         * @return the next pair to collate, waiting for one to be released. Null
+         *         once all released pairs are taken or the collation halts
+         */
+        private Witness[] next() throws InterruptedException {
+            while ( halted == false ) {
+                if ( this.closed ) {
+                    return this.ready.poll();
+                }
+                final Witness[] pair = this.ready.poll(1, TimeUnit.SECONDS);
+                if ( pair != null ) {
+                    return pair;
+                }
+            }
+            return null;
+        }
+    }
+    
+    /**
+     * Collates witness pairs taken from a schedule shared with the other 
+     * workers of this set, until it is done or the collation halts.
+     */
+    private final class PairWorker implements Callable<Void> {
+        private final DiffCollator collator = new DiffCollator();
+        private final CollatorConfigAdapter configAdapter;
+        private final PairSchedule pairs;
+        private final BlockingQueue<Witness[]> collated;
+        private final Map<Long, Long> tokenizedLengths;
+        private final BackgroundTaskStatus taskStatus;
+        
+        private PairWorker(CollatorConfigAdapter configAdapter, PairSchedule pairs, BlockingQueue<Witness[]> collated, 
+            Map<Long, Long> tokenizedLengths, BackgroundTaskStatus taskStatus) {
+            this.configAdapter = configAdapter;
+            this.pairs = pairs;
+            this.collated = collated;
+            this.tokenizedLengths = tokenizedLengths;
+            this.taskStatus = taskStatus;
+        }
+        
+        @Override
+        public Void call() throws Exception {
+            // differences are written to the db by a separate thread while diffing continues
+            final MemoryDiffStore diffStore = this.configAdapter.memAlignStore;
+            diffStore.start();
+            boolean finished = false;
+            try {
+                Witness[] pair;
+                while ( halted == false && (pair = this.pairs.next()) != null ) {
+                    if ( collatePair(pair[0], pair[1]) ) {
+                        this.collated.add(pair);
+                    }
+                }
+                
+                // all differences must be in the db before the set counts as collated
+                if ( halted == false ) {
+                    diffStore.close();
+                }
+                finished = true;
+                return null;
+            } catch ( InterruptedException e ) {
+                throw new BackgroundTaskCanceledException(e);
+            } finally {
+                if ( finished == false ) {
+                    halted = true;
+                }
+                diffStore.abort();
+            }
+        }
+        
+        /**
+         * @return false if the collation halted while waiting for memory
+         */
+        private boolean collatePair(Witness base, Witness witness) throws IOException, InterruptedException {
+            final boolean shared = isShared(base, witness);
+            if ( shared && pairResultCache.copy(comparisonSet, configKey, 
+                base, tokenizations.get(base.getId()), witness, tokenizations.get(witness.getId()), pairJob) ) {
+                return true;
+            }
+            
+            final CollationMemoryGovernor.Plan plan = memoryGovernor.plan(
+                this.tokenizedLengths.get(base.getId()), this.tokenizedLengths.get(witness.getId()), 
+                this.configAdapter.getDiffParallelism());
+            memoryGovernor.acquire(plan, this.taskStatus);
+            try {
+                if ( halted ) {
+                    return false;
+                }
+                this.taskStatus.setNote(base.getJsonName() + " vs. " + witness.getJsonName() + " (" + plan + ")");
+                LOG.info("Collating: " + base + " vs. " + witness + " using " + plan);
+                
+                this.configAdapter.setStrategy(plan.getStrategy());
+                if ( this.configAdapter.config.isSegmented() ) {
+                    this.collator.collate(this.configAdapter, base, segmentsOf(base), witness, segmentsOf(witness));
+                } else {
+                    this.collator.collate(this.configAdapter, base, witness);
+                }
+                this.configAdapter.memAlignStore.complete(base, witness, shared);
+                return true;
+            } finally {
+                memoryGovernor.release(plan);
+            }
+        }
+        
+        /**
+         * Split the text of <code>witness</code> at its page breaks. Each page
+         * is labeled with the number of its page break.
+         * 
+         * @return the pages of the witness, or an empty list if it has no page breaks
+         */
+        private List<Segment> segmentsOf(Witness witness) {
+            final Range textRange = witness.getTextRange();
+            final List<Segment> segments = new ArrayList<Segment>();
+            long start = textRange.getStart();
+            String label = null;
+            for ( PageMark pb : pageMarkDao.find(witness.getId(), PageMark.Type.PAGE_BREAK) ) {
+                if ( pb.getOffset() > start && pb.getOffset() < textRange.getEnd() ) {
+                    segments.add( new Segment(new Range(start, pb.getOffset()), label) );
+                    start = pb.getOffset();
+                }
+                if ( pb.getOffset() < textRange.getEnd() ) {
+                    label = pb.getLabel();
+                }
+            }
+            if ( segments.isEmpty() ) {
+                return segments;
+            }
+            segments.add( new Segment(new Range(start, textRange.getEnd()), label) );
+            return segments;
+        }
+        
+        /**
+         * @return true if the result of this pair can be shared with other sets:
+         *         both texts are hashed and there are no transpositions between them
+         */
+        private boolean isShared(Witness base, Witness witness) {
+            final Tokenization baseTokens = tokenizations.get(base.getId());
+            final Tokenization witnessTokens = tokenizations.get(witness.getId());
+            if ( baseTokens == null || baseTokens.getContentHash() == null 
+                || witnessTokens == null || witnessTokens.getContentHash() == null ) {
+                return false;
+            }
+            final AlignmentConstraint constraint = new AlignmentConstraint(comparisonSet);
+            constraint.setFilter( filters.getTranspositionsFilter() );
+            constraint.addWitnessIdFilter( base.getId() );
+            constraint.addWitnessIdFilter( witness.getId() );
+            return ( alignmentDao.count(constraint) == 0 );
         }
     }
 
@@ -116,12 +700,24 @@ public class ComparisonSetCollator extends DiffCollator {
         private final CollatorConfig config;
         private final Comparator<Token> tokenComparator;
         private final TokenSource tokenSource;
+        private final DiffAlgorithm diffAlgorithm;
         private final MemoryDiffStore memAlignStore = new MemoryDiffStore();
+        private CollationMemoryGovernor.Strategy strategy = CollationMemoryGovernor.Strategy.FULL;
 
-        private CollatorConfigAdapter(CollatorConfig config) {
+        private CollatorConfigAdapter(CollatorConfig config, TokenCache tokenCache) {
             this.config = config;
             this.tokenComparator = new SimpleTokenComparator();
-            this.tokenSource = new RepositoryTokenSource(this, comparisonSet.getId(), annotationDao, filters.getTokensFilter() );
+            this.tokenSource = new RepositoryTokenSource(this, comparisonSet.getId(), annotationDao, filters.getTokensFilter(), tokenCache );
+            this.diffAlgorithm = createDiffAlgorithm( config.getDiffAlgorithm() );
+        }
+        
+        private DiffAlgorithm createDiffAlgorithm( CollatorConfig.DiffAlgorithm algorithm ) {
+            if ( CollatorConfig.DiffAlgorithm.PATIENCE.equals(algorithm) ) {
+                return new PatienceDiff();
+            } else if ( CollatorConfig.DiffAlgorithm.HISTOGRAM.equals(algorithm) ) {
+                return new HistogramDiff();
+            }
+            return new MyersDiff();
         }
 
         @Override
@@ -143,6 +739,41 @@ public class ComparisonSetCollator extends DiffCollator {
         public DifferenceStore getDifferenceStore() {
             return memAlignStore;
         }
+        
+        @Override
+        public DiffAlgorithm getDiffAlgorithm() {
+            return this.diffAlgorithm;
+        }
+        
+        /**
+         * Set the strategy the memory governor picked for the next pair
+         */
+        private void setStrategy(CollationMemoryGovernor.Strategy strategy) {
+            this.strategy = strategy;
+        }
+        
+        private int getDiffParallelism() {
+            return diffExecutor.getMaxPoolSize();
+        }
+        
+        @Override
+        public int getLinearSpaceThreshold() {
+            if ( CollationMemoryGovernor.Strategy.LINEAR_SPACE.equals(this.strategy) ) {
+                return 1;
+            }
+            return linearSpaceThreshold;
+        }
+        
+        @Override
+        public ExecutorService getDiffExecutor() {
+            // segments of a segmented collation are diffed concurrently regardless of the strategy
+            final boolean concurrent = (this.config.isSegmented() 
+                || CollationMemoryGovernor.Strategy.FULL.equals(this.strategy) == false);
+            if ( concurrent && getDiffParallelism() > 1 ) {
+                return diffExecutor.getThreadPoolExecutor();
+            }
+            return null;
+        }
 
         @Override
         public boolean isFilterWhitespace() {
@@ -223,107 +854,353 @@ public class ComparisonSetCollator extends DiffCollator {
     /**
      * An alignment store that caches in-progress collation alignemts in
      * memory. Once a threshold of alignments have been collected, they are
-     * dumped in bulk to the db.
+     * dumped in bulk to the db. Differences are held in the primitive
+     * columns of a {@link DifferenceBuffer} rather than as objects.
+     * <p/>
+     * Saving is pipelined: full batches are queued for a writer thread, so
+     * the next pair can be diffed while the last one is written. The queue
+     * is bounded; when the writer falls behind, <code>save</code> blocks.
+     * A write failure is rethrown by the next <code>save</code> or <code>close</code>.
+     * Tokens are stored as annotations when the first alignment that refers
+     * to them is written, in a transaction of their own since other sets
+     * share them.
+     * <p/>
+     * The last batch of a pair is written in one transaction with the record
+     * that the pair is complete, so an interrupted collation can resume 
+     * after the last pair that was fully stored.
+     * Each batch of a leased job is written in a transaction that holds the
+     * lock on the job, and fails once the lease is lost.
      * 
      * @author loufoster
      *
      */
-    private final class MemoryDiffStore implements DifferenceStore {
-        protected List<Difference> differences = new LinkedList<Difference>();
+    private final class MemoryDiffStore extends DifferenceBuffer implements Runnable {
+        // the annotation ID of a token that is not stored yet
+        private static final long UNSTORED = 0L;
+        private static final int TOKEN_ATTEMPTS = 5;
+        
         protected Name addDelName;
         protected Name changeName;
         protected Name gapName;
+        protected Name tokenName;
+        
+        private final BlockingQueue<Batch> queue;
+        private final Object lock = new Object();
+        private Thread writer;
+        private volatile boolean closed;
+        private volatile Throwable writeError;
+        private final TransactionTemplate transaction;
+        private final TransactionTemplate tokenTransaction;
+        private int queued;
+        private int written;
         
         public MemoryDiffStore() {
+            super(collationBatchSize);
+            this.transaction = new TransactionTemplate(transactionManager);
+            this.tokenTransaction = new TransactionTemplate(transactionManager);
+            this.tokenTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
             this.addDelName = nameRepository.get(Constants.ADD_DEL_NAME);
             this.changeName = nameRepository.get(Constants.CHANGE_NAME);
             this.gapName = nameRepository.get(Constants.GAP_NAME);
+            this.tokenName = nameRepository.get(Constants.TOKEN_NAME);
+            this.queue = new ArrayBlockingQueue<Batch>( Math.max(1, collationWriteQueueSize) );
+        }
+        
+        public void start() {
+            this.closed = false;
+            this.writer = new Thread(this, "collation-writer-"+comparisonSet.getId());
+            this.writer.setDaemon(true);
+            this.writer.start();
+        }
+        
+        /**
+         * Queue the buffered differences for the writer thread. Blocks while
+         * the queue is full.
+         */
+        @Override
+        public void save() throws IOException {
+            checkWriter();
+            if ( size() == 0 ) {
+                return;
+            }
+            enqueue( new Batch(takeRows(), null, null, false) );
+        }
+        
+        /**
+         * Queue the remaining differences of the pair <code>base</code> and
+         * <code>witness</code> along with the record that it is complete.
+         * A <code>shared</code> pair is also recorded for other sets to copy.
+         */
+        public void complete(Witness base, Witness witness, boolean shared) throws IOException {
+            checkWriter();
+            enqueue( new Batch(size() == 0 ? null : takeRows(), base, witness, shared) );
+        }
+        
+        private void enqueue(Batch batch) throws IOException {
+            synchronized (this.lock) {
+                this.queued++;
+            }
+            try {
+                while ( this.queue.offer(batch, 1, TimeUnit.SECONDS) == false ) {
+                    checkWriter();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while queueing differences", e);
+            }
+        }
+        
+        /**
+         * Save any remaining differences and wait until the writer has stored all of them
+         */
+        public void close() throws IOException {
+            save();
+            synchronized (this.lock) {
+                while ( this.written < this.queued && this.writeError == null ) {
+                    try {
+                        this.lock.wait(1000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while writing differences", e);
+                    }
+                }
+            }
+            checkWriter();
+            this.closed = true;
+        }
+        
+        /**
+         * Stop the writer, dropping anything not yet written, and wait for 
+         * it to finish the batch it is writing
+         */
+        public void abort() {
+            this.closed = true;
+            this.queue.clear();
+            this.queue.offer(Batch.STOP);
+            clear();
+            boolean interrupted = false;
+            while ( this.writer.isAlive() ) {
+                try {
+                    this.writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if ( interrupted ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        private void checkWriter() throws IOException {
+            if ( this.writeError != null ) {
+                throw new IOException("Unable to write differences", this.writeError);
+            }
         }
         
         @Override
-        public void add(Difference aignment) throws IOException {
-            this.differences.add(aignment);
-            if ( differences.size() >= collationBatchSize ) {
-                save();
+        public void run() {
+            try {
+                while ( true ) {
+                    final Batch batch = this.queue.poll(1, TimeUnit.SECONDS);
+                    if ( batch == Batch.STOP ) {
+                        break;
+                    }
+                    if ( batch == null ) {
+                        if ( this.closed ) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if ( batch.base == null && pairJob == null ) {
+                        write(batch.rows);
+                    } else {
+                        this.transaction.execute(new TransactionCallbackWithoutResult() {
+                            @Override
+                            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                                // the job stays locked until this batch commits, so it 
+                                // cannot be taken over while the batch is written
+                                if ( pairJob != null && pairJobDao.lock(pairJob) == false ) {
+                                    throw new BackgroundTaskCanceledException("Lease on " + pairJob + " was lost");
+                                }
+                                if ( batch.rows != null ) {
+                                    write(batch.rows);
+                                }
+                                if ( batch.base == null ) {
+                                    return;
+                                }
+                                if ( pairJob != null && pairJobDao.complete(pairJob) == false ) {
+                                    throw new BackgroundTaskCanceledException("Lease on " + pairJob + " was lost");
+                                }
+                                setDao.markCollated(comparisonSet, batch.base, batch.witness);
+                                if ( batch.shared ) {
+                                    pairResultCache.record(comparisonSet, configKey, batch.base, tokenizations.get(batch.base.getId()), 
+                                        batch.witness, tokenizations.get(batch.witness.getId()));
+                                }
+                            }
+                        });
+                    }
+                    if ( batch.rows != null ) {
+                        recycle(batch.rows);
+                    }
+                    synchronized (this.lock) {
+                        this.written++;
+                        this.lock.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOG.info("Difference writer interrupted");
+            } catch (Throwable t) {
+                LOG.error("Difference writer FAILED", t);
+                this.writeError = t;
+                this.queue.clear();
+                synchronized (this.lock) {
+                    this.lock.notifyAll();
+                }
             }
         }
         
-        private Witness findWitness(Annotation a) {
+        @Override
+        protected long annotationId(Annotation annotation) {
+            final Long id = ((JuxtaAnnotation)annotation).getId();
+            return ( id == null ? UNSTORED : id );
+        }
+        
+        private Witness findWitness(Text text) {
             for ( Witness w : ComparisonSetCollator.this.witnessList) {
-                if ( w.getText().equals(a.getText()) ) {
+                if ( w.getText().equals(text) ) {
                     return w;
                 }
             }
-            LOG.error("No witness found for annotaion "+a.toString());
+            LOG.error("No witness found for text "+text.toString());
             return null;
         }
         
-        private JuxtaAnnotation toJxGapAnno( Annotation a) {
-            Witness w= findWitness(a);
-            return new JuxtaAnnotation(comparisonSet.getId(), w, this.gapName, a.getRange());
+        /**
+         * Create the gap annotations on one side of <code>rows</code>, one for
+         * each offset, in a single batch
+         * 
+         * @return The annotation IDs of the gaps by offset
+         */
+        private Map<Integer, Long> createGaps(Rows rows, Witness witness, boolean base) {
+            final Map<Integer, JuxtaAnnotation> gaps = new LinkedHashMap<Integer, JuxtaAnnotation>();
+            for ( int row = 0; row < rows.size(); row++ ) {
+                if ( base ? rows.isBaseGap(row) : rows.isWitnessGap(row) ) {
+                    final int offset = ( base ? rows.getBaseStart(row) : rows.getWitnessStart(row) );
+                    if ( gaps.containsKey(offset) == false ) {
+                        gaps.put(offset, new JuxtaAnnotation(comparisonSet.getId(), witness, this.gapName, new Range(offset, offset)));
+                    }
+                }
+            }
+            annotationDao.create( new ArrayList<JuxtaAnnotation>(gaps.values()) );
+            final Map<Integer, Long> ids = new HashMap<Integer, Long>();
+            for ( Map.Entry<Integer, JuxtaAnnotation> gap : gaps.entrySet() ) {
+                ids.put(gap.getKey(), gap.getValue().getId());
+            }
+            return ids;
         }
         
-        @Override
-        public void save() throws IOException {
-            LOG.info("Writing " + this.differences.size() +" differences");
-            Map<Range, JuxtaAnnotation>  baseGaps = new HashMap<Range, JuxtaAnnotation>();
-            Map<Range, JuxtaAnnotation>  witGaps = new HashMap<Range, JuxtaAnnotation>();
-            List<Alignment> alignments = new ArrayList<Alignment>(this.differences.size());
-            while ( this.differences.size() > 0 ) {
-                Difference diff = this.differences.remove(0);
-                
-                // grab base anno and convert it into a jx anno. If the anno is a gap
-                // ge sure a record for it is created once
-                final Annotation base = diff.getBase();
-                JuxtaAnnotation jxBase = null;
-                if (base.getName().equals(GAP_NAME)) {
-                    if ( baseGaps.containsKey( base.getRange()) == false) {
-                        jxBase = toJxGapAnno(base);
-                        Long id = annotationDao.create(jxBase);
-                        jxBase.setId( id );
-                        baseGaps.put(base.getRange(), jxBase);
-                    } else {
-                        jxBase = baseGaps.get(base.getRange());
+        /**
+         * Store the tokens of <code>rows</code> that an alignment refers to for the 
+         * first time. They go in a short transaction of their own, the tokenization 
+         * with the lower ID first, so collations that share witnesses lock the token
+         * keys in the same order and release them right away. A deadlock with
+         * another collation is retried.
+         * 
+         * @return The annotation IDs of the base and witness tokens by range
+         */
+        private List<Map<Range, Long>> storeTokens(final Rows rows, final Witness base, final Witness witness) {
+            final Tokenization baseTokens = tokenizations.get(base.getId());
+            final Tokenization witTokens = tokenizations.get(witness.getId());
+            final List<Range> baseRanges = new ArrayList<Range>();
+            final List<Range> witRanges = new ArrayList<Range>();
+            for ( int row = 0; row < rows.size(); row++ ) {
+                if ( rows.isBaseGap(row) == false && rows.getBaseAnnotationId(row) == UNSTORED ) {
+                    baseRanges.add( new Range(rows.getBaseStart(row), rows.getBaseEnd(row)) );
+                }
+                if ( rows.isWitnessGap(row) == false && rows.getWitnessAnnotationId(row) == UNSTORED ) {
+                    witRanges.add( new Range(rows.getWitnessStart(row), rows.getWitnessEnd(row)) );
+                }
+            }
+            
+            final TransactionCallback<List<Map<Range, Long>>> store = new TransactionCallback<List<Map<Range, Long>>>() {
+                @Override
+                public List<Map<Range, Long>> doInTransaction(TransactionStatus status) {
+                    if ( baseTokens.getId() < witTokens.getId() ) {
+                        final Map<Range, Long> baseIds = createTokens(baseTokens, baseRanges);
+                        return Arrays.asList(baseIds, createTokens(witTokens, witRanges));
                     }
-                } else {
-                    jxBase = (JuxtaAnnotation)base;
+                    final Map<Range, Long> witIds = createTokens(witTokens, witRanges);
+                    return Arrays.asList(createTokens(baseTokens, baseRanges), witIds);
                 }
-
-                // grab witness anno and convert it into a jx anno. If the anno is a gap
-                // ge sure a record for it is created once
-                final Annotation wit = diff.getWitness();
-                JuxtaAnnotation jxWit = null;
-                if (wit.getName().equals(GAP_NAME)) {
-                    if ( witGaps.containsKey( wit.getRange()) == false) {
-                        jxWit = toJxGapAnno(wit);
-                        Long id = annotationDao.create(jxWit);
-                        jxWit.setId( id );
-                        witGaps.put(wit.getRange(), jxWit);
-                    } else {
-                        jxWit = witGaps.get(wit.getRange());
+            };
+            for ( int attempt = 1; ; attempt++ ) {
+                try {
+                    return this.tokenTransaction.execute(store);
+                } catch (ConcurrencyFailureException e) {
+                    if ( attempt == TOKEN_ATTEMPTS ) {
+                        throw e;
                     }
-                } else {
-                    jxWit = (JuxtaAnnotation)wit;
+                    LOG.info("Retrying tokens of " + base + " vs. " + witness + ": " + e.getMessage());
+                }
+            }
+        }
+        
+        private Map<Range, Long> createTokens(final Tokenization tokenization, final List<Range> ranges) {
+            if ( ranges.isEmpty() ) {
+                return Collections.emptyMap();
+            }
+            return annotationDao.createTokens(tokenization, ranges);
+        }
+        
+        private void write(final Rows rows) {
+            final int size = rows.size();
+            LOG.info("Writing " + size +" differences");
+            
+            final Witness base = findWitness(rows.getBaseText());
+            final Witness witness = findWitness(rows.getWitnessText());
+            Map<Integer, Long> baseGaps = createGaps(rows, base, true);
+            Map<Integer, Long> witGaps = createGaps(rows, witness, false);
+            final List<Map<Range, Long>> tokens = storeTokens(rows, base, witness);
+            Map<Range, Long> baseTokens = tokens.get(0);
+            Map<Range, Long> witTokens = tokens.get(1);
+            List<Alignment> alignments = new ArrayList<Alignment>(size);
+            for ( int row = 0; row < size; row++ ) {
+                
+                // gaps and tokens not stored before were created above
+                Long baseAnnoId = rows.getBaseAnnotationId(row);
+                if ( rows.isBaseGap(row) ) {
+                    baseAnnoId = baseGaps.get(rows.getBaseStart(row));
+                } else if ( baseAnnoId == UNSTORED ) {
+                    baseAnnoId = baseTokens.get( new Range(rows.getBaseStart(row), rows.getBaseEnd(row)) );
+                }
+                Long witAnnoId = rows.getWitnessAnnotationId(row);
+                if ( rows.isWitnessGap(row) ) {
+                    witAnnoId = witGaps.get(rows.getWitnessStart(row));
+                } else if ( witAnnoId == UNSTORED ) {
+                    witAnnoId = witTokens.get( new Range(rows.getWitnessStart(row), rows.getWitnessEnd(row)) );
                 }
                 
                 // create an aligment with the converted/created annotations
                 Name name = this.changeName;
-                if ( diff.getType().equals(Difference.Type.ADD_DEL)) {
+                if ( rows.getType(row).equals(Difference.Type.ADD_DEL)) {
                     name = this.addDelName;
                 }
-                Alignment align =  new Alignment(comparisonSet.getId(), diff.getGroup(), name,  
-                    jxBase, jxWit, diff.getEditDistance());
+                Alignment align = new Alignment();
+                align.setComparisonSetId(comparisonSet.getId());
+                align.setGroup(rows.getGroup(row));
+                align.setName(name);
+                align.setEditDistance(rows.getEditDistance(row));
+                align.addAnnotation( new AlignedAnnotation(rows.isBaseGap(row) ? this.gapName : this.tokenName, 
+                    base.getId(), baseAnnoId, new Range(rows.getBaseStart(row), rows.getBaseEnd(row))) );
+                align.addAnnotation( new AlignedAnnotation(rows.isWitnessGap(row) ? this.gapName : this.tokenName, 
+                    witness.getId(), witAnnoId, new Range(rows.getWitnessStart(row), rows.getWitnessEnd(row))) );
                 alignments.add( align );
             }           
 
             
-            // create the batch of alignments
-            int created =0;
-            try {
-                created = ComparisonSetCollator.this.alignmentDao.create(alignments);
-            } catch (Exception e) {
-                LOG.error("Error creating alignments", e);
-            }
+            // create the batch of alignments. A failure here stops the writer
+            // and is reported to the collating thread
+            int created = ComparisonSetCollator.this.alignmentDao.create(alignments);
             if ( created != alignments.size() ) {
                 LOG.error("Unable to create entries for all alignments. Expected count: "
                     +alignments.size()+", Actual: "+created);
@@ -332,7 +1209,27 @@ public class ComparisonSetCollator extends DiffCollator {
             // wipe out the cached data to be ready for the next round
             alignments.clear();
             alignments = null;
-            this.differences.clear();
+        }
+    }
+    
+    /**
+     * Differences queued for the writer. The last batch of a pair names the 
+     * pair and may have no rows.
+     */
+    private static final class Batch {
+        // stops the writer
+        private static final Batch STOP = new Batch(null, null, null, false);
+        
+        private final DifferenceBuffer.Rows rows;
+        private final Witness base;
+        private final Witness witness;
+        private final boolean shared;
+        
+        private Batch(DifferenceBuffer.Rows rows, Witness base, Witness witness, boolean shared) {
+            this.rows = rows;
+            this.base = base;
+            this.witness = witness;
+            this.shared = shared;
         }
     }
 }
@@ -0,0 +1,111 @@
+package org.juxtasoftware.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang.StringUtils;
+import org.juxtasoftware.Constants;
+import org.juxtasoftware.dao.ComparisonSetDao;
+import org.juxtasoftware.dao.PairJobDao;
+import org.juxtasoftware.dao.WitnessDao;
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.PairJob;
+import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.util.BackgroundTaskStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationContext;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs pair jobs from the queue shared by all nodes of a distributed 
+ * collation. Idle collate threads of this node lease jobs of any set, and
+ * the leases of running jobs are renewed until the pair is done. A job 
+ * whose lease is lost to another node is halted.
+ */
+@Service
+public class PairJobRunner {
+    private static final Logger LOG = LoggerFactory.getLogger( Constants.WS_LOGGER_NAME );
+    
+    @Autowired private PairJobDao pairJobDao;
+    @Autowired private ComparisonSetDao setDao;
+    @Autowired private WitnessDao witnessDao;
+    @Autowired private ApplicationContext context;
+    @Autowired @Qualifier("collate-executor") private ThreadPoolTaskExecutor collateExecutor;
+    @Autowired private Boolean distributedCollation;
+    @Autowired private Integer pairJobLease;
+    @Autowired private Integer pairJobAttempts;
+    
+    private final Map<PairJob, ComparisonSetCollator> running = new ConcurrentHashMap<PairJob, ComparisonSetCollator>();
+    private final AtomicInteger starting = new AtomicInteger();
+    
+    /**
+     * Lease jobs for the collate threads that are idle
+     */
+    @Scheduled(fixedDelay=5000)
+    public void leaseJobs() {
+        if ( this.distributedCollation == false ) {
+            return;
+        }
+        while ( this.collateExecutor.getActiveCount() + this.starting.get() < this.collateExecutor.getMaxPoolSize() ) {
+            final PairJob job = this.pairJobDao.lease(null, this.pairJobLease, this.pairJobAttempts);
+            if ( job == null ) {
+                return;
+            }
+            this.starting.incrementAndGet();
+            this.collateExecutor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    starting.decrementAndGet();
+                    runJob(job);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Renew the leases of the running jobs well before they expire
+     */
+    @Scheduled(fixedRate=30000)
+    public void renewLeases() {
+        for ( Map.Entry<PairJob, ComparisonSetCollator> entry : this.running.entrySet() ) {
+            if ( this.pairJobDao.renew(entry.getKey(), this.pairJobLease) == false ) {
+                LOG.warn("Lease on " + entry.getKey() + " was lost; halting it");
+                entry.getValue().halt();
+            }
+        }
+    }
+    
+    /**
+     * Collate the pair of a leased <code>job</code> in the calling thread. A 
+     * failed job is released to be tried again, possibly by another node.
+     */
+    public void runJob( final PairJob job ) {
+        final ComparisonSet set = this.setDao.find(job.getSetId());
+        final Witness base = this.witnessDao.find(job.getBaseId());
+        final Witness witness = this.witnessDao.find(job.getWitnessId());
+        if ( set == null || set.getStatus().equals(ComparisonSet.Status.DELETED) || base == null || witness == null ) {
+            LOG.info("Dropping " + job + " of a deleted set or witness");
+            this.pairJobDao.complete(job);
+            return;
+        }
+        
+        final ComparisonSetCollator collator = this.context.getBean(ComparisonSetCollator.class);
+        this.running.put(job, collator);
+        try {
+            LOG.info("Running " + job + " (attempt " + job.getAttempts() + ")");
+            collator.collateJob(set, this.setDao.getCollatorConfig(set), job, base, witness, 
+                new BackgroundTaskStatus(job.toString()));
+        } catch ( Exception e ) {
+            LOG.error(job + " failed", e);
+            this.pairJobDao.release(job, StringUtils.abbreviate(e.toString(), 255), this.pairJobAttempts);
+        } finally {
+            this.running.remove(job);
+        }
+    }
+}
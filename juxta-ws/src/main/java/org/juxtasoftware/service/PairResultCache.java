@@ -0,0 +1,255 @@
+package org.juxtasoftware.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.juxtasoftware.Constants;
+import org.juxtasoftware.dao.AlignmentDao;
+import org.juxtasoftware.dao.ComparisonSetDao;
+import org.juxtasoftware.dao.JuxtaAnnotationDao;
+import org.juxtasoftware.dao.PairJobDao;
+import org.juxtasoftware.dao.PairResultDao;
+import org.juxtasoftware.model.Alignment;
+import org.juxtasoftware.model.Alignment.AlignedAnnotation;
+import org.juxtasoftware.model.AlignmentConstraint;
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.PairJob;
+import org.juxtasoftware.model.PairResult;
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.util.BackgroundTaskCanceledException;
+import org.juxtasoftware.util.QNameFilters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.interedition.text.Name;
+import eu.interedition.text.NameRepository;
+import eu.interedition.text.Range;
+
+/**
+ * Alignments of witness pairs, shared between comparison sets by content.
+ * When a set collates two texts that another set has already collated with
+ * the same settings, the alignments of that set are copied rather than
+ * diffing the texts again. Tokens of the same witness are shared, so their
+ * annotation IDs are kept; tokens of other witnesses with the same text are
+ * matched by range, and stored as annotations if they are not yet. Gaps
+ * belong to a set and are created anew.
+ * <p/>
+ * Pairs with transpositions are not shared, as their alignments depend
+ * on the transpositions of the set.
+ */
+@Service
+public class PairResultCache {
+    private static final Logger LOG = LoggerFactory.getLogger( Constants.WS_LOGGER_NAME );
+
+    @Autowired private PairResultDao pairResultDao;
+    @Autowired private PairJobDao pairJobDao;
+    @Autowired private ComparisonSetDao setDao;
+    @Autowired private AlignmentDao alignmentDao;
+    @Autowired private JuxtaAnnotationDao annotationDao;
+    @Autowired private NameRepository nameRepository;
+    @Autowired private QNameFilters filters;
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired private Integer collationBatchSize;
+
+    /**
+     * Complete the pair <code>base</code> and <code>witness</code> of <code>set</code>
+     * without diffing, if the texts are identical or a completed pair with the
+     * same texts and settings exists. The copy, the pair progress and the
+     * record of this pair are written in one transaction, which also removes
+     * the <code>job</code> of a distributed collation, if any.
+     *
+     * @return true if the pair is complete
+     * @throws BackgroundTaskCanceledException if the lease on the job was lost
+     */
+    public boolean copy(final ComparisonSet set, final String configKey,
+        final Witness base, final Tokenization baseTokens, final Witness witness, final Tokenization witnessTokens,
+        final PairJob job) {
+        final String baseHash = baseTokens.getContentHash();
+        final String witnessHash = witnessTokens.getContentHash();
+        if ( baseHash == null || witnessHash == null ) {
+            return false;
+        }
+
+        final TransactionTemplate tx = new TransactionTemplate(this.transactionManager);
+        try {
+            return copyInTransaction(tx, set, configKey, base, baseTokens, witness, witnessTokens, job);
+        } catch (IllegalStateException e) {
+            // tokens changed under the copy; nothing was written
+            LOG.warn("Unable to copy " + base + " vs. " + witness + ": " + e.getMessage());
+            return false;
+        }
+    }
+    
+    private boolean copyInTransaction(final TransactionTemplate tx, final ComparisonSet set, final String configKey,
+        final Witness base, final Tokenization baseTokens, final Witness witness, final Tokenization witnessTokens,
+        final PairJob job) {
+        final String baseHash = baseTokens.getContentHash();
+        final String witnessHash = witnessTokens.getContentHash();
+        return tx.execute(new TransactionCallback<Boolean>() {
+            @Override
+            public Boolean doInTransaction(TransactionStatus status) {
+                // identical texts have no differences
+                if ( baseHash.equals(witnessHash) == false ) {
+                    final PairResult source = pairResultDao.find(configKey, baseHash, witnessHash);
+                    if ( source == null ) {
+                        return false;
+                    }
+                    LOG.info("Copying " + base + " vs. " + witness + " from " + source);
+                    copyAlignments(source, set, base, baseTokens, witness, witnessTokens);
+                }
+                if ( job != null && pairJobDao.complete(job) == false ) {
+                    throw new BackgroundTaskCanceledException("Lease on " + job + " was lost");
+                }
+                setDao.markCollated(set, base, witness);
+                record(set, configKey, base, baseTokens, witness, witnessTokens);
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Record the completed pair <code>base</code> and <code>witness</code> of
+     * <code>set</code> for use by other sets. Call this in the transaction
+     * that stores the last alignments of the pair.
+     */
+    public void record(final ComparisonSet set, final String configKey,
+        final Witness base, final Tokenization baseTokens, final Witness witness, final Tokenization witnessTokens) {
+        if ( baseTokens.getContentHash() == null || witnessTokens.getContentHash() == null ) {
+            return;
+        }
+        PairResult result = new PairResult();
+        result.setSetId(set.getId());
+        result.setBaseId(base.getId());
+        result.setWitnessId(witness.getId());
+        result.setBaseHash(baseTokens.getContentHash());
+        result.setWitnessHash(witnessTokens.getContentHash());
+        result.setConfigKey(configKey);
+        this.pairResultDao.create(result);
+    }
+
+    private void copyAlignments(final PairResult source, final ComparisonSet set,
+        final Witness base, final Tokenization baseTokens, final Witness witness, final Tokenization witnessTokens) {
+
+        // the source pair may have been collated the other way round
+        final Map<Long, Witness> targets = new HashMap<Long, Witness>();
+        final Map<Long, Tokenization> targetTokens = new HashMap<Long, Tokenization>();
+        final boolean sameOrder = source.getBaseHash().equals(baseTokens.getContentHash());
+        targets.put(source.getBaseId(), sameOrder ? base : witness);
+        targets.put(source.getWitnessId(), sameOrder ? witness : base);
+        targetTokens.put(source.getBaseId(), sameOrder ? baseTokens : witnessTokens);
+        targetTokens.put(source.getWitnessId(), sameOrder ? witnessTokens : baseTokens);
+
+        final AlignmentConstraint constraint = new AlignmentConstraint( this.setDao.find(source.getSetId()) );
+        constraint.setFilter( this.filters.getDifferencesFilter() );
+        constraint.addWitnessIdFilter( source.getBaseId() );
+        constraint.addWitnessIdFilter( source.getWitnessId() );
+
+        final Name gapName = this.nameRepository.get(Constants.GAP_NAME);
+        final Map<Long, Map<Range, Long>> tokenIds = new HashMap<Long, Map<Range, Long>>();
+        final Map<Long, Map<Integer, Long>> gapIds = new HashMap<Long, Map<Integer, Long>>();
+        final List<Alignment> sources = new ArrayList<Alignment>( this.collationBatchSize );
+        for ( Alignment src : this.alignmentDao.list(constraint) ) {
+            if ( src.isManual() ) {
+                continue;
+            }
+            sources.add(src);
+            if ( sources.size() == this.collationBatchSize ) {
+                copyBatch(sources, set, targets, targetTokens, gapName, tokenIds, gapIds);
+                sources.clear();
+            }
+        }
+        if ( sources.isEmpty() == false ) {
+            copyBatch(sources, set, targets, targetTokens, gapName, tokenIds, gapIds);
+        }
+    }
+    
+    private void copyBatch(final List<Alignment> sources, final ComparisonSet set, 
+        final Map<Long, Witness> targets, final Map<Long, Tokenization> targetTokens, final Name gapName,
+        final Map<Long, Map<Range, Long>> tokenIds, final Map<Long, Map<Integer, Long>> gapIds) {
+        
+        // new gaps, and the tokens of the other witness, are created for the whole batch at once
+        final List<JuxtaAnnotation> newGaps = new ArrayList<JuxtaAnnotation>();
+        final Map<Long, List<Range>> unknown = new HashMap<Long, List<Range>>();
+        for ( Alignment src : sources ) {
+            for ( AlignedAnnotation anno : src.getAnnotations() ) {
+                final Witness target = targets.get(anno.getWitnessId());
+                if ( anno.getRange().length() == 0 ) {
+                    final Map<Integer, Long> gaps = gapsOf(gapIds, target);
+                    final int offset = (int)anno.getRange().getStart();
+                    if ( gaps.containsKey(offset) == false ) {
+                        gaps.put(offset, null);
+                        newGaps.add( new JuxtaAnnotation(set.getId(), target, gapName, anno.getRange()) );
+                    }
+                    continue;
+                }
+                if ( target.getId().equals(anno.getWitnessId()) ) {
+                    continue;
+                }
+                Map<Range, Long> ids = tokenIds.get(target.getId());
+                if ( ids != null && ids.containsKey(anno.getRange()) ) {
+                    continue;
+                }
+                List<Range> ranges = unknown.get(anno.getWitnessId());
+                if ( ranges == null ) {
+                    ranges = new ArrayList<Range>();
+                    unknown.put(anno.getWitnessId(), ranges);
+                }
+                ranges.add(anno.getRange());
+            }
+        }
+        for ( Map.Entry<Long, List<Range>> entry : unknown.entrySet() ) {
+            final Witness target = targets.get(entry.getKey());
+            Map<Range, Long> ids = tokenIds.get(target.getId());
+            if ( ids == null ) {
+                ids = new HashMap<Range, Long>();
+                tokenIds.put(target.getId(), ids);
+            }
+            ids.putAll( this.annotationDao.createTokens(targetTokens.get(entry.getKey()), entry.getValue()) );
+        }
+        this.annotationDao.create(newGaps);
+        for ( JuxtaAnnotation gap : newGaps ) {
+            gapIds.get(gap.getWitnessId()).put((int)gap.getRange().getStart(), gap.getId());
+        }
+        
+        final List<Alignment> batch = new ArrayList<Alignment>( sources.size() );
+        for ( Alignment src : sources ) {
+            Alignment align = new Alignment();
+            align.setComparisonSetId(set.getId());
+            align.setGroup(src.getGroup());
+            align.setName(src.getName());
+            align.setEditDistance(src.getEditDistance());
+            for ( AlignedAnnotation anno : src.getAnnotations() ) {
+                final Witness target = targets.get(anno.getWitnessId());
+                final Range range = anno.getRange();
+                Long id = anno.getId();
+                if ( range.length() == 0 ) {
+                    id = gapIds.get(target.getId()).get((int)range.getStart());
+                } else if ( target.getId().equals(anno.getWitnessId()) == false ) {
+                    id = tokenIds.get(target.getId()).get(range);
+                }
+                align.addAnnotation( new AlignedAnnotation(anno.getQName(), target.getId(), id, range) );
+            }
+            batch.add(align);
+        }
+        this.alignmentDao.create(batch);
+    }
+
+    private static Map<Integer, Long> gapsOf(Map<Long, Map<Integer, Long>> gapIds, Witness witness) {
+        Map<Integer, Long> gaps = gapIds.get(witness.getId());
+        if ( gaps == null ) {
+            gaps = new HashMap<Integer, Long>();
+            gapIds.put(witness.getId(), gaps);
+        }
+        return gaps;
+    }
+}
@@ -4,14 +4,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
 
 import org.juxtasoftware.dao.JuxtaAnnotationDao;
 import org.juxtasoftware.diff.Token;
 import org.juxtasoftware.diff.TokenSource;
 import org.juxtasoftware.diff.impl.SimpleToken;
 import org.juxtasoftware.model.AnnotationConstraint;
-import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
 import org.juxtasoftware.model.JuxtaAnnotation;
 import org.juxtasoftware.model.QNameFilter;
 
@@ -19,26 +18,43 @@ import eu.interedition.text.Range;
 import eu.interedition.text.Text;
 
 /**
- * Source of token annotations to be used by the diff collator
+ * Source of token annotations to be used by the diff collator. When given
+ * a {@link TokenCache}, the normalized tokens are shared by all the pairs
+ * of a collation.
  */
 public class RepositoryTokenSource implements TokenSource {
     private final TokenizerConfiguration config;
     private final JuxtaAnnotationDao annotationDao;
     private final QNameFilter tokenFilter;
     private final Long setId;
-    
-    // anything thats not alnum or hyphen is consdered punctuation here
-    private static final Pattern PUNCTUATION = Pattern.compile("[^a-zA-Z0-9\\-]");
+    private final TokenCache tokenCache;
 
     public RepositoryTokenSource( TokenizerConfiguration config, Long setId, JuxtaAnnotationDao annoDao, QNameFilter tokenFilter) {
+        this(config, setId, annoDao, tokenFilter, null);
+    }
+    
+    public RepositoryTokenSource( TokenizerConfiguration config, Long setId, JuxtaAnnotationDao annoDao, QNameFilter tokenFilter, TokenCache tokenCache) {
         this.config = config;
         this.annotationDao = annoDao;
         this.tokenFilter = tokenFilter;
         this.setId = setId;
+        this.tokenCache = tokenCache;
     }
 
     @Override
-    public List<Token> tokensOf(Text text, Set<Range> ranges) throws IOException {        
+    public List<Token> tokensOf(final Text text, final Set<Range> ranges) throws IOException {
+        if ( this.tokenCache == null ) {
+            return readTokens(text, ranges);
+        }
+        return this.tokenCache.get(new TokenCache.Key(this.setId, text, ranges, this.config), new Callable<List<Token>>() {
+            @Override
+            public List<Token> call() throws Exception {
+                return readTokens(text, ranges);
+            }
+        });
+    }
+    
+    private List<Token> readTokens(Text text, Set<Range> ranges) {        
         List<Token> tokens = new ArrayList<Token>();
         AnnotationConstraint constraint = new AnnotationConstraint(this.setId, text);
         constraint.setFilter( this.tokenFilter );
@@ -47,40 +63,11 @@ public class RepositoryTokenSource implements TokenSource {
         }
         constraint.setIncludeText(true);
         List<JuxtaAnnotation> annos = this.annotationDao.list(constraint) ;
+        TokenNormalizer normalizer = new TokenNormalizer(this.config);
         for ( JuxtaAnnotation anno : annos ) {
-            String tokenText = anno.getContent();
-            
-            if ( this.config.getHyphenationFilter().equals(HyphenationFilter.FILTER_ALL)  ) {
-                if ( tokenText.contains("-")) {
-                    String[] bits = tokenText.split("-");
-                    if (bits.length == 2) {
-                        tokenText = bits[0].trim() + bits[1].trim();
-                    }
-                }
-            } else if ( this.config.getHyphenationFilter().equals(HyphenationFilter.FILTER_LINEBREAK)  ) {
-                if ( tokenText.contains("-") && (tokenText.indexOf(10) > -1) || tokenText.indexOf(13) > -1) {
-                    String[] bits = tokenText.split("-");
-                    if (bits.length == 2) {
-                        tokenText = bits[0].trim() + bits[1].trim();
-                    }
-                }   
-            }
-            
-            if ( this.config.isFilterCase()) {
-                tokenText = tokenText.toLowerCase();
-            }
-            if ( this.config.getHyphenationFilter().equals(HyphenationFilter.FILTER_ALL)) {
-                tokenText = tokenText.replaceAll("-", "");
-            }
-            if ( this.config.isFilterPunctuation() ) {
-                tokenText = PUNCTUATION.matcher(tokenText).replaceAll("");
-            }
-            if ( this.config.isFilterWhitespace() ) {
-                tokenText = tokenText.trim().replaceAll("\\s+", " ");
-            }
-            
+            String tokenText = normalizer.normalize(anno.getContent());
             if ( tokenText.length() > 0 ) {
-                tokens.add(new SimpleToken(anno, tokenText));
+                tokens.add(new SimpleToken(anno, tokenText, normalizer.hash()));
             }
         }
         return tokens;
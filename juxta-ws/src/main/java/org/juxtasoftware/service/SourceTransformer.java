@@ -26,7 +26,9 @@ import org.juxtasoftware.dao.JuxtaXsltDao;
 import org.juxtasoftware.dao.NoteDao;
 import org.juxtasoftware.dao.PageMarkDao;
 import org.juxtasoftware.dao.SourceDao;
+import org.juxtasoftware.Constants;
 import org.juxtasoftware.dao.WitnessDao;
+import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.JuxtaXslt;
 import org.juxtasoftware.model.Note;
 import org.juxtasoftware.model.PageMark;
@@ -35,11 +37,17 @@ import org.juxtasoftware.model.Source;
 import org.juxtasoftware.model.Witness;
 import org.juxtasoftware.util.HtmlUtils;
 import org.juxtasoftware.util.WikiTextUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -54,12 +62,15 @@ import eu.interedition.text.TextRepository;
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
 @Transactional
 public class SourceTransformer {
+    private static final Logger LOG = LoggerFactory.getLogger(Constants.WS_LOGGER_NAME);
     @Autowired private TextRepository textRepository;
     @Autowired private WitnessDao witnessDao;
     @Autowired private JuxtaXsltDao xsltDao;
     @Autowired private NoteDao noteDao;
     @Autowired private PageMarkDao pbDao;
     @Autowired private SourceDao sourceDao;
+    @Autowired private Tokenizer tokenizer;
+    @Autowired @Qualifier("executor") private TaskExecutor taskExecutor;
 
     /**
      * RE-run the transform of <code>srcDoc</code> into a prior witness
@@ -107,9 +118,11 @@ public class SourceTransformer {
         this.witnessDao.updateContent(origWit, parsedContent);
         
         // extract pb, note and revision tags of xml documents
+        Witness updated = this.witnessDao.find(origWit.getId());
         if ( xslt != null ) {
-            extractSpecialTags(srcDoc, this.witnessDao.find(origWit.getId()), xslt );
+            extractSpecialTags(srcDoc, updated, xslt );
         }
+        tokenizeLater(updated);
     }
     
     /**
@@ -159,10 +172,42 @@ public class SourceTransformer {
         if ( xslt != null ) {
             extractSpecialTags(srcDoc, witness, xslt);
         }
+        tokenizeLater(witness);
         
         return id;
     }
     
+    /**
+     * Tokenize the new text of <code>witness</code> in the background once the
+     * transform has been committed, so adding it to a comparison set does not
+     * have to wait for its tokens. The default hyphenation handling is assumed;
+     * sets configured otherwise tokenize the witness again when they are collated.
+     * 
+     * @param witness
+     */
+    private void tokenizeLater(final Witness witness) {
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SourceTransformer.this.tokenizer.tokenize(witness, new CollatorConfig().getHyphenationFilter());
+                } catch (Exception e) {
+                    LOG.warn("Background tokenization of witness " + witness.getId() + " failed", e);
+                }
+            }
+        };
+        if ( TransactionSynchronizationManager.isSynchronizationActive() ) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    SourceTransformer.this.taskExecutor.execute(task);
+                }
+            });
+        } else {
+            this.taskExecutor.execute(task);
+        }
+    }
+    
     private Text doWikiTransform(Source srcDoc) throws IOException {
         File htmlOut = WikiTextUtils.toTxt( new ReaderInputStream(this.sourceDao.getContentReader(srcDoc), "UTF-8") );
         FileInputStream fis = new FileInputStream(htmlOut);
@@ -0,0 +1,174 @@
+package org.juxtasoftware.service;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.juxtasoftware.diff.Token;
+
+import com.google.common.base.Objects;
+
+import eu.interedition.text.Range;
+import eu.interedition.text.Text;
+
+/**
+ * Normalized tokens of the witnesses in one collation. Every witness takes
+ * part in n-1 pairs, but its tokens only need to be read and normalized once.
+ * Token lists are evicted least recently used first once their estimated
+ * size exceeds the limit. Concurrent requests for a list that is still
+ * loading wait for that load rather than starting their own.
+ */
+public class TokenCache {
+    private static final long MB = 1024L * 1024L;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, List<Token>> entries = new LinkedHashMap<Key, List<Token>>(16, 0.75f, true);
+    private final Map<Key, FutureTask<List<Token>>> loading = new HashMap<Key, FutureTask<List<Token>>>();
+    private long bytes;
+    private int hits;
+    private int misses;
+    private int evictions;
+
+    public TokenCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the tokens for <code>key</code>, calling the loader if they are not cached
+     */
+    public List<Token> get(Key key, Callable<List<Token>> loader) throws IOException {
+        FutureTask<List<Token>> task;
+        boolean load = false;
+        synchronized (this) {
+            final List<Token> tokens = this.entries.get(key);
+            if ( tokens != null ) {
+                this.hits++;
+                return tokens;
+            }
+            task = this.loading.get(key);
+            if ( task == null ) {
+                this.misses++;
+                task = new FutureTask<List<Token>>(loader);
+                this.loading.put(key, task);
+                load = true;
+            } else {
+                this.hits++;
+            }
+        }
+
+        if ( load ) {
+            task.run();
+        }
+        try {
+            final List<Token> tokens = Collections.unmodifiableList(task.get());
+            if ( load ) {
+                put(key, tokens);
+            }
+            return tokens;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading tokens", e);
+        } catch (ExecutionException e) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException)e.getCause();
+            } else if ( e.getCause() instanceof RuntimeException ) {
+                throw (RuntimeException)e.getCause();
+            } else if ( e.getCause() instanceof Error ) {
+                throw (Error)e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            if ( load ) {
+                synchronized (this) {
+                    this.loading.remove(key);
+                }
+            }
+        }
+    }
+
+    private synchronized void put(Key key, List<Token> tokens) {
+        final long size = estimate(tokens);
+        if ( size > this.maxBytes ) {
+            return;
+        }
+        this.entries.put(key, tokens);
+        this.bytes += size;
+        for (Iterator<List<Token>> itr = this.entries.values().iterator(); this.bytes > this.maxBytes && itr.hasNext(); ) {
+            this.bytes -= estimate(itr.next());
+            itr.remove();
+            this.evictions++;
+        }
+    }
+
+    private static long estimate(List<Token> tokens) {
+        return tokens.size() * CollationMemoryGovernor.BYTES_PER_TOKEN;
+    }
+
+    public synchronized int getHits() {
+        return this.hits;
+    }
+
+    public synchronized int getMisses() {
+        return this.misses;
+    }
+
+    public synchronized int getEvictions() {
+        return this.evictions;
+    }
+
+    synchronized long getBytes() {
+        return this.bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return this.hits + " hits, " + this.misses + " misses, " + this.evictions + " evictions, ~"
+            + (this.bytes / MB) + " of " + (this.maxBytes / MB) + " MB in use";
+    }
+
+    /**
+     * Identifies the tokens of a range of witness text, normalized with
+     * a given tokenizer configuration
+     */
+    public static final class Key {
+        private final Long setId;
+        private final Text text;
+        private final Set<Range> ranges;
+        private final String normalization;
+
+        public Key(Long setId, Text text, Set<Range> ranges, TokenizerConfiguration config) {
+            this.setId = setId;
+            this.text = text;
+            this.ranges = new HashSet<Range>(ranges);
+            this.normalization = config.getHyphenationFilter() + "/" + config.isFilterCase() + "/"
+                + config.isFilterPunctuation() + "/" + config.isFilterWhitespace();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(this.setId, this.text, this.ranges, this.normalization);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return Objects.equal(this.setId, other.setId) && Objects.equal(this.text, other.text)
+                && this.ranges.equals(other.ranges) && this.normalization.equals(other.normalization);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.juxtasoftware.service;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
+
+/**
+ * Normalizes the text of tokens for comparison, as configured by a
+ * {@link TokenizerConfiguration}. In order, the normalization
+ * <ol>
+ * <li>joins the two parts of a hyphenated word (all of them, or only those
+ * broken across lines), trimming each part</li>
+ * <li>lower cases the text</li>
+ * <li>removes all hyphens</li>
+ * <li>removes anything that is not an ASCII letter, digit or hyphen</li>
+ * <li>trims the text and collapses runs of whitespace into one space</li>
+ * </ol>
+ * The settings are resolved once, and each token is normalized in a single
+ * pass into a reused buffer that also computes the hash of the result. Texts
+ * whose lower case depends on context or locale take the slower path through
+ * {@link String#toLowerCase()}. Not thread safe.
+ */
+final class TokenNormalizer {
+    // anything thats not alnum or hyphen is consdered punctuation here
+    private static final Pattern PUNCTUATION = Pattern.compile("[^a-zA-Z0-9\\-]");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final boolean joinAll;
+    private final boolean joinLinebreaks;
+    private final boolean filterCase;
+    private final boolean filterHyphens;
+    private final boolean filterPunctuation;
+    private final boolean filterWhitespace;
+    private final boolean localeCase;
+
+    private char[] buffer = new char[64];
+    private int length;
+    private int hash;
+
+    TokenNormalizer(TokenizerConfiguration config) {
+        this.joinAll = HyphenationFilter.FILTER_ALL.equals(config.getHyphenationFilter());
+        this.joinLinebreaks = HyphenationFilter.FILTER_LINEBREAK.equals(config.getHyphenationFilter());
+        this.filterCase = config.isFilterCase();
+        this.filterHyphens = this.joinAll;
+        this.filterPunctuation = config.isFilterPunctuation();
+        this.filterWhitespace = config.isFilterWhitespace();
+        final String language = Locale.getDefault().getLanguage();
+        this.localeCase = ( "tr".equals(language) || "az".equals(language) || "lt".equals(language) );
+    }
+
+    /**
+     * Normalize <code>text</code>. Its {@link String#hashCode() hash} is
+     * available from {@link #hash()} afterwards.
+     *
+     * @return the normalized text; empty if nothing is left of it
+     */
+    String normalize(final String text) {
+        final int textLength = text.length();
+        int firstHyphen = -1;
+        int hyphens = 0;
+        boolean linebreak = false;
+        boolean special = false;
+        for ( int i = 0; i < textLength; i++ ) {
+            final char c = text.charAt(i);
+            if ( c == '-' ) {
+                if ( firstHyphen < 0 ) {
+                    firstHyphen = i;
+                }
+                hyphens++;
+            } else if ( c == '\n' || c == '\r' ) {
+                linebreak = true;
+            } else if ( c == '\u0130' || c == '\u03a3' || (c >= '\ud800' && c <= '\udfff') ) {
+                // dotted capital I, capital sigma and surrogates
+                special = true;
+            }
+        }
+        if ( this.filterCase && (special || this.localeCase) ) {
+            return normalizeSlowly(text);
+        }
+
+        this.length = 0;
+        this.hash = 0;
+        this.inWhitespace = false;
+        this.trimmedLength = 0;
+        this.trimmedHash = 0;
+
+        // a hyphenated word is split at its hyphen, ignoring trailing hyphens
+        if ( hyphens > 0 && (this.joinAll || (this.joinLinebreaks && linebreak)) ) {
+            int end = textLength;
+            while ( end > 0 && text.charAt(end - 1) == '-' ) {
+                end--;
+                hyphens--;
+            }
+            if ( end > 0 && hyphens == 1 ) {
+                appendTrimmed(text, 0, firstHyphen);
+                appendTrimmed(text, firstHyphen + 1, end);
+                return result();
+            }
+        }
+        append(text, 0, textLength);
+        return result();
+    }
+
+    /**
+     * @return the hash of the text last normalized, as computed by {@link String#hashCode()}
+     */
+    int hash() {
+        return this.hash;
+    }
+
+    // whitespace filter state: whether the last char was part of a
+    // whitespace run, and the result up to its last char above space
+    private boolean inWhitespace;
+    private int trimmedLength;
+    private int trimmedHash;
+
+    private void appendTrimmed(String text, int start, int end) {
+        while ( start < end && text.charAt(start) <= ' ' ) {
+            start++;
+        }
+        while ( end > start && text.charAt(end - 1) <= ' ' ) {
+            end--;
+        }
+        append(text, start, end);
+    }
+
+    private void append(String text, int start, int end) {
+        for ( int i = start; i < end; i++ ) {
+            char c = text.charAt(i);
+            if ( this.filterCase ) {
+                c = Character.toLowerCase(c);
+            }
+            if ( c == '-' ) {
+                if ( this.filterHyphens ) {
+                    continue;
+                }
+            } else if ( this.filterPunctuation && isAsciiAlphanumeric(c) == false ) {
+                continue;
+            }
+            if ( this.filterWhitespace ) {
+                if ( c <= ' ' && this.trimmedLength == 0 ) {
+                    // leading whitespace is trimmed
+                    continue;
+                }
+                if ( isRegexWhitespace(c) ) {
+                    if ( this.inWhitespace ) {
+                        continue;
+                    }
+                    this.inWhitespace = true;
+                    c = ' ';
+                } else {
+                    this.inWhitespace = false;
+                }
+            }
+            put(c);
+        }
+    }
+
+    private void put(char c) {
+        if ( this.length == this.buffer.length ) {
+            final char[] grown = new char[this.buffer.length * 2];
+            System.arraycopy(this.buffer, 0, grown, 0, this.length);
+            this.buffer = grown;
+        }
+        this.buffer[this.length++] = c;
+        this.hash = 31 * this.hash + c;
+        if ( c > ' ' ) {
+            this.trimmedLength = this.length;
+            this.trimmedHash = this.hash;
+        }
+    }
+
+    private String result() {
+        if ( this.filterWhitespace ) {
+            // trailing whitespace is trimmed
+            this.length = this.trimmedLength;
+            this.hash = this.trimmedHash;
+        }
+        return ( this.length == 0 ? "" : new String(this.buffer, 0, this.length) );
+    }
+
+    private static boolean isAsciiAlphanumeric(char c) {
+        return ( (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') );
+    }
+
+    /**
+     * The characters matched by <code>\s</code>
+     */
+    private static boolean isRegexWhitespace(char c) {
+        return ( c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' );
+    }
+
+    /**
+     * The normalization step by step on strings, for texts whose
+     * lower case can change their length or depends on the locale
+     */
+    private String normalizeSlowly(String tokenText) {
+        if ( this.joinAll || this.joinLinebreaks ) {
+            if ( tokenText.contains("-") && (this.joinAll || tokenText.indexOf('\n') > -1 || tokenText.indexOf('\r') > -1) ) {
+                String[] bits = tokenText.split("-");
+                if (bits.length == 2) {
+                    tokenText = bits[0].trim() + bits[1].trim();
+                }
+            }
+        }
+        tokenText = tokenText.toLowerCase();
+        if ( this.filterHyphens ) {
+            tokenText = tokenText.replace("-", "");
+        }
+        if ( this.filterPunctuation ) {
+            tokenText = PUNCTUATION.matcher(tokenText).replaceAll("");
+        }
+        if ( this.filterWhitespace ) {
+            tokenText = WHITESPACE.matcher(tokenText.trim()).replaceAll(" ");
+        }
+        this.hash = tokenText.hashCode();
+        this.length = tokenText.length();
+        return tokenText;
+    }
+}
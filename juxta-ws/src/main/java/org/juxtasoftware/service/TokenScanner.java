@@ -0,0 +1,150 @@
+package org.juxtasoftware.service;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Finds the token boundaries in the text of a witness. A token is a run of
+ * letters, digits and hyphens, or a run of other characters that are not
+ * whitespace. If linebreaks are joined, a word hyphenated at the end of a line
+ * is one token, from its start to the end of its continuation on the next line.
+ * <p/>
+ * The text is read in chunks into a reusable buffer; no objects are created
+ * per character or token. Not thread safe.
+ */
+final class TokenScanner {
+    private enum HyphenState {NONE, FOUND_HYPHEN, LINEBREAK_HYPHEN, IN_HYPHENATED_PART};
+    private enum RunType {NONE, TOKEN, NON_TOKEN};
+
+    static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    /**
+     * Receives the text and the tokens found in it
+     */
+    interface Listener {
+        /**
+         * The next <code>length</code> characters of the text, before any
+         * token in them is reported. Only valid for the duration of the call.
+         */
+        void chars(char[] chars, int length) throws IOException;
+
+        /**
+         * A token from <code>start</code> to <code>end</code>
+         */
+        void token(int start, int end) throws IOException;
+    }
+
+    private final boolean joinLinebreaks;
+    private final char[] chunk;
+    private int offset;
+    private int start;
+    private HyphenState hyphenState;
+    private RunType runType;
+
+    TokenScanner(boolean joinLinebreaks) {
+        this(joinLinebreaks, DEFAULT_CHUNK_SIZE);
+    }
+
+    TokenScanner(boolean joinLinebreaks, int chunkSize) {
+        this.joinLinebreaks = joinLinebreaks;
+        this.chunk = new char[chunkSize];
+    }
+
+    /**
+     * Read <code>reader</code> to its end and report its tokens to <code>listener</code>
+     */
+    void scan(Reader reader, Listener listener) throws IOException {
+        this.offset = 0;
+        this.start = -1;
+        this.hyphenState = HyphenState.NONE;
+        this.runType = RunType.NONE;
+
+        int read;
+        while ( (read = reader.read(this.chunk, 0, this.chunk.length)) >= 0 ) {
+            listener.chars(this.chunk, read);
+            for ( int i = 0; i < read; i++ ) {
+                next(this.chunk[i], listener);
+            }
+        }
+        if ( this.start != -1 ) {
+            listener.token(this.start, this.offset);
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return ( Character.isLetter(c) || Character.isDigit(c) || c == '-' );
+    }
+
+    private void next(char c, Listener listener) throws IOException {
+        // Token char (alphanumeric or hyphen)?
+        if ( isTokenChar(c) ) {
+            // create a token with prior run of non-token characters
+            if ( this.runType == RunType.NON_TOKEN ) {
+                listener.token(this.start, this.offset);
+                this.start = -1;
+            }
+
+            this.runType = RunType.TOKEN;
+            if ( this.start == -1 ) {
+                this.start = this.offset;
+            }
+
+            // Special case handling for linebreak hyphen filtering
+            if ( this.joinLinebreaks ) {
+                // If we have found a hyphen before (and possibly identified this as a linebreak),
+                // the next text encountered is the continuation of the hyphenated word.
+                if ( this.hyphenState == HyphenState.FOUND_HYPHEN || this.hyphenState == HyphenState.LINEBREAK_HYPHEN ) {
+                    this.hyphenState = HyphenState.IN_HYPHENATED_PART;
+                } else if ( c == '-' ) {
+                    this.hyphenState = HyphenState.FOUND_HYPHEN;
+                }
+            }
+        } else {
+            if ( this.joinLinebreaks ) {
+                if ( this.hyphenState == HyphenState.IN_HYPHENATED_PART ) {
+                    listener.token(this.start, this.offset);
+                    this.start = -1;
+                    this.runType = RunType.NONE;
+                    this.hyphenState = HyphenState.NONE;
+                } else if ( this.hyphenState == HyphenState.FOUND_HYPHEN || this.hyphenState == HyphenState.LINEBREAK_HYPHEN ) {
+                    // Special case for text that is a candidate for being a linebreak
+                    // hyphenated word. We have a hyphen. Do nothing but wait if more whitespace
+                    // is encountered. If the whitespace is a linefeed, flag
+                    // this as a line break. In either case, do no more processing.
+                    if ( Character.isWhitespace(c) ) {
+                        if ( c == '\r' || c == '\n' ) {
+                            this.hyphenState = HyphenState.LINEBREAK_HYPHEN;
+                        }
+                        this.offset++;
+                        return;
+                    }
+                }
+            }
+
+            // if this non-token char breaks up a prior token
+            // run, create a new token with it
+            if ( this.runType == RunType.TOKEN ) {
+                listener.token(this.start, this.offset);
+                this.start = -1;
+                this.runType = RunType.NONE;
+                this.hyphenState = HyphenState.NONE;
+            }
+
+            // Start or continue a run of non-token characters?
+            if ( Character.isWhitespace(c) == false ) {
+                this.runType = RunType.NON_TOKEN;
+                if ( this.start == -1 ) {
+                    this.start = this.offset;
+                }
+            } else if ( this.runType == RunType.NON_TOKEN ) {
+                // This is whitespace. End the non-token run;
+                // other than that, do not track the whitespace
+                listener.token(this.start, this.offset);
+                this.runType = RunType.NONE;
+                this.hyphenState = HyphenState.NONE;
+                this.start = -1;
+            }
+        }
+        this.offset++;
+    }
+}
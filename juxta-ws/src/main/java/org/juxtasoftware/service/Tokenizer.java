@@ -2,54 +2,89 @@ package org.juxtasoftware.service;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.json.simple.JSONObject;
 import org.juxtasoftware.Constants;
 import org.juxtasoftware.dao.ComparisonSetDao;
-import org.juxtasoftware.dao.JuxtaAnnotationDao;
+import org.juxtasoftware.dao.TokenizationDao;
 import org.juxtasoftware.model.CollatorConfig;
 import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
 import org.juxtasoftware.model.ComparisonSet;
-import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.TokenBoundaries;
+import org.juxtasoftware.model.Tokenization;
 import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.util.BackgroundTaskCanceledException;
 import org.juxtasoftware.util.BackgroundTaskSegment;
 import org.juxtasoftware.util.BackgroundTaskStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Throwables;
 
-import eu.interedition.text.Name;
-import eu.interedition.text.NameRepository;
-import eu.interedition.text.Range;
-import eu.interedition.text.Text;
 import eu.interedition.text.TextConsumer;
 import eu.interedition.text.TextRepository;
+import eu.interedition.text.rdbms.RelationalText;
 
 @Service
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
 public class Tokenizer {
     private static final Logger LOG = LoggerFactory.getLogger(Constants.WS_LOGGER_NAME);
-    private enum HyphenState {NONE, FOUND_HYPHEN, LINEBREAK_HYPHEN, IN_HYPHENATED_PART};
-    private enum RunType {NONE, TOKEN, NON_TOKEN, WHITESPACE};
+    private static final int STORE_ATTEMPTS = 5;
 
-    @Autowired private Integer tokenizationBatchSize;
-    @Autowired private JuxtaAnnotationDao annotationDao;
     @Autowired private TextRepository textRepository;
     @Autowired private ComparisonSetDao comparisonSetDao;
-    @Autowired private NameRepository qnameRepo;
-    private ComparisonSet set;
-    private Name tokenQName;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private PlatformTransactionManager transactionManager;
+    @Autowired @Qualifier("tokenize-executor") private ThreadPoolTaskExecutor tokenizeExecutor;
+    
+    // a witness is tokenized by one thread of this node at a time; other nodes
+    // are kept out by the lock on the tokenization row when it is stored
+    private static final Object[] WITNESS_LOCKS = new Object[64];
+    static {
+        for ( int i = 0; i < WITNESS_LOCKS.length; i++ ) {
+            WITNESS_LOCKS[i] = new Object();
+        }
+    }
+
+    /**
+     * Receives the witnesses of a set as they are tokenized
+     */
+    public interface Listener {
+        /**
+         * Called from the tokenizing thread once <code>witness</code> is tokenized.
+         * 
+         * @return false to stop tokenizing the witnesses that have not been started
+         */
+        boolean tokenized(Witness witness, Tokenization tokenization) throws IOException;
+    }
 
     /**
      * Break up the text of the all witnesses in the comparison set on whitespace boundaries. 
      * If the configuration specifies that punctuation also be ignored, 
-     * tokenize on punctuation as well.
+     * tokenize on punctuation as well. Witnesses that have already been
+     * tokenized the same way for another set, or in the background 
+     * when they were created, are not tokenized again. Existing collation
+     * data of the set is left alone; the collator decides which pairs to redo.
      * 
      * @param comparisonSet
      * @param config
@@ -57,198 +92,256 @@ public class Tokenizer {
      * 
      * @throws IOException
      */
-    public void tokenize(ComparisonSet comparisonSet, CollatorConfig config, BackgroundTaskStatus taskStatus) throws IOException {
+    public void tokenize(final ComparisonSet comparisonSet, CollatorConfig config, BackgroundTaskStatus taskStatus) throws IOException {
         final List<Witness> witnesses = comparisonSetDao.getWitnesses(comparisonSet);
-        final BackgroundTaskSegment ts = taskStatus.add(1, new BackgroundTaskSegment(witnesses.size()));
         
-        this.set = comparisonSet;
-                 
-        LOG.info("Token batch size: " + this.tokenizationBatchSize );
-        taskStatus.setNote("Clearing old tokens");
-        LOG.info("Cleanup collation data ");
-        this.comparisonSetDao.clearCollationData(comparisonSet);
+        comparisonSet.setStatus(ComparisonSet.Status.TOKENIZING );
+        this.comparisonSetDao.update(comparisonSet);
         
-        this.set.setStatus(ComparisonSet.Status.TOKENIZING );
-        this.comparisonSetDao.update(this.set);
+        taskStatus.setNote("Tokenizing " + JSONObject.escape(comparisonSet.getName()));
+        tokenize(witnesses, config.getHyphenationFilter(), taskStatus, new Listener() {
+            @Override
+            public boolean tokenized(Witness witness, Tokenization tokenization) {
+                comparisonSetDao.setTokenization(comparisonSet, witness, tokenization);
+                return true;
+            }
+        });
         
-        this.tokenQName = this.qnameRepo.get(Constants.TOKEN_NAME);
+        comparisonSet.setStatus(ComparisonSet.Status.TOKENIZED );
+        this.comparisonSetDao.update(comparisonSet);
+    }
+    
+    /**
+     * Tokenize <code>witnesses</code> concurrently on the tokenize executor. Each 
+     * witness is tokenized by one thread, with its own batch of tokens, and 
+     * reports its progress in a segment of <code>taskStatus</code> of weight one. 
+     * <code>listener</code> receives each witness as soon as it is tokenized. 
+     * Returns when all witnesses are done, or the listener stopped them.
+     * 
+     * @throws IOException if tokenizing any witness failed
+     */
+    public void tokenize(final List<Witness> witnesses, final HyphenationFilter hyphenationFilter, 
+        final BackgroundTaskStatus taskStatus, final Listener listener) throws IOException {
         
-        taskStatus.setNote("Tokenizing " + JSONObject.escape(comparisonSet.getName()));
-        for (Witness witness : witnesses) {
-            taskStatus.setNote("Tokenizing '" + witness.getJsonName() + "'");
-            LOG.info("Tokenizing " + witness.getName());
-            long totalTokenLen = tokenize(config, witness);
-            comparisonSetDao.setTokenzedLength(comparisonSet, witness, totalTokenLen);
-            ts.incrementValue();            
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final List<Future<Void>> tasks = new ArrayList<Future<Void>>(witnesses.size());
+        final List<BackgroundTaskSegment> segments = new ArrayList<BackgroundTaskSegment>(witnesses.size());
+        for ( Witness witness : witnesses ) {
+            segments.add( taskStatus.add(1, new BackgroundTaskSegment((int)Math.max(1, witness.getText().getLength()))) );
+        }
+        for ( int i = 0; i < witnesses.size(); i++ ) {
+            final Witness witness = witnesses.get(i);
+            final BackgroundTaskSegment segment = segments.get(i);
+            tasks.add( this.tokenizeExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if ( stopped.get() || BackgroundTaskStatus.Status.CANCEL_REQUESTED.equals(taskStatus.getStatus()) ) {
+                        return null;
+                    }
+                    taskStatus.setNote("Tokenizing '" + witness.getJsonName() + "'");
+                    final Tokenization tokenization = tokenize(witness, hyphenationFilter, segment);
+                    if ( listener.tokenized(witness, tokenization) == false ) {
+                        stopped.set(true);
+                    }
+                    return null;
+                }
+            }) );
         }
         
-        this.set.setStatus(ComparisonSet.Status.TOKENIZED );
-        this.comparisonSetDao.update(this.set);
+        // wait for all of them, so no thread is still writing tokens when this returns.
+        // An interrupt stops the witnesses not started yet, and is kept for the caller
+        Throwable failure = null;
+        boolean interrupted = false;
+        for ( Future<Void> task : tasks ) {
+            while ( true ) {
+                try {
+                    task.get();
+                    break;
+                } catch (ExecutionException e) {
+                    if ( failure == null ) {
+                        failure = e.getCause();
+                        stopped.set(true);
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    stopped.set(true);
+                    failure = new BackgroundTaskCanceledException(e);
+                }
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( BackgroundTaskStatus.Status.CANCEL_REQUESTED.equals(taskStatus.getStatus()) ) {
+            throw new BackgroundTaskCanceledException();
+        }
+        if ( failure != null ) {
+            Throwables.propagateIfInstanceOf(failure, IOException.class);
+            throw Throwables.propagate(failure);
+        }
+    }
+    
+    /**
+     * Get the tokens of <code>witness</code> for the given hyphenation handling,
+     * tokenizing its text if this has not been done before. 
+     * 
+     * @param witness
+     * @param hyphenationFilter
+     * @return The complete tokenization
+     * @throws IOException
+     */
+    public Tokenization tokenize(final Witness witness, final HyphenationFilter hyphenationFilter) throws IOException {
+        return tokenize(witness, hyphenationFilter, null);
     }
     
-    private long tokenize(final CollatorConfig config, final Witness witness) throws IOException {
-        final Text text = witness.getText();
-        TokenizingConsumer tc = new TokenizingConsumer(config, witness);
-        this.textRepository.read(text, tc);
-        return tc.getTokenizedLength();
+    private Tokenization tokenize(final Witness witness, final HyphenationFilter hyphenationFilter, 
+        final BackgroundTaskSegment segment) throws IOException {
+        final boolean joinLinebreaks = Tokenization.joinsLinebreaks(hyphenationFilter);
+        synchronized ( WITNESS_LOCKS[(int)(witness.getId() % WITNESS_LOCKS.length)] ) {
+            Tokenization tokenization = this.tokenizationDao.find(witness, joinLinebreaks);
+            if ( tokenization != null && tokenization.isComplete() ) {
+                LOG.info("Reusing tokens of " + witness.getName());
+            } else {
+                LOG.info("Tokenizing " + witness.getName());
+                tokenization = new Tokenization();
+                tokenization.setWitnessId(witness.getId());
+                tokenization.setTextId( ((RelationalText)witness.getText()).getId() );
+                tokenization.setJoinLinebreaks(joinLinebreaks);
+                
+                TokenizingConsumer tc = new TokenizingConsumer(tokenization, segment);
+                this.textRepository.read(witness.getText(), tc);
+                tokenization.setTokenizedLength( tc.getTokenizedLength() );
+                tokenization.setContentHash( tc.getContentHash() );
+                tokenization.setBoundaries( tc.getBoundaries() );
+                tokenization = store(witness, tokenization);
+            }
+            if ( segment != null ) {
+                segment.setValue(segment.getMaxValue());
+            }
+            return tokenization;
+        }
+    }
+    
+    /**
+     * Store the complete <code>tokenization</code> of <code>witness</code>, unless 
+     * another node stored the same tokenization first. The row, or the slot for it, 
+     * is locked while it is written, so a node storing the same tokenization at the 
+     * same time waits for this one to commit and then reuses its result.
+     * 
+     * @return The stored tokenization
+     */
+    private Tokenization store(final Witness witness, final Tokenization tokenization) {
+        final TransactionTemplate tx = new TransactionTemplate(this.transactionManager);
+        for ( int attempt = 1; ; attempt++ ) {
+            try {
+                return tx.execute(new TransactionCallback<Tokenization>() {
+                    @Override
+                    public Tokenization doInTransaction(TransactionStatus status) {
+                        final Tokenization stored = tokenizationDao.lock(witness, tokenization.isJoinLinebreaks());
+                        if ( stored != null && stored.isComplete() ) {
+                            LOG.info("Reusing tokens of " + witness.getName() + " stored by another node");
+                            return stored;
+                        }
+                        
+                        // an incomplete tokenization was left by an interrupted run;
+                        // nothing else writes it while it is locked
+                        if ( stored != null ) {
+                            tokenizationDao.delete(stored);
+                        }
+                        tokenization.setComplete(false);
+                        tokenization.setId( tokenizationDao.create(tokenization) );
+                        tokenizationDao.complete(tokenization);
+                        return tokenization;
+                    }
+                });
+            } catch (DuplicateKeyException e) {
+                // another node inserted it first; the next lock waits for its commit
+                if ( attempt == STORE_ATTEMPTS ) {
+                    throw e;
+                }
+            } catch (ConcurrencyFailureException e) {
+                // both nodes locked the empty slot and one lost the deadlock; retry likewise
+                if ( attempt == STORE_ATTEMPTS ) {
+                    throw e;
+                }
+            }
+        }
     }
     
     /**
      * Text consumer that splits the text stream into tokens based
-     * on configuration settings
+     * on configuration settings, using a {@link TokenScanner}, and
+     * records their boundaries
      * 
      * @author loufoster
      *
      */
-    private class TokenizingConsumer implements TextConsumer {
-        private List<JuxtaAnnotation> tokens = Lists.newArrayListWithExpectedSize(tokenizationBatchSize);
-        private final Witness witness;
-        private final HyphenationFilter hyphenFilter;
+    private class TokenizingConsumer implements TextConsumer, TokenScanner.Listener {
+        private final TokenBoundaries.Builder boundaries = new TokenBoundaries.Builder();
+        private final Tokenization tokenization;
         private long tokenizedLength;
+        private final MessageDigest digest;
+        private final byte[] hashBuffer = new byte[8192];
+        private int hashed;
+        private final BackgroundTaskSegment segment;
+        private int charsRead;
         
-        public TokenizingConsumer(CollatorConfig cfg, Witness w) {
-            this.hyphenFilter = cfg.getHyphenationFilter();
-            this.witness = w;
+        public TokenizingConsumer(Tokenization tokenization, BackgroundTaskSegment segment) {
+            this.tokenization = tokenization;
+            this.segment = segment;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
         }
         
         public long getTokenizedLength() {
             return this.tokenizedLength;
         }
         
-        private boolean isTokenChar(int c) {
-            if (Character.isLetter(c) || Character.isDigit(c) || c == '-') {
-                return true;
+        public TokenBoundaries getBoundaries() {
+            return this.boundaries.build();
+        }
+        
+        /**
+         * @return hex SHA-1 of the UTF-16 code units of the text read
+         */
+        public String getContentHash() {
+            this.digest.update(this.hashBuffer, 0, this.hashed);
+            this.hashed = 0;
+            final StringBuilder hex = new StringBuilder(40);
+            for ( byte b : this.digest.digest() ) {
+                hex.append( Character.forDigit((b >> 4) & 0xF, 16) ).append( Character.forDigit(b & 0xF, 16) );
             }
-            return false;
+            return hex.toString();
         }
         
-        public void read(Reader tokenText, long contentLength) throws IOException {
-            
-            int offset = 0;
-            int start = -1;
-            HyphenState hyphenState = HyphenState.NONE;
-            RunType runType = RunType.NONE;
-            final boolean filterLinebreak = 
-                (this.hyphenFilter.equals(HyphenationFilter.FILTER_LINEBREAK) || 
-                 this.hyphenFilter.equals(HyphenationFilter.FILTER_ALL) );
-            
-            StringBuilder tokenTxt = new StringBuilder();
-            do {
-                final int read = tokenText.read();
-                if (read < 0) {
-                    if (start != -1) {
-                        createToken( start, offset);
-                        tokenTxt = new StringBuilder();
-                    }
-                    break;
-                }
-                
-                tokenTxt.append((char)read);
-                    
-                // Token char (alphanumeric or hyphen)?
-                if ( isTokenChar(read)) {
-                    // create a token with prior run of non-token characters
-                    if ( runType.equals(RunType.NON_TOKEN) ) {
-                        createToken(start, offset);
-                        start = -1;
-                        tokenTxt = new StringBuilder();
-                    }
-                    
-                    runType = RunType.TOKEN;
-                    if (start == -1 ) {
-                        start = offset;
-                    }
-                    
-                    // Special case handling for linebreak hyphen filtering
-                    if ( filterLinebreak ) {
-                        // If we have found a hyphen before (and possibly identified this as a linebreak),
-                        // the next text encountered is the continuation of the hyphenated word.
-                        if ( hyphenState.equals(HyphenState.FOUND_HYPHEN) || hyphenState.equals(HyphenState.LINEBREAK_HYPHEN) ) {
-                            hyphenState = HyphenState.IN_HYPHENATED_PART;
-                        }
-                        else if ( read == '-' ) {
-                            if ( tokenTxt.toString().contains("substi")) {
-                                System.err.println("fb");
-                            }
-                            hyphenState = HyphenState.FOUND_HYPHEN;
-                        }
-                    }
-                } else {
-                    
-                    if ( filterLinebreak ) {
-                        if ( hyphenState.equals( HyphenState.IN_HYPHENATED_PART) ) {
-                            createToken( start, offset );
-                            start = -1;
-                            runType = RunType.NONE;
-                            hyphenState = HyphenState.NONE;
-                            tokenTxt = new StringBuilder();
-                        } else if ( hyphenState.equals(HyphenState.FOUND_HYPHEN) || hyphenState.equals(HyphenState.LINEBREAK_HYPHEN)) {
-                            // Special case for text that is a candidate for being a linebreak 
-                            // hyphenated word. We have a hyphen. Do nothing but wait if more whitespace
-                            // is encountered. If the whitespace is a linefeed, flag
-                            // this as a line break. In either case, do no more processing.
-                            if ( Character.isWhitespace(read) ) {
-                                if (  read == 13 || read == 10 ) {
-                                    hyphenState = HyphenState.LINEBREAK_HYPHEN;
-                                }
-                                offset++;
-                                continue;
-                            }
-                        }
-                    }
-
-                    // if this non-token char breaks up a prior token
-                    // run, create a new token with it
-                    if ( runType.equals(RunType.TOKEN) ) {
-                        createToken( start, offset);
-                        start = -1;
-                        runType = RunType.NONE;
-                        hyphenState = HyphenState.NONE;
-                        tokenTxt = new StringBuilder();
-                    } 
-                    
-                    // Start or continue a run of non-token characters?
-                    if ( Character.isWhitespace(read) == false ) {
-                        runType = RunType.NON_TOKEN;
-                        if (start == -1 ) {
-                            start = offset;
-                        }
-                    } else {
-                        // This is whitespace. See if we need to end a non-token run.
-                        // other than that, do not track the whitespace
-                        if ( runType.equals(RunType.NON_TOKEN) ) {
-                            createToken(start, offset);
-                            runType = RunType.NONE;
-                            hyphenState = HyphenState.NONE;
-                            start = -1;
-                            tokenTxt = new StringBuilder();
-                        }
-                    }
+        @Override
+        public void chars(char[] chars, int length) {
+            for ( int i = 0; i < length; i++ ) {
+                if ( this.hashed == this.hashBuffer.length ) {
+                    this.digest.update(this.hashBuffer, 0, this.hashed);
+                    this.hashed = 0;
                 }
-
-                offset++;
-            } while (true);
-
-            if (!this.tokens.isEmpty()) {
-                write();
+                this.hashBuffer[this.hashed++] = (byte)(chars[i] >> 8);
+                this.hashBuffer[this.hashed++] = (byte)chars[i];
             }
-        }
-
-        private void createToken(int start, int end) {
-            this.tokenizedLength += (end - start);
-            this.tokens.add(  new JuxtaAnnotation(set.getId(), this.witness, tokenQName, new Range(start, end)) );
-            if ((this.tokens.size() % tokenizationBatchSize ) == 0) {
-                write();
+            this.charsRead += length;
+            if ( this.segment != null ) {
+                this.segment.setValue( Math.min(this.charsRead, this.segment.getMaxValue()) );
             }
         }
+        
+        public void read(Reader tokenText, long contentLength) throws IOException {
+            new TokenScanner(this.tokenization.isJoinLinebreaks()).scan(tokenText, this);
+        }
 
-        private void write() {
-            LOG.info("Writing "+this.tokens.size()+" token annotations");
-            int cnt = Tokenizer.this.annotationDao.create(this.tokens);
-            if ( cnt != this.tokens.size() ) {
-                LOG.error("Not all tokens writtens: "+cnt+" of "+this.tokens.size());
-            }
-            this.tokens.clear();
+        @Override
+        public void token(int start, int end) {
+            this.tokenizedLength += (end - start);
+            this.boundaries.add(start, end);
         }
     }
 }
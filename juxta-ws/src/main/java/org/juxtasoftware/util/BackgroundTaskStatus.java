@@ -21,7 +21,7 @@ public class BackgroundTaskStatus {
     private final String title;
     private String note;
     private Status status;
-    private final Map<Integer, BackgroundTaskSegment> segments = Maps.newLinkedHashMap();
+    private final Map<BackgroundTaskSegment, Integer> segments = Maps.newLinkedHashMap();
 
     public BackgroundTaskStatus(String title) {
         this.title = title;
@@ -30,9 +30,9 @@ public class BackgroundTaskStatus {
         this.status = Status.PENDING;
     }
 
-    public BackgroundTaskSegment add(int weight, BackgroundTaskSegment segment) {
+    public synchronized BackgroundTaskSegment add(int weight, BackgroundTaskSegment segment) {
         this.status = Status.PROCESSING;
-        this.segments.put(weight, segment);
+        this.segments.put(segment, weight);
         updateValue();
         segment.addChangeListener(new PropertyChangeListener() {
 
@@ -91,14 +91,14 @@ public class BackgroundTaskStatus {
         return boundedRangeModel;
     }
 
-    private void updateValue() {
+    private synchronized void updateValue() {
         float value = 0;
         int totalWeight = 0;
-        for (Map.Entry<Integer, BackgroundTaskSegment> te : segments.entrySet()) {
-            final Integer weight = te.getKey();
+        for (Map.Entry<BackgroundTaskSegment, Integer> te : segments.entrySet()) {
+            final Integer weight = te.getValue();
             totalWeight += weight;
 
-            final BackgroundTaskSegment segment = te.getValue();
+            final BackgroundTaskSegment segment = te.getKey();
             final int maxValue = segment.getMaxValue();
             if (maxValue > 0) {
                 value += weight * (segment.getValue() / (maxValue * 1.0f));
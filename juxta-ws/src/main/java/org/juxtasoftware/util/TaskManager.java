@@ -113,6 +113,14 @@ public class TaskManager {
         }
     }
     
+    /**
+     * @return true if a task with this name is waiting to run or running
+     */
+    public boolean isActive( final String name ) {
+        BackgroundTask task = this.taskMap.get( name );
+        return (task != null && isDone(task) == false );
+    }
+    
     public boolean exists( final String name ) {
         BackgroundTask task = this.taskMap.get( name );
         return (task != null && task.getStatus().equals(Status.PROCESSING) );
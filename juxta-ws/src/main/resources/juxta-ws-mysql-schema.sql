@@ -87,6 +87,21 @@ CREATE TABLE IF NOT EXISTS juxta_revision (
     FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+CREATE TABLE IF NOT EXISTS juxta_witness_tokenization (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    witness_id BIGINT NOT NULL,
+    text_id BIGINT NOT NULL,
+    join_linebreaks BOOL NOT NULL default 0,
+    tokenized_length INT UNSIGNED NOT NULL default 0,
+    complete BOOL NOT NULL default 0,
+    content_hash CHAR(40) default NULL,
+    token_boundaries LONGBLOB default NULL,
+    PRIMARY KEY (id),
+    UNIQUE (witness_id, text_id, join_linebreaks),
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (text_id) REFERENCES text_content (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 CREATE TABLE IF NOT EXISTS juxta_comparison_set (
     id BIGINT NOT NULL AUTO_INCREMENT,
     name VARCHAR(255) NOT NULL,
@@ -117,17 +132,25 @@ CREATE TABLE IF NOT EXISTS juxta_collator_config (
     filter_punctuation BOOL NOT NULL DEFAULT 1,
     filter_case BOOL NOT NULL DEFAULT 1,
     hyphenation_filter enum('INCLUDE_ALL','FILTER_LINEBREAK','FILTER_ALL') not null default 'INCLUDE_ALL',
+    diff_algorithm enum('MYERS','PATIENCE','HISTOGRAM') not null default 'MYERS',
+    collation_mode enum('ALL_PAIRS','BASE') not null default 'ALL_PAIRS',
+    base_witness_id BIGINT default NULL,
+    segmented BOOL NOT NULL default 0,
     PRIMARY KEY (id),
-    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id)  ON DELETE CASCADE
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id)  ON DELETE CASCADE,
+    FOREIGN KEY (base_witness_id) REFERENCES juxta_witness (id)  ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE IF NOT EXISTS juxta_comparison_set_member (
     set_id BIGINT NOT NULL,
     witness_id BIGINT NOT NULL,
     tokenized_length MEDIUMINT UNSIGNED default 0,
+    tokenization_id BIGINT default NULL,
+    collated BOOL NOT NULL default 0,
     UNIQUE (set_id, witness_id),
     FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
-    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (tokenization_id) REFERENCES juxta_witness_tokenization (id) ON DELETE SET NULL
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
 CREATE TABLE IF NOT EXISTS juxta_note (
@@ -154,7 +177,8 @@ CREATE TABLE IF NOT EXISTS juxta_page_mark (
 
 CREATE TABLE IF NOT EXISTS juxta_annotation (
   id BIGINT NOT NULL AUTO_INCREMENT,
-  set_id  BIGINT NOT NULL,
+  set_id  BIGINT default NULL,
+  tokenization_id BIGINT default NULL,
   witness_id  BIGINT NOT NULL,
   text_id bigint(20) NOT NULL,
   qname_id bigint(20) NOT NULL,
@@ -162,7 +186,9 @@ CREATE TABLE IF NOT EXISTS juxta_annotation (
   range_end MEDIUMINT UNSIGNED NOT NULL,
   manual BOOL not null default 0,
   PRIMARY KEY (id),
+  UNIQUE KEY token_range (tokenization_id, range_start, range_end),
   FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+  FOREIGN KEY (tokenization_id) REFERENCES juxta_witness_tokenization (id) ON DELETE CASCADE,
   FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
   FOREIGN KEY (text_id) REFERENCES text_content (id) ON DELETE CASCADE,
   FOREIGN KEY (qname_id) REFERENCES text_qname (id),
@@ -185,6 +211,49 @@ CREATE TABLE IF NOT EXISTS juxta_alignment (
     FOREIGN KEY (annotation_a_id) REFERENCES juxta_annotation (id) ON DELETE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8;
 
+CREATE TABLE IF NOT EXISTS juxta_collation_progress (
+    set_id BIGINT NOT NULL,
+    witness_a_id BIGINT NOT NULL,
+    witness_b_id BIGINT NOT NULL,
+    completed TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    UNIQUE (set_id, witness_a_id, witness_b_id),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_a_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_b_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS juxta_pair_result (
+    set_id BIGINT NOT NULL,
+    base_id BIGINT NOT NULL,
+    witness_id BIGINT NOT NULL,
+    base_hash CHAR(40) NOT NULL,
+    witness_hash CHAR(40) NOT NULL,
+    config_key VARCHAR(64) NOT NULL,
+    UNIQUE (set_id, base_id, witness_id),
+    KEY content_key (base_hash, witness_hash, config_key),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (base_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
+CREATE TABLE IF NOT EXISTS juxta_pair_job (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    set_id BIGINT NOT NULL,
+    base_id BIGINT NOT NULL,
+    witness_id BIGINT NOT NULL,
+    lease_token CHAR(36) default NULL,
+    lease_expires TIMESTAMP NULL default NULL,
+    attempts INT UNSIGNED NOT NULL default 0,
+    failed BOOL NOT NULL default 0,
+    error VARCHAR(255) default NULL,
+    PRIMARY KEY (id),
+    UNIQUE (set_id, base_id, witness_id),
+    KEY lease_token_key (lease_token),
+    FOREIGN KEY (set_id) REFERENCES juxta_comparison_set (id) ON DELETE CASCADE,
+    FOREIGN KEY (base_id) REFERENCES juxta_witness (id) ON DELETE CASCADE,
+    FOREIGN KEY (witness_id) REFERENCES juxta_witness (id) ON DELETE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8;
+
 CREATE TABLE IF NOT EXISTS juxta_user_note (
   id bigint(20) NOT NULL AUTO_INCREMENT,
   set_id bigint(20) NOT NULL,
@@ -0,0 +1,156 @@
+package org.juxtasoftware.dao;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.juxtasoftware.Constants;
+import org.juxtasoftware.model.Alignment;
+import org.juxtasoftware.model.ComparisonSet;
+import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.Source;
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.model.Workspace;
+import org.juxtasoftware.service.AbstractTest;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import eu.interedition.text.Name;
+import eu.interedition.text.Range;
+import eu.interedition.text.rdbms.RelationalText;
+
+public class ComparisonSetDaoTest extends AbstractTest {
+    @Autowired private WorkspaceDao workspaceDao;
+    @Autowired private SourceDao sourceDao;
+    @Autowired private WitnessDao witnessDao;
+    @Autowired private ComparisonSetDao setDao;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private JuxtaAnnotationDao annotationDao;
+    @Autowired private AlignmentDao alignmentDao;
+
+    private Workspace pub;
+    private ComparisonSet set;
+    private ComparisonSet other;
+    private Witness a;
+    private Witness b;
+    private Witness c;
+    private Long abId;
+    private Long bcId;
+
+    /**
+     * Sets up a set of three witnesses with alignments a-b and b-c between
+     * tokens and a-c between a token and a gap in c, and another set with
+     * the same tokens aligned b-c
+     */
+    @Before
+    public void createAlignments() throws Exception {
+        this.pub = this.workspaceDao.getPublic();
+        if ( this.pub == null ) {
+            this.pub = new Workspace();
+            this.pub.setName("public");
+            this.pub.setDescription("Default public workspace");
+            this.pub.setId( this.workspaceDao.create(this.pub) );
+        }
+        this.a = createWitness("clear-a");
+        this.b = createWitness("clear-b");
+        this.c = createWitness("clear-c");
+        this.set = createSet("clear");
+        this.other = createSet("clear-other");
+
+        final JuxtaAnnotation tokenA = createToken(this.a);
+        final JuxtaAnnotation tokenB = createToken(this.b);
+        final JuxtaAnnotation tokenC = createToken(this.c);
+        final JuxtaAnnotation gapC = new JuxtaAnnotation(this.set.getId(), this.c,
+            this.nameRepository.get(Constants.GAP_NAME), new Range(0, 0));
+        this.annotationDao.create(Collections.singletonList(gapC));
+
+        final Name change = this.nameRepository.get(Constants.CHANGE_NAME);
+        final Alignment ab = new Alignment(this.set.getId(), 0, change, tokenA, tokenB, 1);
+        final Alignment ac = new Alignment(this.set.getId(), 0, change, tokenA, gapC, -1);
+        final Alignment bc = new Alignment(this.set.getId(), 0, change, tokenB, tokenC, 1);
+        final Alignment otherBc = new Alignment(this.other.getId(), 0, change, tokenB, tokenC, 1);
+        this.alignmentDao.create(Arrays.asList(ab, ac, bc, otherBc));
+        this.abId = findAlignment(this.set, this.a, this.b);
+        this.bcId = findAlignment(this.set, this.b, this.c);
+    }
+
+    /**
+     * Clearing a witness that leaves the set removes only the alignments and
+     * gaps of its pairs in that set
+     */
+    @Test
+    public void clearWitness() {
+        this.setDao.clearCollationData(this.set, this.c);
+        Assert.assertEquals(Arrays.asList(this.abId), alignmentIds(this.set));
+        Assert.assertEquals(1, alignmentIds(this.other).size());
+        Assert.assertEquals(0, countGaps(this.set));
+    }
+
+    /**
+     * Clearing an unfinished pair when a collation resumes removes only the
+     * alignments of that pair
+     */
+    @Test
+    public void clearPair() {
+        this.setDao.clearCollationData(this.set, this.c, this.a);
+        Assert.assertEquals(Arrays.asList(this.abId, this.bcId), alignmentIds(this.set));
+        Assert.assertEquals(1, alignmentIds(this.other).size());
+        Assert.assertEquals(0, countGaps(this.set));
+    }
+
+    private List<Long> alignmentIds( final ComparisonSet set ) {
+        return this.simpleJdbcTemplate.getJdbcOperations().queryForList(
+            "select id from juxta_alignment where set_id=? order by id", Long.class, set.getId());
+    }
+
+    private int countGaps( final ComparisonSet set ) {
+        return this.simpleJdbcTemplate.queryForInt(
+            "select count(*) from juxta_annotation where set_id=? and range_start=range_end", set.getId());
+    }
+
+    private Long findAlignment( final ComparisonSet set, final Witness w1, final Witness w2 ) {
+        return this.simpleJdbcTemplate.queryForLong("select al.id from juxta_alignment al"
+            + " inner join juxta_annotation x on x.id=al.annotation_a_id"
+            + " inner join juxta_annotation y on y.id=al.annotation_b_id"
+            + " where al.set_id=? and x.witness_id=? and y.witness_id=?", set.getId(), w1.getId(), w2.getId());
+    }
+
+    private JuxtaAnnotation createToken( final Witness witness ) {
+        final Tokenization tokenization = new Tokenization();
+        tokenization.setWitnessId(witness.getId());
+        tokenization.setTextId(((RelationalText)witness.getText()).getId());
+        tokenization.setId(this.tokenizationDao.create(tokenization));
+        this.setDao.setTokenization(this.set, witness, tokenization);
+        this.setDao.setTokenization(this.other, witness, tokenization);
+        final Range range = new Range(0, 3);
+        final Long id = this.annotationDao.createTokens(tokenization, Collections.singletonList(range)).get(range);
+        return this.annotationDao.find(id, false);
+    }
+
+    private ComparisonSet createSet( final String name ) {
+        final ComparisonSet set = new ComparisonSet();
+        set.setName(name);
+        set.setWorkspaceId(this.pub.getId());
+        this.setDao.create(set);
+        this.setDao.addWitnesses(set, new HashSet<Witness>(Arrays.asList(this.a, this.b, this.c)));
+        return set;
+    }
+
+    private Witness createWitness( final String name ) throws Exception {
+        final Long srcId = this.sourceDao.create(this.pub, name + ".src", Source.Type.TXT,
+            new StringReader("The quick brown fox"));
+        final Source src = this.sourceDao.find(this.pub.getId(), srcId);
+        final Witness witness = new Witness();
+        witness.setName(name);
+        witness.setSourceId(srcId);
+        witness.setText(src.getText());
+        witness.setWorkspaceId(this.pub.getId());
+        witness.setId(this.witnessDao.create(witness));
+        return witness;
+    }
+}
@@ -0,0 +1,131 @@
+package org.juxtasoftware.dao;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.Constants;
+import org.juxtasoftware.model.JuxtaAnnotation;
+import org.juxtasoftware.model.Source;
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.model.Workspace;
+import org.juxtasoftware.service.AbstractTest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.interedition.text.Name;
+import eu.interedition.text.Range;
+import eu.interedition.text.rdbms.RelationalText;
+
+public class JuxtaAnnotationDaoTest extends AbstractTest {
+    @Autowired private WorkspaceDao workspaceDao;
+    @Autowired private SourceDao sourceDao;
+    @Autowired private WitnessDao witnessDao;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private JuxtaAnnotationDao annotationDao;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    /**
+     * Two collations store the same tokens at once; the one whose snapshot
+     * predates the tokens of the other still finds them. Both transactions
+     * commit, so this test runs outside the test transaction and cleans up
+     * after itself.
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void concurrentTokens() throws Exception {
+        final Witness witness = createWitness();
+        try {
+            final Tokenization tokenization = new Tokenization();
+            tokenization.setWitnessId(witness.getId());
+            tokenization.setTextId(((RelationalText)witness.getText()).getId());
+            tokenization.setId(this.tokenizationDao.create(tokenization));
+            final List<Range> ranges = Arrays.asList(new Range(0, 3), new Range(4, 9), new Range(10, 15));
+
+            final TransactionTemplate tx = new TransactionTemplate(this.transactionManager);
+            final AtomicReference<Map<Range, Long>> other = new AtomicReference<Map<Range, Long>>();
+            final Map<Range, Long> ids = tx.execute(new TransactionCallback<Map<Range, Long>>() {
+                @Override
+                public Map<Range, Long> doInTransaction(TransactionStatus status) {
+                    // the first read fixes the snapshot of this transaction
+                    countRowsInTable("juxta_annotation");
+
+                    final Thread thread = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            other.set( tx.execute(new TransactionCallback<Map<Range, Long>>() {
+                                @Override
+                                public Map<Range, Long> doInTransaction(TransactionStatus status) {
+                                    return annotationDao.createTokens(tokenization, ranges);
+                                }
+                            }) );
+                        }
+                    });
+                    thread.start();
+                    try {
+                        thread.join();
+                    } catch (InterruptedException e) {
+                        throw new IllegalStateException(e);
+                    }
+                    return annotationDao.createTokens(tokenization, ranges);
+                }
+            });
+
+            Assert.assertEquals(ranges.size(), ids.size());
+            Assert.assertEquals(other.get(), ids);
+        } finally {
+            final Source src = this.sourceDao.find(witness.getWorkspaceId(), witness.getSourceId());
+            this.witnessDao.delete(witness);
+            this.sourceDao.delete(src);
+        }
+    }
+
+    /**
+     * Annotations created in one batch get the IDs of their own rows
+     */
+    @Test
+    public void batchKeys() throws Exception {
+        final Witness witness = createWitness();
+        final Name gapName = this.nameRepository.get(Constants.GAP_NAME);
+        final List<JuxtaAnnotation> gaps = new ArrayList<JuxtaAnnotation>();
+        for ( int offset = 0; offset < 19; offset += 3 ) {
+            gaps.add( new JuxtaAnnotation(null, witness, gapName, new Range(offset, offset)) );
+        }
+        Assert.assertEquals(gaps.size(), this.annotationDao.create(gaps));
+        for ( JuxtaAnnotation gap : gaps ) {
+            Assert.assertNotNull(gap.getId());
+            Assert.assertEquals(gap.getRange(), this.annotationDao.find(gap.getId(), false).getRange());
+        }
+    }
+
+    private Witness createWitness() throws Exception {
+        Workspace pub = this.workspaceDao.getPublic();
+        if ( pub == null ) {
+            pub = new Workspace();
+            pub.setName("public");
+            pub.setDescription("Default public workspace");
+            pub.setId( this.workspaceDao.create(pub) );
+        }
+        final Long srcId = this.sourceDao.create(pub, "tokens.src", Source.Type.TXT,
+            new StringReader("The quick brown fox"));
+        final Source src = this.sourceDao.find(pub.getId(), srcId);
+        final Witness witness = new Witness();
+        witness.setName("tokens");
+        witness.setSourceId(srcId);
+        witness.setText(src.getText());
+        witness.setWorkspaceId(pub.getId());
+        witness.setId(this.witnessDao.create(witness));
+        return witness;
+    }
+}
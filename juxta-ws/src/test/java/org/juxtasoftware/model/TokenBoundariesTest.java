@@ -0,0 +1,103 @@
+package org.juxtasoftware.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TokenBoundariesTest {
+
+    @Test
+    public void empty() {
+        final TokenBoundaries boundaries = new TokenBoundaries.Builder().build();
+        Assert.assertEquals(0, boundaries.size());
+        Assert.assertEquals(0, boundaries.toByteArray().length);
+        Assert.assertFalse(boundaries.cursor().next());
+    }
+
+    @Test
+    public void roundTrip() {
+        final Random random = new Random(20121017L);
+        final int[] starts = new int[5000];
+        final int[] ends = new int[starts.length];
+        final TokenBoundaries.Builder builder = new TokenBoundaries.Builder();
+        int offset = 0;
+        for ( int i = 0; i < starts.length; i++ ) {
+            // mostly short words and spaces, now and then a long stretch
+            starts[i] = offset + (random.nextInt(50) == 0 ? random.nextInt(1 << 22) : random.nextInt(3));
+            ends[i] = starts[i] + (random.nextInt(50) == 0 ? random.nextInt(1 << 15) : random.nextInt(12));
+            builder.add(starts[i], ends[i]);
+            offset = ends[i];
+        }
+
+        final TokenBoundaries boundaries = new TokenBoundaries(builder.build().toByteArray());
+        Assert.assertEquals(starts.length, boundaries.size());
+        final TokenBoundaries.Cursor cursor = boundaries.cursor();
+        for ( int i = 0; i < starts.length; i++ ) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(starts[i], cursor.getStart());
+            Assert.assertEquals(ends[i], cursor.getEnd());
+        }
+        Assert.assertFalse(cursor.next());
+    }
+
+    @Test
+    public void search() {
+        final Random random = new Random(20121018L);
+        final TokenBoundaries.Builder builder = new TokenBoundaries.Builder();
+        final List<int[]> tokens = new ArrayList<int[]>();
+        int offset = 0;
+        for ( int i = 0; i < 500; i++ ) {
+            final int start = offset + random.nextInt(3);
+            final int end = start + random.nextInt(6);
+            builder.add(start, end);
+            tokens.add( new int[] {start, end} );
+            offset = end;
+        }
+        final TokenBoundaries boundaries = builder.build();
+        for ( long pos = -1; pos <= offset + 1; pos++ ) {
+            long next = -1;
+            long prior = pos;
+            for ( int[] token : tokens ) {
+                if ( next == -1 && token[0] > pos ) {
+                    next = token[0];
+                }
+                if ( token[1] < pos ) {
+                    prior = token[1];
+                }
+            }
+            Assert.assertEquals("next after " + pos, next, boundaries.findNextStart(pos));
+            Assert.assertEquals("prior to " + pos, prior, boundaries.findPriorEnd(pos));
+        }
+        final Set<String> ranges = new HashSet<String>();
+        for ( int[] token : tokens ) {
+            ranges.add(token[0] + "-" + token[1]);
+        }
+        for ( int[] token : tokens ) {
+            Assert.assertTrue(boundaries.contains(token[0], token[1]));
+            Assert.assertEquals(ranges.contains(token[0] + "-" + (token[1] + 1)), boundaries.contains(token[0], token[1] + 1));
+        }
+        Assert.assertEquals(-1, new TokenBoundaries.Builder().build().findNextStart(0));
+        Assert.assertEquals(7, new TokenBoundaries.Builder().build().findPriorEnd(7));
+    }
+
+    @Test
+    public void shortTokensTakeTwoBytes() {
+        final TokenBoundaries.Builder builder = new TokenBoundaries.Builder();
+        builder.add(0, 5);
+        builder.add(6, 9);
+        builder.add(10, 10);
+        Assert.assertEquals(6, builder.build().toByteArray().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void overlappingTokens() {
+        final TokenBoundaries.Builder builder = new TokenBoundaries.Builder();
+        builder.add(0, 5);
+        builder.add(4, 9);
+    }
+}
@@ -0,0 +1,63 @@
+package org.juxtasoftware.service;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.service.CollationMemoryGovernor.Plan;
+import org.juxtasoftware.service.CollationMemoryGovernor.Strategy;
+import org.juxtasoftware.util.BackgroundTaskStatus;
+
+public class CollationMemoryGovernorTest {
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    public void strategies() {
+        final CollationMemoryGovernor governor = new CollationMemoryGovernor(100 * MB);
+        Assert.assertEquals(Strategy.FULL, governor.plan(50000, 50000, 1).getStrategy());
+        Assert.assertEquals(Strategy.PARTITIONED, governor.plan(500000, 500000, 4).getStrategy());
+        Assert.assertEquals(Strategy.LINEAR_SPACE, governor.plan(500000, 500000, 1).getStrategy());
+        Assert.assertEquals(Strategy.LINEAR_SPACE, governor.plan(5000000, 5000000, 4).getStrategy());
+    }
+
+    @Test
+    public void holdsBackPairsOverBudget() throws Exception {
+        final CollationMemoryGovernor governor = new CollationMemoryGovernor(100 * MB);
+        final BackgroundTaskStatus status = new BackgroundTaskStatus("test");
+        final Plan first = governor.plan(500000, 500000, 1);
+        final Plan second = governor.plan(500000, 500000, 1);
+        Assert.assertTrue(first.getEstimatedBytes() + second.getEstimatedBytes() > governor.getBudget());
+
+        governor.acquire(first, status);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    governor.acquire(second, status);
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        waiting.start();
+        Assert.assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+
+        governor.release(first);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(second.getEstimatedBytes(), governor.getReserved());
+        governor.release(second);
+        Assert.assertEquals(0, governor.getReserved());
+    }
+
+    @Test
+    public void oversizedPairRunsAlone() throws Exception {
+        final CollationMemoryGovernor governor = new CollationMemoryGovernor(MB);
+        final Plan plan = governor.plan(5000000, 5000000, 1);
+        Assert.assertTrue(plan.getEstimatedBytes() > governor.getBudget());
+        governor.acquire(plan, new BackgroundTaskStatus("test"));
+        governor.release(plan);
+    }
+}
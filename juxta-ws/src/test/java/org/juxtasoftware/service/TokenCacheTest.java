@@ -0,0 +1,123 @@
+package org.juxtasoftware.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.diff.Token;
+import org.juxtasoftware.diff.impl.SimpleToken;
+import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
+
+import eu.interedition.text.Range;
+import eu.interedition.text.Text;
+import eu.interedition.text.mem.SimpleText;
+
+public class TokenCacheTest {
+    private static final Set<Range> ALL = Collections.singleton(new Range(0, 100));
+
+    @Test
+    public void loadsOnce() throws Exception {
+        final TokenCache cache = new TokenCache(1024L * 1024L);
+        final Text text = new SimpleText(Text.Type.TXT, "");
+        final CountingLoader loader = new CountingLoader(10);
+
+        final List<Token> first = cache.get(new TokenCache.Key(1L, text, ALL, new Config(false)), loader);
+        final List<Token> second = cache.get(new TokenCache.Key(1L, text, ALL, new Config(false)), loader);
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, loader.calls.get());
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        // other normalization and other ranges are different entries
+        cache.get(new TokenCache.Key(1L, text, ALL, new Config(true)), loader);
+        cache.get(new TokenCache.Key(1L, text, Collections.singleton(new Range(0, 50)), new Config(false)), loader);
+        Assert.assertEquals(3, loader.calls.get());
+        Assert.assertEquals(3, cache.getMisses());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        final long entrySize = 10 * CollationMemoryGovernor.BYTES_PER_TOKEN;
+        final TokenCache cache = new TokenCache(2 * entrySize);
+        final Text a = new SimpleText(Text.Type.TXT, "a");
+        final Text b = new SimpleText(Text.Type.TXT, "b");
+        final Text c = new SimpleText(Text.Type.TXT, "c");
+        final CountingLoader loader = new CountingLoader(10);
+
+        cache.get(new TokenCache.Key(1L, a, ALL, new Config(false)), loader);
+        cache.get(new TokenCache.Key(1L, b, ALL, new Config(false)), loader);
+        cache.get(new TokenCache.Key(1L, a, ALL, new Config(false)), loader);
+        cache.get(new TokenCache.Key(1L, c, ALL, new Config(false)), loader);
+        Assert.assertEquals(1, cache.getEvictions());
+        Assert.assertEquals(2 * entrySize, cache.getBytes());
+
+        // b was least recently used
+        cache.get(new TokenCache.Key(1L, a, ALL, new Config(false)), loader);
+        Assert.assertEquals(3, loader.calls.get());
+        cache.get(new TokenCache.Key(1L, b, ALL, new Config(false)), loader);
+        Assert.assertEquals(4, loader.calls.get());
+    }
+
+    @Test
+    public void oversizedListsAreNotCached() throws Exception {
+        final TokenCache cache = new TokenCache(CollationMemoryGovernor.BYTES_PER_TOKEN);
+        final Text text = new SimpleText(Text.Type.TXT, "");
+        final CountingLoader loader = new CountingLoader(2);
+        Assert.assertEquals(2, cache.get(new TokenCache.Key(1L, text, ALL, new Config(false)), loader).size());
+        cache.get(new TokenCache.Key(1L, text, ALL, new Config(false)), loader);
+        Assert.assertEquals(2, loader.calls.get());
+        Assert.assertEquals(0, cache.getBytes());
+    }
+
+    private static final class CountingLoader implements Callable<List<Token>> {
+        private final AtomicInteger calls = new AtomicInteger();
+        private final int size;
+
+        private CountingLoader(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public List<Token> call() throws Exception {
+            this.calls.incrementAndGet();
+            final List<Token> tokens = new ArrayList<Token>(this.size);
+            for (int i = 0; i < this.size; i++) {
+                tokens.add(new SimpleToken(null, "t" + i));
+            }
+            return tokens;
+        }
+    }
+
+    private static final class Config implements TokenizerConfiguration {
+        private final boolean filterCase;
+
+        private Config(boolean filterCase) {
+            this.filterCase = filterCase;
+        }
+
+        @Override
+        public boolean isFilterWhitespace() {
+            return true;
+        }
+
+        @Override
+        public boolean isFilterPunctuation() {
+            return false;
+        }
+
+        @Override
+        public boolean isFilterCase() {
+            return this.filterCase;
+        }
+
+        @Override
+        public HyphenationFilter getHyphenationFilter() {
+            return HyphenationFilter.INCLUDE_ALL;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.juxtasoftware.service;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
+
+/**
+ * Compares the {@link TokenNormalizer} with the chain of string
+ * replacements it replaced, for random texts and all settings.
+ */
+public class TokenNormalizerTest {
+    private static final String ALPHABET = "abcXYZ019---  \t\n\r\u000B\f\u0001\u001c.,;'\"!?()"
+        + "\u00e9\u00c9\u0130\u0131\u03a3\u03c3\u00df\u212a\u00a0\u2013\ud835\udc00\ud800";
+
+    private static final Pattern PUNCTUATION = Pattern.compile("[^a-zA-Z0-9\\-]");
+
+    @Test
+    public void examples() {
+        final String[] texts = {
+            "", " ", "-", "--", "a", "a-", "-a", "a-b", "a--b", "a-b-", "a-b-c", " sub- \n stitute ", "sub-\r\nstitute",
+            "Well-Known", "don't", "\u00c9T\u00c9", "  a \t\n b  ", "a\u0001 b", "\u0001a\u0001", "\u0130stanbul", "\u039f\u0394\u039f\u03a3"
+        };
+        for ( String text : texts ) {
+            assertSame(text);
+        }
+    }
+
+    @Test
+    public void randomTexts() {
+        final Random random = new Random(20121017L);
+        for ( int n = 0; n < 5000; n++ ) {
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(24);
+            for ( int i = 0; i < length; i++ ) {
+                text.append( ALPHABET.charAt(random.nextInt(ALPHABET.length())) );
+            }
+            assertSame(text.toString());
+        }
+    }
+
+    @Test
+    public void localeSensitiveCase() {
+        final Locale locale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr"));
+            assertSame("TITLE");
+            assertSame("\u0130stanbul-\nIrmak");
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    private static void assertSame(String text) {
+        for ( HyphenationFilter hyphenation : HyphenationFilter.values() ) {
+            for ( int flags = 0; flags < 8; flags++ ) {
+                final Config config = new Config((flags & 1) != 0, (flags & 2) != 0, (flags & 4) != 0, hyphenation);
+                final TokenNormalizer normalizer = new TokenNormalizer(config);
+                final String expected = reference(text, config);
+                final String actual = normalizer.normalize(text);
+                Assert.assertEquals("'" + text + "', " + config, expected, actual);
+                Assert.assertEquals("'" + text + "', " + config, expected.hashCode(), normalizer.hash());
+            }
+        }
+    }
+
+    /**
+     * The normalization as it was before the normalizer, with the
+     * precedence of the linebreak check fixed
+     */
+    private static String reference(String tokenText, TokenizerConfiguration config) {
+        if ( config.getHyphenationFilter().equals(HyphenationFilter.FILTER_ALL)  ) {
+            if ( tokenText.contains("-")) {
+                String[] bits = tokenText.split("-");
+                if (bits.length == 2) {
+                    tokenText = bits[0].trim() + bits[1].trim();
+                }
+            }
+        } else if ( config.getHyphenationFilter().equals(HyphenationFilter.FILTER_LINEBREAK)  ) {
+            if ( tokenText.contains("-") && (tokenText.indexOf(10) > -1 || tokenText.indexOf(13) > -1) ) {
+                String[] bits = tokenText.split("-");
+                if (bits.length == 2) {
+                    tokenText = bits[0].trim() + bits[1].trim();
+                }
+            }
+        }
+        if ( config.isFilterCase()) {
+            tokenText = tokenText.toLowerCase();
+        }
+        if ( config.getHyphenationFilter().equals(HyphenationFilter.FILTER_ALL)) {
+            tokenText = tokenText.replaceAll("-", "");
+        }
+        if ( config.isFilterPunctuation() ) {
+            tokenText = PUNCTUATION.matcher(tokenText).replaceAll("");
+        }
+        if ( config.isFilterWhitespace() ) {
+            tokenText = tokenText.trim().replaceAll("\\s+", " ");
+        }
+        return tokenText;
+    }
+
+    private static class Config implements TokenizerConfiguration {
+        private final boolean filterWhitespace;
+        private final boolean filterPunctuation;
+        private final boolean filterCase;
+        private final HyphenationFilter hyphenationFilter;
+
+        Config(boolean filterWhitespace, boolean filterPunctuation, boolean filterCase, HyphenationFilter hyphenationFilter) {
+            this.filterWhitespace = filterWhitespace;
+            this.filterPunctuation = filterPunctuation;
+            this.filterCase = filterCase;
+            this.hyphenationFilter = hyphenationFilter;
+        }
+
+        @Override
+        public boolean isFilterWhitespace() {
+            return filterWhitespace;
+        }
+
+        @Override
+        public boolean isFilterPunctuation() {
+            return filterPunctuation;
+        }
+
+        @Override
+        public boolean isFilterCase() {
+            return filterCase;
+        }
+
+        @Override
+        public HyphenationFilter getHyphenationFilter() {
+            return hyphenationFilter;
+        }
+
+        @Override
+        public String toString() {
+            return "whitespace=" + filterWhitespace + ", punctuation=" + filterPunctuation + ", case=" + filterCase
+                + ", " + hyphenationFilter;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.juxtasoftware.service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compares the {@link TokenScanner} with the character by character
+ * tokenizer it replaced.
+ */
+public class TokenScannerTest {
+    private static final String ALPHABET = "abcXYZ019-- \t\n\r\r\n.,;'\"!?()\u00e9\u00df\u4e2d\u00a0\u2013";
+
+    @Test
+    public void hyphenation() throws IOException {
+        final String[] texts = {
+            "", " ", "-", "a", "a-", "-a", "a -b", "sub-\nstitute", "sub-\r\nstitute", "sub- \n  stitute",
+            "sub-  stitute", "sub-.stitute", "well-known fact", "end-\n", "a--\nb", "x-\n-y", "(sub-\nstitute)",
+            "one, two;  three...\nfour", "\"quoted\" -- dash", "\u00e9t\u00e9-\nd\u00e9j\u00e0"
+        };
+        for ( String text : texts ) {
+            assertSame(text);
+        }
+    }
+
+    @Test
+    public void randomTexts() throws IOException {
+        final Random random = new Random(20121017L);
+        for ( int n = 0; n < 2000; n++ ) {
+            final StringBuilder text = new StringBuilder();
+            final int length = random.nextInt(200);
+            for ( int i = 0; i < length; i++ ) {
+                text.append( ALPHABET.charAt(random.nextInt(ALPHABET.length())) );
+            }
+            assertSame(text.toString());
+        }
+    }
+
+    @Test
+    public void reportsAllChars() throws IOException {
+        final String text = "sub-\nstitute, and more";
+        final Ranges ranges = new Ranges();
+        new TokenScanner(true, 3).scan(new StringReader(text), ranges);
+        Assert.assertEquals(text, ranges.chars.toString());
+    }
+
+    private static void assertSame(String text) throws IOException {
+        for ( boolean joinLinebreaks : new boolean[] {false, true} ) {
+            final List<String> expected = reference(new StringReader(text), joinLinebreaks);
+            for ( int chunkSize : new int[] {1, 2, 3, 7, TokenScanner.DEFAULT_CHUNK_SIZE} ) {
+                final Ranges ranges = new Ranges();
+                new TokenScanner(joinLinebreaks, chunkSize).scan(new StringReader(text), ranges);
+                Assert.assertEquals("'" + text + "', join=" + joinLinebreaks + ", chunk=" + chunkSize,
+                    expected, ranges.tokens);
+            }
+        }
+    }
+
+    private static class Ranges implements TokenScanner.Listener {
+        private final List<String> tokens = new ArrayList<String>();
+        private final StringBuilder chars = new StringBuilder();
+
+        @Override
+        public void chars(char[] chars, int length) {
+            this.chars.append(chars, 0, length);
+        }
+
+        @Override
+        public void token(int start, int end) {
+            this.tokens.add(start + "-" + end);
+        }
+    }
+
+    private enum HyphenState {NONE, FOUND_HYPHEN, LINEBREAK_HYPHEN, IN_HYPHENATED_PART};
+    private enum RunType {NONE, TOKEN, NON_TOKEN, WHITESPACE};
+
+    private static boolean isTokenChar(int c) {
+        if (Character.isLetter(c) || Character.isDigit(c) || c == '-') {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The tokenizer loop as it was before the scanner, reading one character at a time
+     */
+    private static List<String> reference(Reader tokenText, boolean filterLinebreak) throws IOException {
+        final List<String> tokens = new ArrayList<String>();
+        int offset = 0;
+        int start = -1;
+        HyphenState hyphenState = HyphenState.NONE;
+        RunType runType = RunType.NONE;
+        do {
+            final int read = tokenText.read();
+            if (read < 0) {
+                if (start != -1) {
+                    tokens.add(start + "-" + offset);
+                }
+                break;
+            }
+            if ( isTokenChar(read)) {
+                if ( runType.equals(RunType.NON_TOKEN) ) {
+                    tokens.add(start + "-" + offset);
+                    start = -1;
+                }
+                runType = RunType.TOKEN;
+                if (start == -1 ) {
+                    start = offset;
+                }
+                if ( filterLinebreak ) {
+                    if ( hyphenState.equals(HyphenState.FOUND_HYPHEN) || hyphenState.equals(HyphenState.LINEBREAK_HYPHEN) ) {
+                        hyphenState = HyphenState.IN_HYPHENATED_PART;
+                    }
+                    else if ( read == '-' ) {
+                        hyphenState = HyphenState.FOUND_HYPHEN;
+                    }
+                }
+            } else {
+                if ( filterLinebreak ) {
+                    if ( hyphenState.equals( HyphenState.IN_HYPHENATED_PART) ) {
+                        tokens.add(start + "-" + offset);
+                        start = -1;
+                        runType = RunType.NONE;
+                        hyphenState = HyphenState.NONE;
+                    } else if ( hyphenState.equals(HyphenState.FOUND_HYPHEN) || hyphenState.equals(HyphenState.LINEBREAK_HYPHEN)) {
+                        if ( Character.isWhitespace(read) ) {
+                            if (  read == 13 || read == 10 ) {
+                                hyphenState = HyphenState.LINEBREAK_HYPHEN;
+                            }
+                            offset++;
+                            continue;
+                        }
+                    }
+                }
+                if ( runType.equals(RunType.TOKEN) ) {
+                    tokens.add(start + "-" + offset);
+                    start = -1;
+                    runType = RunType.NONE;
+                    hyphenState = HyphenState.NONE;
+                }
+                if ( Character.isWhitespace(read) == false ) {
+                    runType = RunType.NON_TOKEN;
+                    if (start == -1 ) {
+                        start = offset;
+                    }
+                } else {
+                    if ( runType.equals(RunType.NON_TOKEN) ) {
+                        tokens.add(start + "-" + offset);
+                        runType = RunType.NONE;
+                        hyphenState = HyphenState.NONE;
+                        start = -1;
+                    }
+                }
+            }
+            offset++;
+        } while (true);
+        return tokens;
+    }
+}
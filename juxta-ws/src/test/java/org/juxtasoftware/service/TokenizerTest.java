@@ -0,0 +1,116 @@
+package org.juxtasoftware.service;
+
+import java.io.StringReader;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.juxtasoftware.dao.SourceDao;
+import org.juxtasoftware.dao.TokenizationDao;
+import org.juxtasoftware.dao.WitnessDao;
+import org.juxtasoftware.dao.WorkspaceDao;
+import org.juxtasoftware.model.CollatorConfig.HyphenationFilter;
+import org.juxtasoftware.model.Source;
+import org.juxtasoftware.model.TokenBoundaries;
+import org.juxtasoftware.model.Tokenization;
+import org.juxtasoftware.model.Witness;
+import org.juxtasoftware.model.Workspace;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import eu.interedition.text.rdbms.RelationalText;
+
+public class TokenizerTest extends AbstractTest {
+    @Autowired private WorkspaceDao workspaceDao;
+    @Autowired private SourceDao sourceDao;
+    @Autowired private WitnessDao witnessDao;
+    @Autowired private TokenizationDao tokenizationDao;
+    @Autowired private Tokenizer tokenizer;
+    @Autowired private PlatformTransactionManager transactionManager;
+
+    /**
+     * A witness that another node is tokenizing at the same time is not
+     * tokenized twice; the tokenizer waits for the other node to commit and
+     * reuses its tokenization. Both transactions commit, so this test runs
+     * outside the test transaction and cleans up after itself.
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void tokenizedByOtherNode() throws Exception {
+        final Witness witness = createWitness();
+        try {
+            final Tokenization other = new Tokenization();
+            other.setWitnessId(witness.getId());
+            other.setTextId(((RelationalText)witness.getText()).getId());
+            other.setJoinLinebreaks(false);
+            other.setTokenizedLength(16);
+            other.setContentHash("other");
+            final TokenBoundaries.Builder boundaries = new TokenBoundaries.Builder();
+            boundaries.add(0, 3);
+            boundaries.add(4, 9);
+            boundaries.add(10, 15);
+            boundaries.add(16, 19);
+            other.setBoundaries(boundaries.build());
+
+            final CountDownLatch stored = new CountDownLatch(1);
+            final TransactionTemplate tx = new TransactionTemplate(this.transactionManager);
+            final Thread node = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    tx.execute(new TransactionCallbackWithoutResult() {
+                        @Override
+                        protected void doInTransactionWithoutResult(TransactionStatus status) {
+                            tokenizationDao.lock(witness, false);
+                            other.setId(tokenizationDao.create(other));
+                            tokenizationDao.complete(other);
+                            stored.countDown();
+                            try {
+                                // keep the row locked while the tokenizer catches up
+                                Thread.sleep(500);
+                            } catch (InterruptedException e) {
+                                throw new IllegalStateException(e);
+                            }
+                        }
+                    });
+                }
+            });
+            node.start();
+            stored.await();
+
+            final Tokenization tokenization = this.tokenizer.tokenize(witness, HyphenationFilter.INCLUDE_ALL);
+            node.join();
+            Assert.assertEquals(other.getId(), tokenization.getId());
+            Assert.assertEquals("other", tokenization.getContentHash());
+            Assert.assertEquals(other.getId(), this.tokenizationDao.find(witness, false).getId());
+        } finally {
+            final Source src = this.sourceDao.find(witness.getWorkspaceId(), witness.getSourceId());
+            this.witnessDao.delete(witness);
+            this.sourceDao.delete(src);
+        }
+    }
+
+    private Witness createWitness() throws Exception {
+        Workspace pub = this.workspaceDao.getPublic();
+        if ( pub == null ) {
+            pub = new Workspace();
+            pub.setName("public");
+            pub.setDescription("Default public workspace");
+            pub.setId( this.workspaceDao.create(pub) );
+        }
+        final Long srcId = this.sourceDao.create(pub, "tokenizer.src", Source.Type.TXT,
+            new StringReader("The quick brown fox"));
+        final Source src = this.sourceDao.find(pub.getId(), srcId);
+        final Witness witness = new Witness();
+        witness.setName("tokenizer");
+        witness.setSourceId(srcId);
+        witness.setText(src.getText());
+        witness.setWorkspaceId(pub.getId());
+        witness.setId(this.witnessDao.create(witness));
+        return witness;
+    }
+}